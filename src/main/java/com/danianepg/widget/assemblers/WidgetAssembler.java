@@ -4,17 +4,24 @@ import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.linkTo;
 import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.methodOn;
 
 import java.util.List;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.hateoas.CollectionModel;
 import org.springframework.hateoas.EntityModel;
+import org.springframework.hateoas.IanaLinkRelations;
 import org.springframework.hateoas.Link;
 import org.springframework.hateoas.PagedModel;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Component;
+import org.springframework.web.util.UriComponentsBuilder;
 
 import com.danianepg.widget.controllers.WidgetController;
 import com.danianepg.widget.entities.Widget;
+import com.danianepg.widget.services.WidgetCursor;
 
 /**
  * Assembler to convert entities to RESTful/HATEOAS format. Hyperlinks are added
@@ -34,12 +41,52 @@ public class WidgetAssembler {
 	 * @return
 	 */
 	public EntityModel<Widget> toEntityModel(final Widget widget) {
-		final Link link = linkTo(WidgetController.class).slash(widget.getId()).withSelfRel();
+		return new Links().toEntityModel(widget);
+	}
+
+	/**
+	 * Convert a list of widgets, not paginated, to RESTful/HATEOAS format.
+	 * 
+	 * @param widgetLst
+	 * @return
+	 */
+	public CollectionModel<EntityModel<Widget>> toCollectionModel(final List<Widget> widgetLst) {
+
+		final Links links = new Links();
+		final List<EntityModel<Widget>> entityModels = widgetLst.stream().map(links::toEntityModel)
+				.collect(Collectors.toList());
+
+		final CollectionModel<EntityModel<Widget>> widgets = CollectionModel.of(entityModels);
+		widgets.add(links.widgets);
+
+		return widgets;
+	}
+
+	/**
+	 * Lean representation of a page: the widgets as a plain array, without links.
+	 * When the page is full, the cursor to the next page is informed on a
+	 * <code>Link</code> header instead.
+	 * 
+	 * @param widgetLst
+	 * @param page
+	 * @param nextPage  Invocation of the controller to request the page after a
+	 *                  cursor
+	 * @return
+	 */
+	public ResponseEntity<List<Widget>> toLeanResponse(final Page<Widget> widgetLst, final Pageable page,
+			final Function<String, Object> nextPage) {
+
+		final List<Widget> content = widgetLst.getContent();
+		final ResponseEntity.BodyBuilder response = ResponseEntity.ok();
 
-		final EntityModel<Widget> entityModel = EntityModel.of(widget, link);
-		entityModel.add(linkTo(methodOn(WidgetController.class).findAll(null)).withRel("widgets"));
+		final Link next = this.nextLink(widgetLst, page, nextPage);
+		if (next != null) {
+			final String href = UriComponentsBuilder.fromUriString(next.getHref())
+					.replaceQueryParam(WidgetController.VIEW, WidgetController.VIEW_LEAN).toUriString();
+			response.header(HttpHeaders.LINK, Link.of(href, IanaLinkRelations.NEXT).toString());
+		}
 
-		return entityModel;
+		return response.body(content);
 	}
 
 	/**
@@ -50,22 +97,90 @@ public class WidgetAssembler {
 	 * @return
 	 */
 	public PagedModel<EntityModel<Widget>> toCollectionModel(final Page<Widget> widgetLst, final Pageable page) {
+		return this.toCollectionModel(widgetLst, page,
+				next -> methodOn(WidgetController.class).findAll(page, next, null));
+	}
+
+	/**
+	 * Convert a list of widgets to RESTful/HATEOAS format. When the page is full,
+	 * a <code>next</code> link is added with the cursor right after its last
+	 * widget and the size of the page; the sort is carried by the cursor.
+	 * 
+	 * @param widgetLst
+	 * @param page
+	 * @param nextPage  Invocation of the controller to request the page after a
+	 *                  cursor
+	 * @return
+	 */
+	public PagedModel<EntityModel<Widget>> toCollectionModel(final Page<Widget> widgetLst, final Pageable page,
+			final Function<String, Object> nextPage) {
 
 		final PagedModel.PageMetadata pageMetaData = new PagedModel.PageMetadata(page.getPageSize(),
 				widgetLst.getNumber(), widgetLst.getTotalElements());
 
 		final List<Widget> content = widgetLst.getContent();
-		final List<EntityModel<Widget>> entityModels = content.stream().map(this::toEntityModel)
+		final Links links = new Links();
+		final List<EntityModel<Widget>> entityModels = content.stream().map(links::toEntityModel)
 				.collect(Collectors.toList());
 
 		final PagedModel<EntityModel<Widget>> widgets = PagedModel.of(entityModels, pageMetaData);
-		widgets.add(linkTo(methodOn(WidgetController.class).findAll(page)).withSelfRel());
+		widgets.add(linkTo(methodOn(WidgetController.class).findAll(page, null, null)).withSelfRel().expand());
 
-		widgets.add(linkTo(methodOn(WidgetController.class).findById(null)).withRel("findById"));
-		widgets.add(linkTo(methodOn(WidgetController.class).filterByArea(null, null, null, null, null))
+		final Link next = this.nextLink(widgetLst, page, nextPage);
+		if (next != null) {
+			widgets.add(next);
+		}
+
+		widgets.add(linkTo(methodOn(WidgetController.class).findById(null, null)).withRel("findById"));
+		widgets.add(linkTo(methodOn(WidgetController.class).filterByArea(null, null, null, null, null, null, null))
 				.withRel("filterByArea"));
 
 		return widgets;
 	}
 
+	/**
+	 * Link to the page after a full page, with the cursor right after its last
+	 * widget, carrying the total of the page, and the size of the page.
+	 *
+	 * @return null when the page is not full
+	 */
+	private Link nextLink(final Page<Widget> widgetLst, final Pageable page,
+			final Function<String, Object> nextPage) {
+
+		final List<Widget> content = widgetLst.getContent();
+		if (!page.isPaged() || content.isEmpty() || content.size() != page.getPageSize()) {
+			return null;
+		}
+
+		final WidgetCursor next = WidgetCursor.after(content.get(content.size() - 1), page.getSort(),
+				widgetLst.getTotalElements());
+		final String href = linkTo(nextPage.apply(next.encode())).toUriComponentsBuilder()
+				.replaceQueryParam("size", page.getPageSize()).toUriString();
+
+		return Link.of(href, IanaLinkRelations.NEXT);
+	}
+
+	/**
+	 * Links of the widgets of one response. The base of the links depends on the
+	 * request, so the templates are built once per response through the
+	 * controller proxies, and the link of each widget is filled in by
+	 * concatenating its id, instead of invoking the proxies for every widget.
+	 */
+	private static final class Links {
+
+		private final String selfPrefix;
+
+		private final Link widgets;
+
+		private Links() {
+			this.selfPrefix = linkTo(WidgetController.class).toUriComponentsBuilder().path("/").toUriString();
+			this.widgets = linkTo(methodOn(WidgetController.class).findAll(null, null, null)).withRel("widgets").expand();
+		}
+
+		private EntityModel<Widget> toEntityModel(final Widget widget) {
+			return EntityModel.of(widget, Link.of(this.selfPrefix + widget.getId()), this.widgets);
+		}
+
+	}
+
 }
@@ -1,11 +1,26 @@
 package com.danianepg.widget.controllers;
 
+import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.methodOn;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.servlet.http.HttpServletResponse;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Pageable;
+import org.springframework.hateoas.CollectionModel;
 import org.springframework.hateoas.EntityModel;
 import org.springframework.hateoas.PagedModel;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
@@ -15,12 +30,22 @@ import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import com.danianepg.widget.assemblers.WidgetAssembler;
 import com.danianepg.widget.entities.Widget;
 import com.danianepg.widget.exceptions.HateosMapperException;
+import com.danianepg.widget.exceptions.ValidationException;
+import com.danianepg.widget.services.WidgetBatch;
+import com.danianepg.widget.services.WidgetCursor;
 import com.danianepg.widget.services.WidgetService;
+import com.danianepg.widget.services.WidgetStoreVersion;
+import com.danianepg.widget.services.cache.WidgetCacheStats;
+import com.danianepg.widget.services.changes.WidgetChangeFeed;
 import com.danianepg.widget.services.inmemory.WidgetPagingAndSortingService;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 /**
  * Controller to handle widget API.
@@ -32,6 +57,16 @@ import com.danianepg.widget.services.inmemory.WidgetPagingAndSortingService;
 @RequestMapping("/api/widgets")
 public class WidgetController {
 
+	public static final String APPLICATION_NDJSON = "application/x-ndjson";
+
+	/**
+	 * Parameter to request the lean representation of the pages: plain arrays of
+	 * widgets without links.
+	 */
+	public static final String VIEW = "view";
+
+	public static final String VIEW_LEAN = "lean";
+
 	@Autowired
 	private WidgetService widgetService;
 
@@ -41,16 +76,33 @@ public class WidgetController {
 	@Autowired
 	private WidgetPagingAndSortingService pagingAndSorting;
 
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Autowired
+	private WidgetStoreVersion storeVersion;
+
+	@Autowired
+	private WidgetChangeFeed changeFeed;
+
 	/**
-	 * Find a widget by its id.
+	 * Find a widget by its id. Answers 304 when the tag or the last modification
+	 * informed by the client still match the widget.
 	 *
 	 * @param id
+	 * @param request
 	 * @return
 	 */
 	@GetMapping("/{id}")
-	public EntityModel<Widget> findById(@PathVariable final Long id) {
-		return Optional.of(this.widgetService.findById(id)).map(this.assembler::toEntityModel)
-				.orElseThrow(HateosMapperException::new);
+	public EntityModel<Widget> findById(@PathVariable final Long id, final ServletWebRequest request) {
+
+		final Widget widget = this.widgetService.findById(id);
+		if (request != null
+				&& request.checkNotModified(this.storeVersion.tagOf(widget), this.storeVersion.lastModifiedOf(widget))) {
+			return null;
+		}
+
+		return Optional.of(widget).map(this.assembler::toEntityModel).orElseThrow(HateosMapperException::new);
 	}
 
 	/**
@@ -79,6 +131,19 @@ public class WidgetController {
 				.orElseThrow(HateosMapperException::new);
 	}
 
+	/**
+	 * Create, update and delete widgets at once, with a single rearrangement of
+	 * the z indexes for the whole batch.
+	 *
+	 * @param batch Widgets to save and ids to delete
+	 * @return The widgets saved, in the order informed
+	 */
+	@PostMapping("/bulk")
+	public CollectionModel<EntityModel<Widget>> bulk(@RequestBody final WidgetBatch batch) {
+		return Optional.of(this.widgetService.saveAll(batch)).map(this.assembler::toCollectionModel)
+				.orElseThrow(HateosMapperException::new);
+	}
+
 	/**
 	 * Delete widget by id
 	 *
@@ -90,20 +155,55 @@ public class WidgetController {
 	}
 
 	/**
-	 * Find all widgets paginated.
+	 * Find all widgets paginated. Pages can be walked either by number or by the
+	 * cursor found on the <code>next</code> link of each page, which keeps deep
+	 * pages as cheap as the first one.
 	 *
 	 * @param page
+	 * @param cursor
+	 * @param request
 	 * @return
 	 */
 	@GetMapping("")
-	public PagedModel<EntityModel<Widget>> findAll(final Pageable page) {
-		final Pageable pageRequest = this.pagingAndSorting.getPageAndSort(page);
+	public PagedModel<EntityModel<Widget>> findAll(final Pageable page,
+			@RequestParam(value = "cursor", required = false) final String cursor, final ServletWebRequest request) {
 
-		return Optional.of(this.widgetService.findAll(pageRequest))
+		if (this.isNotModified(request)) {
+			return null;
+		}
+
+		final WidgetCursor widgetCursor = WidgetCursor.decode(cursor);
+		final Pageable pageRequest = this.pagingAndSorting.getPageAndSort(page, widgetCursor);
+
+		return Optional.of(this.widgetService.findAll(pageRequest, widgetCursor))
 				.map(p -> this.assembler.toCollectionModel(p, pageRequest)).orElseThrow(HateosMapperException::new);
 
 	}
 
+	/**
+	 * Find all widgets paginated, as a plain array of widgets without links. The
+	 * cursor to the next page is on the <code>Link</code> header of full pages.
+	 *
+	 * @param page
+	 * @param cursor
+	 * @param request
+	 * @return
+	 */
+	@GetMapping(value = "", params = VIEW + "=" + VIEW_LEAN)
+	public ResponseEntity<List<Widget>> findAllLean(final Pageable page,
+			@RequestParam(value = "cursor", required = false) final String cursor, final ServletWebRequest request) {
+
+		if (this.isNotModified(request)) {
+			return null;
+		}
+
+		final WidgetCursor widgetCursor = WidgetCursor.decode(cursor);
+		final Pageable pageRequest = this.pagingAndSorting.getPageAndSort(page, widgetCursor);
+
+		return this.assembler.toLeanResponse(this.widgetService.findAll(pageRequest, widgetCursor), pageRequest,
+				next -> methodOn(WidgetController.class).findAll(pageRequest, next, null));
+	}
+
 	/**
 	 * Filter widgets by a determined area and return paginated results.
 	 *
@@ -112,18 +212,154 @@ public class WidgetController {
 	 * @param upperX Position x to determine upper boundary
 	 * @param upperY Position y to determine upper boundary
 	 * @param page
+	 * @param cursor
+	 * @param request
 	 * @return
 	 */
 	@GetMapping("/filter")
 	public PagedModel<EntityModel<Widget>> filterByArea(@RequestParam("lowerX") final Long lowerX,
 			@RequestParam("lowerY") final Long lowerY, @RequestParam("upperX") final Long upperX,
-			@RequestParam("upperY") final Long upperY, final Pageable page) {
+			@RequestParam("upperY") final Long upperY, final Pageable page,
+			@RequestParam(value = "cursor", required = false) final String cursor, final ServletWebRequest request) {
 
-		final Pageable pageRequest = this.pagingAndSorting.getPageAndSort(page);
+		if (this.isNotModified(request)) {
+			return null;
+		}
 
-		return Optional.of(this.widgetService.filterWidget(lowerX, lowerY, upperX, upperY, pageRequest))
-				.map(p -> this.assembler.toCollectionModel(p, pageRequest)).orElseThrow(HateosMapperException::new);
+		final WidgetCursor widgetCursor = WidgetCursor.decode(cursor);
+		final Pageable pageRequest = this.pagingAndSorting.getPageAndSort(page, widgetCursor);
+
+		final Function<String, Object> nextPage = next -> methodOn(WidgetController.class).filterByArea(lowerX, lowerY,
+				upperX, upperY, pageRequest, next, null);
+
+		return Optional.of(this.widgetService.filterWidget(lowerX, lowerY, upperX, upperY, pageRequest, widgetCursor))
+				.map(p -> this.assembler.toCollectionModel(p, pageRequest, nextPage))
+				.orElseThrow(HateosMapperException::new);
+
+	}
+
+	/**
+	 * Filter widgets by a determined area, as a plain array of widgets without
+	 * links. The cursor to the next page is on the <code>Link</code> header of
+	 * full pages.
+	 *
+	 * @param lowerX Position x to determine lower boundary
+	 * @param lowerY Position y to determine lower boundary
+	 * @param upperX Position x to determine upper boundary
+	 * @param upperY Position y to determine upper boundary
+	 * @param page
+	 * @param cursor
+	 * @param request
+	 * @return
+	 */
+	@GetMapping(value = "/filter", params = VIEW + "=" + VIEW_LEAN)
+	public ResponseEntity<List<Widget>> filterByAreaLean(@RequestParam("lowerX") final Long lowerX,
+			@RequestParam("lowerY") final Long lowerY, @RequestParam("upperX") final Long upperX,
+			@RequestParam("upperY") final Long upperY, final Pageable page,
+			@RequestParam(value = "cursor", required = false) final String cursor, final ServletWebRequest request) {
+
+		if (this.isNotModified(request)) {
+			return null;
+		}
+
+		final WidgetCursor widgetCursor = WidgetCursor.decode(cursor);
+		final Pageable pageRequest = this.pagingAndSorting.getPageAndSort(page, widgetCursor);
+
+		final Function<String, Object> nextPage = next -> methodOn(WidgetController.class).filterByArea(lowerX, lowerY,
+				upperX, upperY, pageRequest, next, null);
+
+		return this.assembler.toLeanResponse(
+				this.widgetService.filterWidget(lowerX, lowerY, upperX, upperY, pageRequest, widgetCursor), pageRequest,
+				nextPage);
+	}
+
+	/**
+	 * Export all the widgets as newline-delimited JSON, one widget per line in
+	 * ascending z. Widgets are written to the response as they are read, a page
+	 * at a time, so the export runs in constant memory whatever the number of
+	 * widgets.
+	 *
+	 * @param response
+	 * @throws IOException
+	 */
+	@GetMapping(value = "/export", produces = APPLICATION_NDJSON)
+	public void export(final HttpServletResponse response) throws IOException {
+
+		final Iterator<Widget> widgets = this.widgetService.findAllByZ();
+		response.setContentType(APPLICATION_NDJSON);
+
+		try (JsonGenerator generator = this.objectMapper.getFactory().createGenerator(response.getOutputStream())) {
+			generator.setRootValueSeparator(null);
+
+			while (widgets.hasNext()) {
+				generator.writeObject(widgets.next());
+				generator.writeRaw('\n');
+			}
+		}
+	}
+
+	/**
+	 * Stream the changes of the widgets as server-sent events, as they are
+	 * written: <code>created</code>, <code>updated</code>, <code>deleted</code>
+	 * and <code>shifted</code>, with the sequence number of the change as the
+	 * event id. When an area is informed, only the changes of the widgets inside
+	 * it, before or after the change, are sent.
+	 *
+	 * @param lowerX Position x to determine lower boundary
+	 * @param lowerY Position y to determine lower boundary
+	 * @param upperX Position x to determine upper boundary
+	 * @param upperY Position y to determine upper boundary
+	 * @return
+	 */
+	@GetMapping(value = "/changes", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+	public SseEmitter changes(@RequestParam(value = "lowerX", required = false) final Long lowerX,
+			@RequestParam(value = "lowerY", required = false) final Long lowerY,
+			@RequestParam(value = "upperX", required = false) final Long upperX,
+			@RequestParam(value = "upperY", required = false) final Long upperY) {
+
+		final long informed = Stream.of(lowerX, lowerY, upperX, upperY).filter(Objects::nonNull).count();
+		if (informed != 0 && informed != 4) {
+			throw new ValidationException("Inform all the boundaries of the area, or none of them");
+		}
+
+		return this.changeFeed.subscribe(lowerX, lowerY, upperX, upperY);
+	}
+
+	/**
+	 * Statistics of the cache in front of the database: hits, misses, evictions
+	 * and invalidations since the start.
+	 *
+	 * @return
+	 */
+	@GetMapping("/cache")
+	public WidgetCacheStats cacheStats() {
+		return this.widgetService.getCacheStats();
+	}
+
+	/**
+	 * Answer 304 when the tag or the last modification informed by the client
+	 * still match the version of the store, before the page is read. Pages are
+	 * tagged by the version and by their path and parameters.
+	 *
+	 * @param request
+	 * @return Whether the response is complete
+	 */
+	private boolean isNotModified(final ServletWebRequest request) {
+
+		if (request == null) {
+			return false;
+		}
+
+		// @formatter:off
+		final String resource = request.getRequest().getRequestURI() + request.getParameterMap().entrySet().stream()
+				.sorted(Map.Entry.comparingByKey())
+				.map(parameter -> parameter.getKey() + "=" + String.join(",", parameter.getValue()))
+				.collect(Collectors.joining("&", "?", ""));
+		// @formatter:on
+		final WidgetStoreVersion.Version version = this.storeVersion.get();
 
+		return request.checkNotModified(this.storeVersion.tagOf(version, resource),
+				this.storeVersion.lastModifiedOf(version));
 	}
 
 }
@@ -8,9 +8,16 @@ import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
 import javax.validation.constraints.DecimalMin;
 import javax.validation.constraints.NotNull;
 
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 /**
  * Entity to represent the widget.
  *
@@ -18,15 +25,33 @@ import javax.validation.constraints.NotNull;
  *
  */
 @Entity
+// @formatter:off
+@Table(indexes = {
+		@Index(name = "idx_widget_z", columnList = "z"),
+		@Index(name = "idx_widget_left_bound", columnList = "leftBound"),
+		@Index(name = "idx_widget_right_bound", columnList = "rightBound"),
+		@Index(name = "idx_widget_bottom_bound", columnList = "bottomBound"),
+		@Index(name = "idx_widget_top_bound", columnList = "topBound") })
+// @formatter:on
 public class Widget implements Serializable, Cloneable {
 
 	private static final long serialVersionUID = 1L;
 
+	public static final int ID_BLOCK_SIZE = 50;
+
 	/**
-	 * Id was defined as a Long instead of UUID to simplify the API calls.
+	 * Id was defined as a Long instead of UUID to simplify the API calls. Ids are
+	 * taken from a sequence in blocks of {@link #ID_BLOCK_SIZE}, so inserts need
+	 * no round-trip to get their ids and can be sent to the database in batches.
 	 */
 	@Id
-	@GeneratedValue(strategy = GenerationType.IDENTITY)
+	@GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "widget_seq")
+	// @formatter:off
+	@GenericGenerator(name = "widget_seq", strategy = "org.hibernate.id.enhanced.SequenceStyleGenerator", parameters = {
+			@Parameter(name = "sequence_name", value = "widget_seq"),
+			@Parameter(name = "increment_size", value = "" + ID_BLOCK_SIZE),
+			@Parameter(name = "optimizer", value = "pooled-lo") })
+	// @formatter:on
 	private Long id;
 
 	/**
@@ -67,6 +92,27 @@ public class Widget implements Serializable, Cloneable {
 	 */
 	private LocalDateTime lastModification;
 
+	/**
+	 * Boundaries of the area covered by the widget, generated by the database from
+	 * x, y, width and height so the filter by area can be evaluated and indexed
+	 * in SQL. They are not part of the API.
+	 */
+	@JsonIgnore
+	@Column(insertable = false, updatable = false, columnDefinition = "REAL AS (x - width / 2)")
+	private Float leftBound;
+
+	@JsonIgnore
+	@Column(insertable = false, updatable = false, columnDefinition = "REAL AS (x + width / 2)")
+	private Float rightBound;
+
+	@JsonIgnore
+	@Column(insertable = false, updatable = false, columnDefinition = "REAL AS (y - height / 2)")
+	private Float bottomBound;
+
+	@JsonIgnore
+	@Column(insertable = false, updatable = false, columnDefinition = "REAL AS (y + height / 2)")
+	private Float topBound;
+
 	public Widget() {
 	}
 
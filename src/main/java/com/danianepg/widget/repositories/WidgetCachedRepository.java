@@ -0,0 +1,213 @@
+package com.danianepg.widget.repositories;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import javax.validation.Valid;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Repository;
+
+import com.danianepg.widget.entities.Widget;
+import com.danianepg.widget.services.WidgetCursor;
+import com.danianepg.widget.services.cache.WidgetCache;
+import com.danianepg.widget.services.cache.WidgetCacheStats;
+
+/**
+ * Read-through {@link WidgetCache} in front of {@link WidgetRepositoryImpl}, so
+ * widgets read again by id or by z index are served without a round-trip to
+ * the database. Each write drops the widgets it changed once it is committed:
+ * the widgets saved and the positions they take, the widgets deleted and the
+ * run of z indexes shifted. Pages and areas are always read from the
+ * database.
+ *
+ * Writes must go through this repository for the cache to stay in sync.
+ * Disabled while <code>widget.cache.capacity</code> is 0.
+ *
+ * @author Daniane P. Gomes
+ *
+ */
+@Repository
+public class WidgetCachedRepository implements WidgetRepository {
+
+	@Autowired
+	private WidgetRepositoryImpl widgetRepositoryImpl;
+
+	private final WidgetCache cache;
+
+	public WidgetCachedRepository(@Value("${widget.cache.capacity:10000}") final int capacity) {
+		this.cache = capacity > 0 ? new WidgetCache(capacity) : null;
+	}
+
+	public boolean isEnabled() {
+		return this.cache != null;
+	}
+
+	public WidgetCacheStats getStats() {
+		return this.isEnabled() ? this.cache.stats() : new WidgetCacheStats(0, 0, 0, 0, 0, 0);
+	}
+
+	@Override
+	public Optional<Widget> findById(final Long id) {
+
+		if (!this.isEnabled() || id == null) {
+			return this.widgetRepositoryImpl.findById(id);
+		}
+
+		final Widget cached = this.cache.get(id);
+		if (cached != null) {
+			return Optional.of(cached);
+		}
+
+		final long version = this.cache.version();
+		final Optional<Widget> widget = this.widgetRepositoryImpl.findById(id);
+		widget.ifPresent(w -> this.cache.put(w, version));
+
+		return widget;
+	}
+
+	@Override
+	public Optional<Widget> findByZ(final Long currentZ) {
+
+		if (!this.isEnabled() || currentZ == null) {
+			return this.widgetRepositoryImpl.findByZ(currentZ);
+		}
+
+		final Widget cached = this.cache.getByZ(currentZ);
+		if (cached != null) {
+			return Optional.of(cached);
+		}
+
+		final long version = this.cache.version();
+		final Optional<Widget> widget = this.widgetRepositoryImpl.findByZ(currentZ);
+		widget.ifPresent(w -> this.cache.put(w, version));
+
+		return widget;
+	}
+
+	@Override
+	public void deleteById(final Long id) {
+
+		try {
+			this.widgetRepositoryImpl.deleteById(id);
+		} finally {
+			if (this.isEnabled()) {
+				this.cache.invalidate(id);
+			}
+		}
+	}
+
+	@Override
+	public Map<Long, Widget> saveAll(final List<Widget> widgetsToMoveLst) {
+
+		try {
+			return this.widgetRepositoryImpl.saveAll(widgetsToMoveLst);
+		} finally {
+			if (this.isEnabled()) {
+				widgetsToMoveLst.forEach(this.cache::invalidate);
+			}
+		}
+	}
+
+	@Override
+	public Map<Long, Widget> deleteAndSaveAll(final List<Long> ids, final List<Widget> widgetsToMoveLst) {
+
+		try {
+			return this.widgetRepositoryImpl.deleteAndSaveAll(ids, widgetsToMoveLst);
+		} finally {
+			if (this.isEnabled()) {
+				ids.forEach(this.cache::invalidate);
+				widgetsToMoveLst.forEach(this.cache::invalidate);
+			}
+		}
+	}
+
+	@Override
+	public Widget save(@Valid final Widget widget) {
+
+		try {
+			return this.widgetRepositoryImpl.save(widget);
+		} finally {
+			if (this.isEnabled()) {
+				this.cache.invalidate(widget);
+			}
+		}
+	}
+
+	/**
+	 * Shift the run on the database and drop the widgets of the run, which are
+	 * cached on their former positions.
+	 */
+	@Override
+	public void shiftZ(final Long fromZ) {
+
+		final Optional<Long> toZ = this.widgetRepositoryImpl.shiftRun(fromZ);
+
+		if (this.isEnabled()) {
+			toZ.ifPresent(z -> this.cache.invalidateZ(fromZ, z));
+		}
+	}
+
+	/**
+	 * Shift and save on the database, then drop the widgets of the run and the
+	 * ones saved. The run is found before the write; the callers hold its z
+	 * positions, so it does not change meanwhile.
+	 */
+	@Override
+	public Map<Long, Widget> shiftZAndSaveAll(final Long fromZ, final List<Widget> widgetsToMoveLst) {
+
+		final Optional<Long> toZ = this.isEnabled() ? this.widgetRepositoryImpl.findEndOfRun(fromZ)
+				: Optional.empty();
+
+		try {
+			return this.widgetRepositoryImpl.shiftZAndSaveAll(fromZ, widgetsToMoveLst);
+		} finally {
+			if (this.isEnabled()) {
+				toZ.ifPresent(z -> this.cache.invalidateZ(fromZ, z));
+				widgetsToMoveLst.forEach(this.cache::invalidate);
+			}
+		}
+	}
+
+	@Override
+	public Optional<Long> findEndOfRun(final Long fromZ) {
+		return this.widgetRepositoryImpl.findEndOfRun(fromZ);
+	}
+
+	@Override
+	public Optional<Long> findMaxZ() {
+		return this.widgetRepositoryImpl.findMaxZ();
+	}
+
+	@Override
+	public Page<Widget> findAll(final Pageable pageable) {
+		return this.widgetRepositoryImpl.findAll(pageable);
+	}
+
+	@Override
+	public Page<Widget> findAll(final WidgetCursor cursor, final Pageable pageable) {
+		return this.widgetRepositoryImpl.findAll(cursor, pageable);
+	}
+
+	@Override
+	public List<Widget> findNext(final WidgetCursor cursor, final int limit) {
+		return this.widgetRepositoryImpl.findNext(cursor, limit);
+	}
+
+	@Override
+	public Page<Widget> findByArea(final Long lowerX, final Long lowerY, final Long upperX, final Long upperY,
+			final Pageable pageable) {
+		return this.widgetRepositoryImpl.findByArea(lowerX, lowerY, upperX, upperY, pageable);
+	}
+
+	@Override
+	public Page<Widget> findByArea(final Long lowerX, final Long lowerY, final Long upperX, final Long upperY,
+			final WidgetCursor cursor, final Pageable pageable) {
+		return this.widgetRepositoryImpl.findByArea(lowerX, lowerY, upperX, upperY, cursor, pageable);
+	}
+
+}
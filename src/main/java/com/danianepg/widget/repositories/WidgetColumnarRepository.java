@@ -0,0 +1,21 @@
+package com.danianepg.widget.repositories;
+
+import org.springframework.stereotype.Repository;
+
+import com.danianepg.widget.services.columnar.WidgetColumns;
+
+/**
+ * In memory repository keeping the widgets on {@link WidgetColumns}, column by
+ * column on primitive arrays, enabled by the <code>columnar</code> profile.
+ *
+ * @author Daniane P. Gomes
+ *
+ */
+@Repository
+public class WidgetColumnarRepository extends WidgetSlotsRepository {
+
+	public WidgetColumnarRepository() {
+		super(new WidgetColumns());
+	}
+
+}
@@ -1,7 +1,14 @@
 package com.danianepg.widget.repositories;
 
+import java.time.LocalDateTime;
+import java.util.List;
 import java.util.Optional;
 
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.PagingAndSortingRepository;
 import org.springframework.data.repository.query.Param;
 import org.springframework.data.rest.core.annotation.RepositoryRestResource;
@@ -16,8 +23,60 @@ import com.danianepg.widget.entities.Widget;
  *
  */
 @RepositoryRestResource(exported = false)
-public interface WidgetDatabaseRepository extends PagingAndSortingRepository<Widget, Long> {
+public interface WidgetDatabaseRepository
+		extends PagingAndSortingRepository<Widget, Long>, JpaSpecificationExecutor<Widget> {
 
 	Optional<Widget> findByZ(@Param("currentZ") Long currentZ);
 
+	@Query("SELECT MAX(w.z) FROM Widget w")
+	Optional<Long> findMaxZ();
+
+	/**
+	 * Find the widgets entirely inside an area, comparing the boundaries generated
+	 * for each widget. Filtering, sorting and pagination are all resolved by the
+	 * database.
+	 *
+	 * @param lowerX
+	 * @param lowerY
+	 * @param upperX
+	 * @param upperY
+	 * @param pageable
+	 * @return
+	 */
+	@Query("SELECT w FROM Widget w WHERE w.leftBound >= :lowerX AND w.bottomBound >= :lowerY "
+			+ "AND w.rightBound <= :upperX AND w.topBound <= :upperY")
+	Page<Widget> findByArea(@Param("lowerX") Float lowerX, @Param("lowerY") Float lowerY,
+			@Param("upperX") Float upperX, @Param("upperY") Float upperY, Pageable pageable);
+
+	boolean existsByZ(@Param("z") Long z);
+
+	/**
+	 * Find the z indexes, starting on fromZ, that are not followed by another
+	 * widget. The first one closes the contiguous run of z indexes starting on
+	 * fromZ, thus it is enough to request a single result ordered by z.
+	 *
+	 * @param fromZ
+	 * @param pageable
+	 * @return
+	 */
+	@Query("SELECT w.z FROM Widget w WHERE w.z >= :fromZ "
+			+ "AND NOT EXISTS (SELECT n.id FROM Widget n WHERE n.z = w.z + 1) ORDER BY w.z")
+	List<Long> findEndOfRun(@Param("fromZ") Long fromZ, Pageable pageable);
+
+	/**
+	 * Shift by +1 the z index of all the widgets between fromZ and toZ in a single
+	 * statement. The persistence context is flushed before and cleared after the
+	 * update so managed widgets do not keep stale z indexes.
+	 *
+	 * @param fromZ
+	 * @param toZ
+	 * @param lastModification
+	 * @return
+	 */
+	@Modifying(flushAutomatically = true, clearAutomatically = true)
+	@Query("UPDATE Widget w SET w.z = w.z + 1, w.lastModification = :lastModification "
+			+ "WHERE w.z BETWEEN :fromZ AND :toZ")
+	int shiftZ(@Param("fromZ") Long fromZ, @Param("toZ") Long toZ,
+			@Param("lastModification") LocalDateTime lastModification);
+
 }
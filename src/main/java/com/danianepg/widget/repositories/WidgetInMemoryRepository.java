@@ -5,15 +5,18 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
+import javax.annotation.PostConstruct;
 import javax.validation.Valid;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Repository;
 import org.springframework.validation.BeanPropertyBindingResult;
@@ -23,8 +26,14 @@ import org.springframework.validation.beanvalidation.LocalValidatorFactoryBean;
 import com.danianepg.widget.entities.Widget;
 import com.danianepg.widget.exceptions.NotFoundException;
 import com.danianepg.widget.exceptions.ValidationException;
+import com.danianepg.widget.services.WidgetCursor;
+import com.danianepg.widget.services.WidgetSort;
 import com.danianepg.widget.services.inmemory.WidgetPagingAndSortingService;
+import com.danianepg.widget.services.inmemory.WidgetsInMemoryIndexService;
 import com.danianepg.widget.services.inmemory.WidgetsInMemoryStorageService;
+import com.danianepg.widget.services.inmemory.WidgetsSnapshot;
+import com.danianepg.widget.services.inmemory.WidgetsSnapshotter;
+import com.danianepg.widget.services.inmemory.WidgetsWriteAheadLog;
 
 /**
  * In memory repository to handle {@link com.danianepg.widget.entities.Widget}
@@ -44,6 +53,20 @@ public class WidgetInMemoryRepository implements WidgetRepository {
 	@Autowired
 	private WidgetsInMemoryStorageService widgetsStored;
 
+	@Autowired
+	private WidgetsInMemoryIndexService widgetsIndex;
+
+	@Autowired
+	private WidgetsWriteAheadLog writeAheadLog;
+
+	@Autowired
+	private WidgetsSnapshotter snapshotter;
+
+	/**
+	 * Version of the widgets on the latest snapshot written.
+	 */
+	private volatile long checkpointVersion = -1;
+
 	@Autowired
 	private WidgetPagingAndSortingService pagingAndSorting;
 
@@ -51,43 +74,170 @@ public class WidgetInMemoryRepository implements WidgetRepository {
 	private LocalValidatorFactoryBean validator;
 
 	/**
-	 * Find a widget by id and return an Optional value of it.
+	 * Restore the widgets before any request is served: the latest snapshot
+	 * first, when enabled, and then the write-ahead log written after it. New
+	 * widgets get ids after the id counter of the snapshot and the greatest id
+	 * restored.
+	 */
+	@PostConstruct
+	public void recover() {
+
+		if (!this.writeAheadLog.isEnabled() && !this.snapshotter.isEnabled()) {
+			return;
+		}
+
+		final Map<Long, Widget> widgets = this.widgetsStored.getWidgets();
+
+		// @formatter:off
+		final long snapshotLatestId = this.snapshotter
+				.restore(widget -> widgets.put(widget.getId(), widget))
+				.map(WidgetsSnapshotter.Header::getLatestId)
+				.orElse(0L);
+		// @formatter:on
+
+		this.writeAheadLog.replay(widget -> widgets.put(widget.getId(), widget), widgets::remove);
+
+		final long maxId = widgets.keySet().stream().mapToLong(Long::longValue).max().orElse(0L);
+		this.latestId.set(Math.max(snapshotLatestId, maxId));
+
+		this.snapshotter.schedule(this::checkpoint);
+	}
+
+	/**
+	 * Write a snapshot of the widgets and drop the write-ahead log written before
+	 * it, skipped when nothing changed since the latest snapshot. Writers publish
+	 * their widgets before logging them and the position of the log is read
+	 * before the widgets are taken, so every write logged before it is on the
+	 * snapshot. Writes logged after it stay on the log and are replayed over the
+	 * snapshot; the log holds whole widgets, so replaying a write the snapshot
+	 * already has changes nothing.
+	 */
+	public void checkpoint() {
+
+		if (!this.snapshotter.isEnabled()) {
+			return;
+		}
+
+		final long logged = this.writeAheadLog.position();
+		final WidgetsSnapshot snapshot = this.widgetsIndex.sync(this.widgetsStored.getWidgets()).snapshot();
+
+		if (snapshot.getVersion() == this.checkpointVersion) {
+			return;
+		}
+
+		this.snapshotter.write(snapshot, this.latestId.get());
+		this.writeAheadLog.truncate(logged);
+		this.checkpointVersion = snapshot.getVersion();
+	}
+
+	/**
+	 * Find a widget by id and return an Optional value of it. The widget is a copy
+	 * of the latest snapshot, free to be changed by the caller.
 	 */
 	@Override
 	public Optional<Widget> findById(final Long id) {
-		return Optional.ofNullable(this.widgetsStored.getWidgets().get(id));
+
+		if (id == null) {
+			return Optional.empty();
+		}
+
+		final WidgetsSnapshot snapshot = this.widgetsIndex.sync(this.widgetsStored.getWidgets()).snapshot();
+		return Optional.ofNullable(snapshot.get(id)).map(Widget::clone);
 	}
 
 	/**
-	 * Delete a widget by id.
+	 * Delete a widget by id. Returns once the deletion is logged.
 	 */
 	@Override
 	public void deleteById(final Long id) {
 
-		final Widget widget = this.widgetsStored.getWidgets().remove(id);
+		final Map<Long, Widget> widgets = this.widgetsStored.getWidgets();
+		final WidgetsInMemoryIndexService index = this.widgetsIndex.sync(widgets);
+
+		final Widget widget = widgets.remove(id);
 		if (widget == null) {
 			throw new NotFoundException();
 		}
+
+		index.remove(id);
+		this.writeAheadLog.commit(this.writeAheadLog.appendDelete(id));
 	}
 
 	/**
-	 * Find all widgets paginated.
+	 * Find all widgets paginated. Pages sorted by a single widget attribute are
+	 * read from the sorted index of that attribute, starting on the offset of the
+	 * page; other sorts are selected from the whole storage. As on every read, the
+	 * widgets returned are copies of the snapshot, free to be changed by the
+	 * caller.
 	 */
 	@Override
 	public Page<Widget> findAll(final Pageable pageable) {
 
-		final Map<Long, Widget> widgetsCopy = new ConcurrentHashMap<>(this.widgetsStored.getWidgets());
-		return this.pagingAndSorting.getPage(widgetsCopy, pageable);
+		final WidgetsInMemoryIndexService index = this.widgetsIndex.sync(this.widgetsStored.getWidgets());
+
+		if (pageable == null || pageable.isUnpaged() || pageable.getSort().isUnsorted()
+				|| !WidgetSort.of(pageable.getSort()).isSingleField()) {
+			return this.pagingAndSorting.getPage(index.snapshot().values(), pageable).map(Widget::clone);
+		}
 
+		return index.read(snapshot -> {
+			// @formatter:off
+			final List<Widget> content = index
+					.findIdsSorted(WidgetSort.of(pageable.getSort()), pageable.getOffset(), pageable.getPageSize())
+					.stream()
+					.map(snapshot::get)
+					.filter(Objects::nonNull)
+					.map(Widget::clone)
+					.collect(Collectors.toList());
+			// @formatter:on
+
+			return new PageImpl<>(content, pageable, snapshot.size());
+		});
 	}
 
 	/**
-	 * Save all the widgets adjusting the queue as needed. This method does not lock
-	 * the operations, thus it keeps only the latest values informed to the widgets.
-	 *
-	 * The tradeoff was to lock the whole transaction or always replace the values
-	 * in case of concurrent access. The approach adopted was to only keep the
-	 * latest value and do not lock the Web application.
+	 * Find the widgets after a cursor by seeking its position on the sorted index
+	 * of its attribute. Cursors sorted by several attributes select the widgets
+	 * after them from the whole storage.
+	 */
+	@Override
+	public Page<Widget> findAll(final WidgetCursor cursor, final Pageable pageable) {
+
+		if (cursor == null) {
+			return this.findAll(pageable);
+		}
+
+		final WidgetsInMemoryIndexService index = this.widgetsIndex.sync(this.widgetsStored.getWidgets());
+
+		if (!cursor.getSort().isSingleField()) {
+			return this.pagingAndSorting.getPage(index.snapshot().values(), pageable, cursor).map(Widget::clone);
+		}
+
+		return index.read(snapshot -> {
+			final int pageSize = pageable == null || pageable.isUnpaged() ? snapshot.size() : pageable.getPageSize();
+
+			// @formatter:off
+			final List<Widget> content = index
+					.findIdsSortedAfter(cursor, pageSize)
+					.stream()
+					.map(snapshot::get)
+					.filter(Objects::nonNull)
+					.map(Widget::clone)
+					.collect(Collectors.toList());
+			// @formatter:on
+
+			// unpaged, otherwise a last page shorter than the page size would have its
+			// total of elements reduced to its own size
+			return new PageImpl<>(content, Pageable.unpaged(), snapshot.size());
+		});
+	}
+
+	/**
+	 * Save all the widgets, keeping only the latest values informed to them. This
+	 * method does not lock: writers that move widgets on the z axis must hold the
+	 * z positions involved on {@link com.danianepg.widget.services.WidgetZLocks},
+	 * as {@link com.danianepg.widget.services.WidgetService} does, so the queue
+	 * keeps unique z indexes. Returns once the widgets are logged.
 	 *
 	 * @param widgetsToMoveLst The whole list of widgets with z indexes already
 	 *                         adjusted.
@@ -96,7 +246,13 @@ public class WidgetInMemoryRepository implements WidgetRepository {
 
 	@Override
 	public Map<Long, Widget> saveAll(final List<Widget> widgetsToMoveLst) {
-		widgetsToMoveLst.stream().forEach(wParam -> {
+
+		final Map<Long, Widget> widgets = this.widgetsStored.getWidgets();
+		final WidgetsInMemoryIndexService index = this.widgetsIndex.sync(widgets);
+
+		final List<Widget> saved = new ArrayList<>(widgetsToMoveLst.size());
+
+		for (final Widget wParam : widgetsToMoveLst) {
 
 			final Widget w;
 
@@ -112,10 +268,29 @@ public class WidgetInMemoryRepository implements WidgetRepository {
 			}
 
 			w.setLastModification(LocalDateTime.now());
-			this.widgetsStored.getWidgets().compute(w.getId(), (key, oldValue) -> w);
-		});
+			widgets.compute(w.getId(), (key, oldValue) -> w);
+			saved.add(w);
+		}
 
-		return this.widgetsStored.getWidgets();
+		index.indexAll(saved);
+		this.writeAheadLog.commit(this.append(saved));
+
+		return widgets;
+	}
+
+	/**
+	 * Log widgets already published on the index, so a checkpoint that reads the
+	 * position of the log after their records finds them on its snapshot.
+	 *
+	 * @return Position to commit for the widgets to be logged
+	 */
+	private long append(final List<Widget> published) {
+
+		long logged = 0;
+		for (final Widget widget : published) {
+			logged = this.writeAheadLog.append(widget);
+		}
+		return logged;
 	}
 
 	/**
@@ -128,22 +303,167 @@ public class WidgetInMemoryRepository implements WidgetRepository {
 	}
 
 	/**
-	 * Find a widget by its z index
+	 * Find a widget by its z index through the navigable z index, without copying
+	 * or scanning the stored widgets.
 	 */
 	@Override
 	public Optional<Widget> findByZ(final Long currentZ) {
 
-		final Map<Long, Widget> widgetsCopy = new ConcurrentHashMap<>(this.widgetsStored.getWidgets());
+		final WidgetsInMemoryIndexService index = this.widgetsIndex.sync(this.widgetsStored.getWidgets());
+
+		// @formatter:off
+		return index.read(snapshot -> index
+				.findIdByZ(currentZ)
+				.map(snapshot::get)
+				.filter(w -> currentZ.equals(w.getZ()))
+				.map(Widget::clone));
+		// @formatter:on
+
+	}
+
+	/**
+	 * Shift by one position the contiguous run of widgets starting on a z index.
+	 * The run is walked on the z index from its top down, so each widget is moved
+	 * in place into the position released by the one above it. The cost is
+	 * proportional to the size of the run: the widgets outside it are not
+	 * copied, and the run is published on a single version of the widgets, with
+	 * one frozen copy per widget moved.
+	 */
+	@Override
+	public void shiftZ(final Long fromZ) {
+
+		final Optional<Long> lastZ = this.findEndOfRun(fromZ);
+		if (!lastZ.isPresent()) {
+			return;
+		}
+
+		final Map<Long, Widget> widgets = this.widgetsStored.getWidgets();
+		final WidgetsInMemoryIndexService index = this.widgetsIndex.sync(widgets);
+
+		final LocalDateTime now = LocalDateTime.now();
+		final NavigableMap<Long, Long> run = index.findFromZ(fromZ).headMap(lastZ.get(), true).descendingMap();
+
+		final List<Widget> moved = new ArrayList<>();
+
+		for (final Map.Entry<Long, Long> entry : run.entrySet()) {
+			final Widget widget = widgets.get(entry.getValue());
+			widget.setZ(entry.getKey() + 1);
+			widget.setLastModification(now);
+			moved.add(widget);
+		}
+
+		index.indexAll(moved);
+		this.writeAheadLog.commit(this.append(moved));
+	}
+
+	/**
+	 * Release a number of consecutive z indexes starting on fromZ in a single walk,
+	 * leaving the other widgets as inserting that number of widgets one by one on
+	 * fromZ would, whether fromZ is taken or not. Each widget from fromZ up is
+	 * moved to the first position above the ones moved before it, as long as it
+	 * stands on the way; gaps above the run absorb part of the shift. The widgets
+	 * moved are published on a single version.
+	 *
+	 * @param fromZ
+	 * @param positions Number of z indexes to release
+	 */
+	public void shiftZ(final Long fromZ, final int positions) {
+
+		final Map<Long, Widget> widgets = this.widgetsStored.getWidgets();
+		final WidgetsInMemoryIndexService index = this.widgetsIndex.sync(widgets);
+
+		final List<Widget> moved = new ArrayList<>();
+		long nextZ = fromZ + positions;
+
+		for (final Map.Entry<Long, Long> entry : index.findFromZ(fromZ).entrySet()) {
+
+			final Widget widget = widgets.get(entry.getValue());
+			if (entry.getKey() >= nextZ || widget == null || !entry.getKey().equals(widget.getZ())) {
+				break;
+			}
+
+			moved.add(widget);
+			nextZ++;
+		}
+
+		// from the top down, so each widget moves to a position already released
+		final LocalDateTime now = LocalDateTime.now();
+
+		for (int i = moved.size() - 1; i >= 0; i--) {
+			final Widget widget = moved.get(i);
+			widget.setZ(fromZ + positions + i);
+			widget.setLastModification(now);
+		}
+
+		Collections.reverse(moved);
+		index.indexAll(moved);
+		this.writeAheadLog.commit(this.append(moved));
+	}
+
+	/**
+	 * Walk the z index from fromZ up to the first gap.
+	 */
+	@Override
+	public Optional<Long> findEndOfRun(final Long fromZ) {
+
+		final Map<Long, Widget> widgets = this.widgetsStored.getWidgets();
+		final WidgetsInMemoryIndexService index = this.widgetsIndex.sync(widgets);
+
+		Long lastZ = null;
+		for (final Map.Entry<Long, Long> entry : index.findFromZ(fromZ).entrySet()) {
+
+			final Long expectedZ = lastZ == null ? fromZ : lastZ + 1;
+			final Widget widget = widgets.get(entry.getValue());
+
+			if (!entry.getKey().equals(expectedZ) || widget == null || !expectedZ.equals(widget.getZ())) {
+				break;
+			}
+			lastZ = expectedZ;
+		}
+
+		return Optional.ofNullable(lastZ);
+	}
+
+	/**
+	 * Find the greatest z index, tracked by the z index as widgets are saved and
+	 * deleted.
+	 */
+	@Override
+	public Optional<Long> findMaxZ() {
+		return this.widgetsIndex.sync(this.widgetsStored.getWidgets()).findMaxZ();
+	}
+
+	/**
+	 * Find the widgets inside an area through the spatial index, so only the
+	 * widgets around the area are visited.
+	 */
+	@Override
+	public Page<Widget> findByArea(final Long lowerX, final Long lowerY, final Long upperX, final Long upperY,
+			final Pageable pageable) {
+		return this.findByArea(lowerX, lowerY, upperX, upperY, null, pageable);
+	}
+
+	/**
+	 * Find the widgets inside an area after a cursor. The widgets inside the area
+	 * are not on a sorted index, so the ones after the cursor are selected from
+	 * them.
+	 */
+	@Override
+	public Page<Widget> findByArea(final Long lowerX, final Long lowerY, final Long upperX, final Long upperY,
+			final WidgetCursor cursor, final Pageable pageable) {
+
+		final WidgetsInMemoryIndexService index = this.widgetsIndex.sync(this.widgetsStored.getWidgets());
 
 		// @formatter:off
-		return widgetsCopy.values()
+		final List<Widget> widgetsFiltered = index.read(snapshot -> index
+				.findIdsInsideArea(lowerX, lowerY, upperX, upperY)
 				.stream()
-				.filter(Objects::nonNull )
-				.filter(w-> Objects.nonNull(w.getZ()))
-				.filter(w -> w.getZ().equals(currentZ))
-				.findFirst();
+				.map(snapshot::get)
+				.filter(Objects::nonNull)
+				.collect(Collectors.toList()));
 		// @formatter:on
 
+		return this.pagingAndSorting.getPage(widgetsFiltered, pageable, cursor).map(Widget::clone);
 	}
 
 	/**
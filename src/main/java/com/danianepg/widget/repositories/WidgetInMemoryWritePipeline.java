@@ -0,0 +1,393 @@
+package com.danianepg.widget.repositories;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import com.danianepg.widget.entities.Widget;
+import com.danianepg.widget.services.changes.WidgetChangeFeed;
+
+/**
+ * Single writer of the {@link WidgetInMemoryRepository}, enabled by
+ * <code>widget.in-memory.writes=pipeline</code>. Saves and deletes are queued
+ * on a bounded buffer and applied by one thread, in the order they arrived, so
+ * z cascades never run concurrently and need no locks. Callers wait for their
+ * own write to be applied; when the buffer is full they wait for room on it.
+ * Once the pipeline is stopped, writes are refused: the writer applies the ones
+ * buffered before it was stopped, and the ones buffered after fail. The writer
+ * is never interrupted, so a write is never cut in the middle of its I/O, as a
+ * commit to the write-ahead log.
+ *
+ * The writer takes every write waiting on the buffer, up to
+ * <code>widget.in-memory.writes.batch-size</code>, at once. Consecutive inserts
+ * on the same z index in a batch are applied with a single shift of the queue,
+ * instead of one shift per insert. Every widget written is published on the
+ * {@link WidgetChangeFeed} by the writer.
+ *
+ * @author Daniane P. Gomes
+ *
+ */
+@Component
+@ConditionalOnProperty(name = WidgetInMemoryWritePipeline.PROPERTY, havingValue = "pipeline")
+public class WidgetInMemoryWritePipeline {
+
+	public static final String PROPERTY = "widget.in-memory.writes";
+
+	private static final String STOPPED = "Writer stopped";
+
+	/**
+	 * Buffered by {@link #stop()} after the last write to apply.
+	 */
+	private static final Write STOP = new Write(() -> {
+	});
+
+	private final BlockingQueue<Write> buffer;
+
+	private final int batchSize;
+
+	@Autowired
+	private WidgetInMemoryRepository repository;
+
+	@Autowired
+	private WidgetChangeFeed changeFeed;
+
+	private Thread writer;
+
+	private volatile boolean stopped;
+
+	public WidgetInMemoryWritePipeline(@Value("${widget.in-memory.writes.buffer-size:1024}") final int bufferSize,
+			@Value("${widget.in-memory.writes.batch-size:64}") final int batchSize) {
+		this.buffer = new ArrayBlockingQueue<>(bufferSize);
+		this.batchSize = batchSize;
+	}
+
+	@PostConstruct
+	public void start() {
+		this.writer = new Thread(this::drain, "widget-writer");
+		this.writer.setDaemon(true);
+		this.writer.start();
+	}
+
+	/**
+	 * Refuse new writes and wait for the writer to apply the ones already
+	 * buffered.
+	 */
+	@PreDestroy
+	public void stop() {
+
+		this.stopped = true;
+
+		try {
+			this.buffer.put(STOP);
+			this.writer.join();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Save a widget on its z index, shifting the queue as needed, or on the top of
+	 * the queue when no z index is informed.
+	 *
+	 * @param widget
+	 * @return the widget saved
+	 */
+	public Widget save(final Widget widget) {
+		return this.submit(new Write(widget, null));
+	}
+
+	/**
+	 * Delete a widget by id.
+	 *
+	 * @param id
+	 */
+	public void deleteById(final Long id) {
+		this.submit(new Write(null, id));
+	}
+
+	/**
+	 * Run a task on the writer thread, in order with the other writes, as for
+	 * batches of writes worked out against the storage as it is when applied.
+	 *
+	 * @param task
+	 */
+	public void execute(final Runnable task) {
+		this.submit(new Write(task));
+	}
+
+	private Widget submit(final Write write) {
+
+		if (this.stopped) {
+			throw new IllegalStateException(STOPPED);
+		}
+
+		try {
+			this.buffer.put(write);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for room on the write buffer", e);
+		}
+
+		// stopped meanwhile: this write may be buffered after the writer is gone, so
+		// whatever it leaves on the buffer fails once it is
+		if (this.stopped) {
+			try {
+				this.writer.join();
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException(STOPPED, e);
+			}
+			this.failPending();
+		}
+
+		try {
+			return write.result.join();
+		} catch (final CompletionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	private void drain() {
+
+		final List<Write> batch = new ArrayList<>(this.batchSize);
+		boolean running = true;
+
+		while (running) {
+			try {
+				batch.add(this.buffer.take());
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+
+			this.buffer.drainTo(batch, this.batchSize - 1);
+
+			final int stop = batch.indexOf(STOP);
+			if (stop < 0) {
+				this.apply(batch);
+			} else {
+				this.apply(batch.subList(0, stop));
+				batch.subList(stop + 1, batch.size()).forEach(WidgetInMemoryWritePipeline::fail);
+				running = false;
+			}
+			batch.clear();
+		}
+
+		this.failPending();
+	}
+
+	/**
+	 * Fail the writes waiting on the buffer, once the writer is stopped.
+	 */
+	private void failPending() {
+
+		final List<Write> pending = new ArrayList<>();
+		this.buffer.drainTo(pending);
+		pending.forEach(WidgetInMemoryWritePipeline::fail);
+	}
+
+	private static void fail(final Write write) {
+		write.result.completeExceptionally(new IllegalStateException(STOPPED));
+	}
+
+	/**
+	 * Apply a batch of writes, in order.
+	 *
+	 * @param batch
+	 */
+	void apply(final List<Write> batch) {
+
+		int first = 0;
+		while (first < batch.size()) {
+
+			final int end = this.endOfInserts(batch, first);
+			if (end - first > 1) {
+				this.insertAll(batch.subList(first, end));
+			} else {
+				this.applyOne(batch.get(first));
+			}
+
+			first = end;
+		}
+	}
+
+	/**
+	 * Find the end of the group of inserts on the same z index starting on a write
+	 * of the batch.
+	 *
+	 * @param batch
+	 * @param first
+	 * @return the index right after the group
+	 */
+	private int endOfInserts(final List<Write> batch, final int first) {
+
+		final Long z = this.insertZ(batch.get(first));
+		if (z == null) {
+			return first + 1;
+		}
+
+		final Set<Long> ids = new HashSet<>();
+		int end = first;
+
+		while (end < batch.size() && z.equals(this.insertZ(batch.get(end)))) {
+			final Long id = batch.get(end).widget.getId();
+			if (id != null && !ids.add(id)) {
+				break;
+			}
+			end++;
+		}
+
+		return end;
+	}
+
+	/**
+	 * Z index of a write inserting a new widget on an informed position.
+	 *
+	 * @param write
+	 * @return null for the other writes
+	 */
+	private Long insertZ(final Write write) {
+
+		final Widget widget = write.widget;
+		if (widget == null || widget.getZ() == null
+				|| (widget.getId() != null && this.repository.findById(widget.getId()).isPresent())) {
+			return null;
+		}
+
+		return widget.getZ();
+	}
+
+	/**
+	 * Insert new widgets on the same z index, releasing all their positions with a
+	 * single shift. The latest insert takes the z index informed and the previous
+	 * ones stay right above it, as if they were inserted one by one.
+	 *
+	 * @param inserts
+	 */
+	private void insertAll(final List<Write> inserts) {
+
+		final long z = inserts.get(0).widget.getZ();
+		final int positions = inserts.size();
+
+		try {
+			final List<Widget> shifting = this.changeFeed.toShift(this.repository, z, positions);
+			this.repository.shiftZ(z, positions);
+
+			final LocalDateTime now = LocalDateTime.now();
+			final List<Widget> widgets = new ArrayList<>(positions);
+			for (int i = 0; i < positions; i++) {
+				final Widget widget = inserts.get(i).widget;
+				widget.setZ(z + positions - 1 - i);
+				widget.setLastModification(now);
+				widgets.add(widget);
+			}
+			this.repository.saveAll(widgets);
+
+			this.changeFeed.shifted(shifting, z, positions);
+			for (final Write insert : inserts) {
+				final Widget saved = this.repository.findByZ(insert.widget.getZ()).orElseGet(Widget::new);
+				this.changeFeed.created(saved);
+				insert.result.complete(saved);
+			}
+
+		} catch (final RuntimeException e) {
+			inserts.forEach(insert -> insert.result.completeExceptionally(e));
+		}
+	}
+
+	private void applyOne(final Write write) {
+
+		try {
+			if (write.task != null) {
+				write.task.run();
+				write.result.complete(null);
+				return;
+			}
+
+			if (write.widget == null) {
+				final Widget stored = this.repository.findById(write.id).orElse(null);
+				this.repository.deleteById(write.id);
+				this.changeFeed.deleted(stored);
+				write.result.complete(null);
+				return;
+			}
+
+			final Widget widget = write.widget;
+			if (widget.getZ() == null) {
+				widget.setZ(this.repository.findMaxZ().map(z -> z + 1).orElse(1L));
+			}
+			widget.setLastModification(LocalDateTime.now());
+
+			final Widget previous = widget.getId() == null ? null
+					: this.repository.findById(widget.getId()).orElse(null);
+			List<Widget> shifting = Collections.emptyList();
+			if (previous == null || !widget.getZ().equals(previous.getZ())) {
+				shifting = this.changeFeed.toShift(this.repository, widget.getZ(), 1);
+				this.repository.shiftZ(widget.getZ());
+			}
+			this.repository.saveAll(Collections.singletonList(widget));
+
+			final Widget saved = this.repository.findByZ(widget.getZ()).orElseGet(Widget::new);
+			this.changeFeed.shifted(shifting, widget.getZ(), 1);
+			if (previous == null) {
+				this.changeFeed.created(saved);
+			} else {
+				this.changeFeed.updated(previous, saved);
+			}
+			write.result.complete(saved);
+
+		} catch (final RuntimeException e) {
+			write.result.completeExceptionally(e);
+		}
+	}
+
+	/**
+	 * Save of a widget, delete of an id or a task, waiting on the buffer.
+	 */
+	static final class Write {
+
+		private final Widget widget;
+
+		private final Long id;
+
+		private final Runnable task;
+
+		private final CompletableFuture<Widget> result = new CompletableFuture<>();
+
+		Write(final Widget widget, final Long id) {
+			this.widget = widget;
+			this.id = id;
+			this.task = null;
+		}
+
+		Write(final Runnable task) {
+			this.widget = null;
+			this.id = null;
+			this.task = task;
+		}
+
+		CompletableFuture<Widget> getResult() {
+			return this.result;
+		}
+
+	}
+
+}
@@ -0,0 +1,43 @@
+package com.danianepg.widget.repositories;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Repository;
+
+import com.danianepg.widget.services.columnar.WidgetRecords;
+
+/**
+ * Repository keeping the widgets off the Java heap on {@link WidgetRecords},
+ * enabled by the <code>offheap</code> profile. The records are kept on the file
+ * informed by <code>widget.offheap.file</code>, and restored from it on the
+ * next start; without a file they are kept on direct buffers.
+ *
+ * Only created with its profile, since it holds the file open.
+ *
+ * @author Daniane P. Gomes
+ *
+ */
+@Repository
+@Profile("offheap")
+public class WidgetOffHeapRepository extends WidgetSlotsRepository {
+
+	public WidgetOffHeapRepository(@Value("${widget.offheap.file:}") final String file) throws IOException {
+		super(file.trim().isEmpty() ? WidgetRecords.direct() : WidgetRecords.mapped(Paths.get(file.trim())));
+	}
+
+	/**
+	 * Write the records to the file and release it.
+	 *
+	 * @throws IOException
+	 */
+	@PreDestroy
+	public void close() throws IOException {
+		((WidgetRecords) this.slots).close();
+	}
+
+}
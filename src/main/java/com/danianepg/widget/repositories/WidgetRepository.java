@@ -7,10 +7,12 @@ import java.util.Optional;
 import javax.validation.Valid;
 
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 
 import com.danianepg.widget.entities.Widget;
+import com.danianepg.widget.services.WidgetCursor;
 
 /**
  * Interface to direct services to the right repository. When the application is
@@ -34,10 +36,113 @@ public interface WidgetRepository {
 
 	Page<Widget> findAll(final Pageable pageable);
 
+	/**
+	 * Find the page of widgets right after a cursor, in the sort of the cursor.
+	 * Only the size of the pageable is considered.
+	 *
+	 * @param cursor
+	 * @param pageable
+	 * @return
+	 */
+	Page<Widget> findAll(final WidgetCursor cursor, final Pageable pageable);
+
+	/**
+	 * Find the widgets right after a cursor, in the sort of the cursor, without
+	 * the total of widgets: for walks that read page after page until a short
+	 * one. The widgets are not kept by the repository after the call.
+	 *
+	 * @param cursor
+	 * @param limit  Greatest number of widgets to return
+	 * @return
+	 */
+	default List<Widget> findNext(final WidgetCursor cursor, final int limit) {
+		return this.findAll(cursor, PageRequest.of(0, limit)).getContent();
+	}
+
 	Map<Long, Widget> saveAll(final List<Widget> widgetsToMoveLst);
 
+	/**
+	 * Delete some widgets and save others as one write, as a batch applies them.
+	 * Repositories on a database do both on one transaction, so the batch is
+	 * written whole or not at all.
+	 *
+	 * @param ids              Ids of the widgets to delete
+	 * @param widgetsToMoveLst Widgets to save, with z indexes already adjusted
+	 * @return
+	 */
+	default Map<Long, Widget> deleteAndSaveAll(final List<Long> ids, final List<Widget> widgetsToMoveLst) {
+		ids.forEach(this::deleteById);
+		return this.saveAll(widgetsToMoveLst);
+	}
+
 	Widget save(@Valid final Widget widget);
 
 	Optional<Widget> findByZ(final Long currentZ);
 
+	/**
+	 * Shift by +1 the z index of all the widgets on the contiguous run of z
+	 * indexes starting on fromZ, releasing fromZ to a new widget.
+	 *
+	 * @param fromZ
+	 */
+	void shiftZ(final Long fromZ);
+
+	/**
+	 * Shift the run on fromZ, as {@link #shiftZ(Long)} does, and save the widgets
+	 * as one write. Repositories on a database do both on one transaction, so a
+	 * save that fails leaves the run where it was.
+	 *
+	 * @param fromZ
+	 * @param widgetsToMoveLst Widgets to save, with z indexes already adjusted
+	 * @return
+	 */
+	default Map<Long, Widget> shiftZAndSaveAll(final Long fromZ, final List<Widget> widgetsToMoveLst) {
+		this.shiftZ(fromZ);
+		return this.saveAll(widgetsToMoveLst);
+	}
+
+	/**
+	 * Find the last z index of the contiguous run of z indexes starting on fromZ,
+	 * i.e. the last position {@link #shiftZ(Long)} would move.
+	 *
+	 * @param fromZ
+	 * @return empty when no widget is on fromZ
+	 */
+	Optional<Long> findEndOfRun(final Long fromZ);
+
+	/**
+	 * Find the greatest z index on the plan, if any widget is stored.
+	 *
+	 * @return
+	 */
+	Optional<Long> findMaxZ();
+
+	/**
+	 * Find the widgets entirely inside an area, paginated.
+	 *
+	 * @param lowerX   Position x to determine lower boundary
+	 * @param lowerY   Position y to determine lower boundary
+	 * @param upperX   Position x to determine upper boundary
+	 * @param upperY   Position y to determine upper boundary
+	 * @param pageable
+	 * @return
+	 */
+	Page<Widget> findByArea(final Long lowerX, final Long lowerY, final Long upperX, final Long upperY,
+			final Pageable pageable);
+
+	/**
+	 * Find the page of widgets entirely inside an area right after a cursor, in
+	 * the sort of the cursor. Only the size of the pageable is considered.
+	 *
+	 * @param lowerX   Position x to determine lower boundary
+	 * @param lowerY   Position y to determine lower boundary
+	 * @param upperX   Position x to determine upper boundary
+	 * @param upperY   Position y to determine upper boundary
+	 * @param cursor
+	 * @param pageable
+	 * @return
+	 */
+	Page<Widget> findByArea(final Long lowerX, final Long lowerY, final Long upperX, final Long upperY,
+			final WidgetCursor cursor, final Pageable pageable);
+
 }
@@ -1,18 +1,36 @@
 package com.danianepg.widget.repositories;
 
+import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
 
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
 import javax.validation.Valid;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.data.jpa.repository.query.QueryUtils;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import com.danianepg.widget.entities.Widget;
+import com.danianepg.widget.services.WidgetCursor;
+import com.danianepg.widget.services.WidgetSort;
 
 /**
  * Implementation of {@link com.danianepg.widget.repositories.WidgetRepository}
@@ -30,6 +48,16 @@ public class WidgetRepositoryImpl implements WidgetRepository {
 	@Autowired
 	private WidgetDatabaseRepository widgetDatabaseRepository;
 
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	/**
+	 * Widgets written per flush, the same size as the JDBC batches, so each flush
+	 * sends one batch of inserts and one of updates.
+	 */
+	@Value("${widget.db.batch-size:50}")
+	private int batchSize;
+
 	@Override
 	public Optional<Widget> findById(final Long id) {
 		return this.widgetDatabaseRepository.findById(id);
@@ -46,21 +74,261 @@ public class WidgetRepositoryImpl implements WidgetRepository {
 	}
 
 	@Override
+	public Page<Widget> findAll(final WidgetCursor cursor, final Pageable pageable) {
+
+		if (cursor == null) {
+			return this.findAll(pageable);
+		}
+
+		return this.findAfter(null, cursor, pageable);
+	}
+
+	/**
+	 * Seek the widgets after the cursor with no count, selecting their columns
+	 * into new widgets instead of entities, so a long walk leaves nothing on the
+	 * persistence context of the request or of the transaction it runs on.
+	 */
+	@Override
+	public List<Widget> findNext(final WidgetCursor cursor, final int limit) {
+
+		final CriteriaBuilder builder = this.entityManager.getCriteriaBuilder();
+		final CriteriaQuery<Widget> query = builder.createQuery(Widget.class);
+		final Root<Widget> root = query.from(Widget.class);
+
+		// @formatter:off
+		query.select(builder.construct(Widget.class,
+						root.get("id"), root.get("x"), root.get("y"), root.get("z"),
+						root.get("width"), root.get("height"), root.get("lastModification")))
+				.where(this.after(cursor).toPredicate(root, query, builder))
+				.orderBy(QueryUtils.toOrders(cursor.getSort().toSort(), root, builder));
+		// @formatter:on
+
+		return this.entityManager.createQuery(query).setMaxResults(limit).getResultList();
+	}
+
+	/**
+	 * Save the widgets on one transaction, flushing them every batch of widgets.
+	 * The persistence context is cleared after each flush, so a bulk load does
+	 * not keep every widget written on it until the end.
+	 */
+	@Override
+	@Transactional
 	public Map<Long, Widget> saveAll(final List<Widget> widgetsToMoveLst) {
 
-		final Iterable<Widget> saved = this.widgetDatabaseRepository.saveAll(widgetsToMoveLst);
 		final Map<Long, Widget> map = new ConcurrentHashMap<>();
 
-		saved.forEach(w -> map.put(w.getId(), w));
+		for (int from = 0; from < widgetsToMoveLst.size(); from += this.batchSize) {
+
+			final List<Widget> batch = widgetsToMoveLst.subList(from,
+					Math.min(from + this.batchSize, widgetsToMoveLst.size()));
+			this.widgetDatabaseRepository.saveAll(batch).forEach(w -> map.put(w.getId(), w));
+
+			this.entityManager.flush();
+			this.entityManager.clear();
+		}
 
 		return map;
 	}
 
+	/**
+	 * Delete and save the widgets on the same transaction.
+	 */
+	@Override
+	@Transactional
+	public Map<Long, Widget> deleteAndSaveAll(final List<Long> ids, final List<Widget> widgetsToMoveLst) {
+		ids.forEach(this.widgetDatabaseRepository::deleteById);
+		return this.saveAll(widgetsToMoveLst);
+	}
+
 	@Override
 	public Optional<Widget> findByZ(final Long currentZ) {
 		return this.widgetDatabaseRepository.findByZ(currentZ);
 	}
 
+	/**
+	 * Shift the contiguous run of z indexes with one bulk update, inside the same
+	 * transaction that finds where the run ends.
+	 */
+	@Override
+	@Transactional
+	public void shiftZ(final Long fromZ) {
+		this.shiftRun(fromZ);
+	}
+
+	/**
+	 * Shift the run and save the widgets on the same transaction.
+	 */
+	@Override
+	@Transactional
+	public Map<Long, Widget> shiftZAndSaveAll(final Long fromZ, final List<Widget> widgetsToMoveLst) {
+		this.shiftRun(fromZ);
+		return this.saveAll(widgetsToMoveLst);
+	}
+
+	/**
+	 * Shift the contiguous run of z indexes starting on fromZ, as
+	 * {@link #shiftZ(Long)} does, telling which widgets were shifted.
+	 *
+	 * @param fromZ
+	 * @return The z index of the last widget of the run before the shift, empty
+	 *         when no widget was on fromZ
+	 */
+	@Transactional
+	public Optional<Long> shiftRun(final Long fromZ) {
+
+		final Optional<Long> toZ = this.findEndOfRun(fromZ);
+		toZ.ifPresent(z -> this.widgetDatabaseRepository.shiftZ(fromZ, z, LocalDateTime.now()));
+
+		return toZ;
+	}
+
+	/**
+	 * Find the end of the run through the index on the z column.
+	 */
+	@Override
+	public Optional<Long> findEndOfRun(final Long fromZ) {
+
+		if (!this.widgetDatabaseRepository.existsByZ(fromZ)) {
+			return Optional.empty();
+		}
+
+		return this.widgetDatabaseRepository.findEndOfRun(fromZ, PageRequest.of(0, 1)).stream().findFirst();
+	}
+
+	/**
+	 * Find the greatest z index through the index on the z column.
+	 */
+	@Override
+	public Optional<Long> findMaxZ() {
+		return this.widgetDatabaseRepository.findMaxZ();
+	}
+
+	/**
+	 * Delegate the filter by area and its pagination to the database.
+	 */
+	@Override
+	public Page<Widget> findByArea(final Long lowerX, final Long lowerY, final Long upperX, final Long upperY,
+			final Pageable pageable) {
+
+		final Pageable page = pageable == null ? Pageable.unpaged() : pageable;
+
+		return this.widgetDatabaseRepository.findByArea(lowerX.floatValue(), lowerY.floatValue(),
+				upperX.floatValue(), upperY.floatValue(), page);
+	}
+
+	@Override
+	public Page<Widget> findByArea(final Long lowerX, final Long lowerY, final Long upperX, final Long upperY,
+			final WidgetCursor cursor, final Pageable pageable) {
+
+		if (cursor == null) {
+			return this.findByArea(lowerX, lowerY, upperX, upperY, pageable);
+		}
+
+		return this.findAfter(this.inside(lowerX, lowerY, upperX, upperY), cursor, pageable);
+	}
+
+	/**
+	 * Seek the page after a cursor with a condition on the sort attribute and id
+	 * instead of an offset, so the database starts reading right where the
+	 * previous page ended. The total is the one carried by the cursor, counted
+	 * only when the cursor has none.
+	 *
+	 * @param filter
+	 * @param cursor
+	 * @param pageable
+	 * @return
+	 */
+	private Page<Widget> findAfter(final Specification<Widget> filter, final WidgetCursor cursor,
+			final Pageable pageable) {
+
+		final int pageSize = pageable == null || pageable.isUnpaged() ? Integer.MAX_VALUE : pageable.getPageSize();
+
+		final List<Widget> content = this.findFirst(Specification.where(filter).and(this.after(cursor)),
+				cursor.getSort().toSort(), pageSize);
+
+		// unpaged, otherwise a last page shorter than the page size would have its
+		// total of elements reduced to its own size
+		return new PageImpl<>(content, Pageable.unpaged(),
+				cursor.getTotal().orElseGet(() -> this.widgetDatabaseRepository.count(filter)));
+	}
+
+	/**
+	 * Select the first widgets matching a condition, in the order informed, with
+	 * no count of the widgets matching it.
+	 *
+	 * @param condition
+	 * @param sort
+	 * @param limit
+	 * @return
+	 */
+	private List<Widget> findFirst(final Specification<Widget> condition, final Sort sort, final int limit) {
+
+		final CriteriaBuilder builder = this.entityManager.getCriteriaBuilder();
+		final CriteriaQuery<Widget> query = builder.createQuery(Widget.class);
+		final Root<Widget> root = query.from(Widget.class);
+
+		query.select(root).where(condition.toPredicate(root, query, builder))
+				.orderBy(QueryUtils.toOrders(sort, root, builder));
+
+		return this.entityManager.createQuery(query).setMaxResults(limit).getResultList();
+	}
+
+	/**
+	 * Widgets after a cursor, comparing the attributes of the sort in order: past
+	 * the value of the cursor on one attribute while equal on all the previous
+	 * ones, each in its own direction. The last attribute is the id. Missing
+	 * values are the lowest ones, as on H2.
+	 *
+	 * @param cursor
+	 * @return
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private Specification<Widget> after(final WidgetCursor cursor) {
+
+		return (root, query, builder) -> {
+
+			final WidgetSort sort = cursor.getSort();
+			final List<Predicate> alternatives = new ArrayList<>();
+			final List<Predicate> equalBefore = new ArrayList<>();
+
+			for (int i = 0; i < sort.size(); i++) {
+				final Path<Comparable> attribute = root.get(sort.getField(i).getProperty());
+				final Comparable value = sort.getField(i).value(cursor.getKey(i));
+
+				final Predicate afterValue;
+				if (value == null) {
+					afterValue = sort.isAscending(i) ? builder.isNotNull(attribute) : builder.disjunction();
+				} else {
+					afterValue = sort.isAscending(i) ? builder.greaterThan(attribute, value)
+							: builder.or(builder.lessThan(attribute, value), builder.isNull(attribute));
+				}
+
+				final List<Predicate> alternative = new ArrayList<>(equalBefore);
+				alternative.add(afterValue);
+				alternatives.add(builder.and(alternative.toArray(new Predicate[0])));
+
+				equalBefore.add(value == null ? builder.isNull(attribute) : builder.equal(attribute, value));
+			}
+
+			return builder.or(alternatives.toArray(new Predicate[0]));
+		};
+	}
+
+	/**
+	 * Widgets entirely inside an area, by their generated boundaries.
+	 */
+	private Specification<Widget> inside(final Long lowerX, final Long lowerY, final Long upperX,
+			final Long upperY) {
+
+		// @formatter:off
+		return (root, query, builder) -> builder.and(
+				builder.greaterThanOrEqualTo(root.get("leftBound"), lowerX.floatValue()),
+				builder.greaterThanOrEqualTo(root.get("bottomBound"), lowerY.floatValue()),
+				builder.lessThanOrEqualTo(root.get("rightBound"), upperX.floatValue()),
+				builder.lessThanOrEqualTo(root.get("topBound"), upperY.floatValue()));
+		// @formatter:on
+	}
+
 	@Override
 	public Widget save(@Valid final Widget widget) {
 		return this.widgetDatabaseRepository.save(widget);
@@ -0,0 +1,297 @@
+package com.danianepg.widget.repositories;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
+
+import javax.validation.Valid;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.validation.BeanPropertyBindingResult;
+import org.springframework.validation.Errors;
+import org.springframework.validation.beanvalidation.LocalValidatorFactoryBean;
+
+import com.danianepg.widget.entities.Widget;
+import com.danianepg.widget.exceptions.NotFoundException;
+import com.danianepg.widget.exceptions.ValidationException;
+import com.danianepg.widget.services.WidgetCursor;
+import com.danianepg.widget.services.WidgetSort;
+import com.danianepg.widget.services.columnar.LongIntHashMap;
+import com.danianepg.widget.services.columnar.WidgetSlots;
+
+/**
+ * Repository keeping the widgets on {@link WidgetSlots}, as primitive attributes
+ * on numbered slots. {@link Widget} objects are only created for the widgets
+ * returned.
+ *
+ * Reads share a read lock over the slots and writes take its write lock.
+ *
+ * @author Daniane P. Gomes
+ *
+ */
+public abstract class WidgetSlotsRepository implements WidgetRepository {
+
+	private static final IntPredicate ALL = slot -> true;
+
+	private final AtomicLong latestId = new AtomicLong();
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	protected final WidgetSlots slots;
+
+	protected WidgetSlotsRepository(final WidgetSlots slots) {
+		this.slots = slots;
+		this.latestId.set(slots.findMaxId());
+	}
+
+	@Autowired
+	private LocalValidatorFactoryBean validator;
+
+	@Override
+	public Optional<Widget> findById(final Long id) {
+
+		if (id == null) {
+			return Optional.empty();
+		}
+
+		this.lock.readLock().lock();
+		try {
+			final int slot = this.slots.slotOf(id);
+			return slot == LongIntHashMap.MISSING ? Optional.empty() : Optional.of(this.slots.get(slot));
+		} finally {
+			this.lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public void deleteById(final Long id) {
+
+		this.lock.writeLock().lock();
+		try {
+			if (id == null || !this.slots.remove(id)) {
+				throw new NotFoundException();
+			}
+		} finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Find all widgets paginated, selecting the page straight from the slots.
+	 */
+	@Override
+	public Page<Widget> findAll(final Pageable pageable) {
+		return this.findPage(ALL, null, pageable);
+	}
+
+	@Override
+	public Page<Widget> findAll(final WidgetCursor cursor, final Pageable pageable) {
+		return this.findPage(ALL, cursor, pageable);
+	}
+
+	/**
+	 * Save all the widgets, creating ids for the new ones.
+	 *
+	 * @return the widgets saved, by id
+	 */
+	@Override
+	public Map<Long, Widget> saveAll(final List<Widget> widgetsToMoveLst) {
+
+		final Map<Long, Widget> saved = new LinkedHashMap<>();
+
+		this.lock.writeLock().lock();
+		try {
+			for (final Widget widgetParam : widgetsToMoveLst) {
+
+				final Widget widget = widgetParam.getId() != null ? widgetParam
+						: new Widget(this.latestId.incrementAndGet(), widgetParam.getX(), widgetParam.getY(),
+								widgetParam.getZ(), widgetParam.getWidth(), widgetParam.getHeight());
+				widget.setLastModification(LocalDateTime.now());
+
+				// ids informed by the caller are never created again
+				this.latestId.accumulateAndGet(widget.getId(), Math::max);
+
+				saved.put(widget.getId(), this.slots.get(this.slots.put(widget)));
+			}
+		} finally {
+			this.lock.writeLock().unlock();
+		}
+
+		return saved;
+	}
+
+	@Override
+	public Widget save(@Valid final Widget widget) {
+
+		final Errors errors = new BeanPropertyBindingResult(widget, "widget");
+		this.validator.validate(widget, errors);
+
+		if (errors.hasErrors() || errors.hasFieldErrors()) {
+			throw new ValidationException(errors.toString());
+		}
+
+		final List<Widget> widgets = new ArrayList<>();
+		widgets.add(widget);
+
+		return this.saveAll(widgets).values().iterator().next();
+	}
+
+	@Override
+	public Optional<Widget> findByZ(final Long currentZ) {
+
+		if (currentZ == null) {
+			return Optional.empty();
+		}
+
+		this.lock.readLock().lock();
+		try {
+			final int slot = this.slots.slotOfZ(currentZ);
+			return slot == LongIntHashMap.MISSING ? Optional.empty() : Optional.of(this.slots.get(slot));
+		} finally {
+			this.lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Shift the run from its top down, each widget moving to the position released
+	 * by the one above it.
+	 */
+	@Override
+	public void shiftZ(final Long fromZ) {
+
+		this.lock.writeLock().lock();
+		try {
+			final Optional<Long> lastZ = this.findEndOfRun(fromZ);
+			if (!lastZ.isPresent()) {
+				return;
+			}
+
+			final LocalDateTime now = LocalDateTime.now();
+			for (long z = lastZ.get(); z >= fromZ; z--) {
+				this.slots.setZ(this.slots.slotOfZ(z), z + 1, now);
+			}
+		} finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Follow the z indexes from fromZ on the z map up to the first gap.
+	 */
+	@Override
+	public Optional<Long> findEndOfRun(final Long fromZ) {
+
+		this.lock.readLock().lock();
+		try {
+			if (this.slots.slotOfZ(fromZ) == LongIntHashMap.MISSING) {
+				return Optional.empty();
+			}
+
+			long lastZ = fromZ;
+			while (this.slots.slotOfZ(lastZ + 1) != LongIntHashMap.MISSING) {
+				lastZ++;
+			}
+
+			return Optional.of(lastZ);
+		} finally {
+			this.lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public Optional<Long> findMaxZ() {
+
+		this.lock.readLock().lock();
+		try {
+			final OptionalLong maxZ = this.slots.findMaxZ();
+			return maxZ.isPresent() ? Optional.of(maxZ.getAsLong()) : Optional.empty();
+		} finally {
+			this.lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public Page<Widget> findByArea(final Long lowerX, final Long lowerY, final Long upperX, final Long upperY,
+			final Pageable pageable) {
+		return this.findByArea(lowerX, lowerY, upperX, upperY, null, pageable);
+	}
+
+	/**
+	 * Find the widgets inside an area with a sequential scan over the positions and
+	 * sizes of the slots.
+	 */
+	@Override
+	public Page<Widget> findByArea(final Long lowerX, final Long lowerY, final Long upperX, final Long upperY,
+			final WidgetCursor cursor, final Pageable pageable) {
+		return this.findPage(slot -> this.slots.isInside(slot, lowerX, lowerY, upperX, upperY), cursor, pageable);
+	}
+
+	/**
+	 * Remove all the widgets.
+	 */
+	public void deleteAll() {
+
+		this.lock.writeLock().lock();
+		try {
+			this.slots.clear();
+		} finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Select one page of the widgets accepted by a filter and create only the
+	 * widgets on it. Pages after a cursor keep the total of elements of the whole
+	 * filter, as the other repositories do.
+	 *
+	 * @param filter
+	 * @param cursor
+	 * @param pageable
+	 * @return
+	 */
+	private Page<Widget> findPage(final IntPredicate filter, final WidgetCursor cursor, final Pageable pageable) {
+
+		this.lock.readLock().lock();
+		try {
+			final int total = filter == ALL ? this.slots.size() : this.slots.count(filter);
+			final boolean paged = pageable != null && pageable.isPaged();
+
+			final int[] slots;
+			if (cursor != null) {
+				slots = this.slots.select(filter, null, cursor, 0, paged ? pageable.getPageSize() : total);
+			} else if (paged) {
+				final WidgetSort sort = pageable.getSort().isSorted() ? WidgetSort.of(pageable.getSort()) : null;
+				slots = this.slots.select(filter, sort, null, pageable.getOffset(), pageable.getPageSize());
+			} else {
+				slots = this.slots.select(filter, null, null, 0, total);
+			}
+
+			final List<Widget> content = new ArrayList<>(slots.length);
+			for (final int slot : slots) {
+				content.add(this.slots.get(slot));
+			}
+
+			if (cursor != null) {
+				return new PageImpl<>(content, Pageable.unpaged(), total);
+			}
+
+			return new PageImpl<>(content, paged ? pageable : PageRequest.of(0, Math.max(total, 1)), total);
+
+		} finally {
+			this.lock.readLock().unlock();
+		}
+	}
+
+}
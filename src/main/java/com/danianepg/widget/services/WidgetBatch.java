@@ -0,0 +1,52 @@
+package com.danianepg.widget.services;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.danianepg.widget.entities.Widget;
+
+/**
+ * Widgets to be created or updated and ids of widgets to be deleted at once,
+ * with a single rearrangement of the z indexes.
+ *
+ * @author Daniane P. Gomes
+ *
+ */
+public class WidgetBatch {
+
+	/**
+	 * Widgets to be saved. Widgets with an id already stored are updated, the
+	 * others are created.
+	 */
+	private List<Widget> save = new ArrayList<>();
+
+	/**
+	 * Ids of the widgets to be deleted.
+	 */
+	private List<Long> delete = new ArrayList<>();
+
+	public WidgetBatch() {
+	}
+
+	public WidgetBatch(final List<Widget> save, final List<Long> delete) {
+		this.setSave(save);
+		this.setDelete(delete);
+	}
+
+	public List<Widget> getSave() {
+		return this.save;
+	}
+
+	public void setSave(final List<Widget> save) {
+		this.save = save == null ? new ArrayList<>() : save;
+	}
+
+	public List<Long> getDelete() {
+		return this.delete;
+	}
+
+	public void setDelete(final List<Long> delete) {
+		this.delete = delete == null ? new ArrayList<>() : delete;
+	}
+
+}
@@ -0,0 +1,201 @@
+package com.danianepg.widget.services;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.OptionalLong;
+
+import org.springframework.data.domain.Sort;
+
+import com.danianepg.widget.entities.Widget;
+import com.danianepg.widget.exceptions.ValidationException;
+
+/**
+ * Position on a sorted list of widgets, right after the last widget of a page.
+ * The next page is found by seeking the first widget after the sort key and id
+ * kept here, instead of counting and skipping the widgets of the previous
+ * pages, so every page costs the same wherever it is on the list.
+ *
+ * Clients receive the cursor as an opaque token on the <code>next</code> link
+ * of a page. The token also carries the total of widgets counted for the first
+ * page, so the pages after it are not counted again.
+ *
+ * @author Daniane P. Gomes
+ *
+ */
+public final class WidgetCursor {
+
+	private static final String SEPARATOR = ":";
+
+	private static final String LIST_SEPARATOR = ",";
+
+	private final WidgetSort sort;
+
+	/**
+	 * Sortable keys of the last widget of the page, one for each attribute of the
+	 * sort; the last one is the id.
+	 */
+	private final long[] keys;
+
+	/**
+	 * Total of widgets on the list when its first page was read, negative when
+	 * unknown.
+	 */
+	private final long total;
+
+	private WidgetCursor(final WidgetSort sort, final long[] keys, final long total) {
+		this.sort = sort;
+		this.keys = keys;
+		this.total = total;
+	}
+
+	/**
+	 * Cursor after a widget on a page sorted as informed.
+	 *
+	 * @param widget
+	 * @param sort
+	 * @return
+	 */
+	public static WidgetCursor after(final Widget widget, final Sort sort) {
+		return after(widget, sort, -1);
+	}
+
+	/**
+	 * Cursor after a widget on a page sorted as informed, carrying the total of
+	 * widgets of the list.
+	 *
+	 * @param widget
+	 * @param sort
+	 * @param total
+	 * @return
+	 */
+	public static WidgetCursor after(final Widget widget, final Sort sort, final long total) {
+		final WidgetSort widgetSort = WidgetSort.of(sort);
+		return new WidgetCursor(widgetSort, widgetSort.keys(widget), total);
+	}
+
+	/**
+	 * Read a cursor from its token.
+	 *
+	 * @param token
+	 * @return the cursor, or null when no token is informed
+	 * @throws ValidationException when the token is not a valid cursor
+	 */
+	public static WidgetCursor decode(final String token) {
+
+		if (token == null || token.trim().isEmpty()) {
+			return null;
+		}
+
+		try {
+			final String[] parts = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8)
+					.split(SEPARATOR);
+
+			final String[] orders = parts[0].split(LIST_SEPARATOR);
+			final String[] values = parts[1].split(LIST_SEPARATOR);
+
+			Sort sort = Sort.unsorted();
+			for (final String order : orders) {
+				final WidgetSortField field = WidgetSortField.valueOf(order.substring(1));
+				sort = sort.and(Sort.by(order.charAt(0) == '+' ? Sort.Direction.ASC : Sort.Direction.DESC,
+						field.getProperty()));
+			}
+
+			final WidgetSort widgetSort = WidgetSort.of(sort);
+			if (widgetSort.size() != values.length) {
+				throw new IllegalArgumentException();
+			}
+
+			final long[] keys = new long[values.length];
+			for (int i = 0; i < keys.length; i++) {
+				keys[i] = Long.parseLong(values[i]);
+			}
+
+			final long total = parts.length > 2 ? Long.parseLong(parts[2]) : -1;
+
+			return new WidgetCursor(widgetSort, keys, total < 0 ? -1 : total);
+
+		} catch (final IllegalArgumentException | IndexOutOfBoundsException e) {
+			throw new ValidationException("Invalid cursor: " + token);
+		}
+	}
+
+	/**
+	 * Opaque token of the cursor, safe to be used on URLs.
+	 *
+	 * @return
+	 */
+	public String encode() {
+
+		final StringBuilder value = new StringBuilder();
+		for (int i = 0; i < this.sort.size(); i++) {
+			if (i > 0) {
+				value.append(LIST_SEPARATOR);
+			}
+			value.append(this.sort.isAscending(i) ? '+' : '-').append(this.sort.getField(i).name());
+		}
+
+		value.append(SEPARATOR);
+		for (int i = 0; i < this.keys.length; i++) {
+			if (i > 0) {
+				value.append(LIST_SEPARATOR);
+			}
+			value.append(this.keys[i]);
+		}
+
+		if (this.total >= 0) {
+			value.append(SEPARATOR).append(this.total);
+		}
+
+		return Base64.getUrlEncoder().withoutPadding()
+				.encodeToString(value.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Whether a widget comes after the cursor.
+	 *
+	 * @param widget
+	 * @return
+	 */
+	public boolean isBefore(final Widget widget) {
+		return this.sort.compare(this.sort.keys(widget), this.keys) > 0;
+	}
+
+	/**
+	 * Sort of the pages the cursor walks through.
+	 *
+	 * @return
+	 */
+	public WidgetSort getSort() {
+		return this.sort;
+	}
+
+	/**
+	 * Sortable key of the last widget of the page on the i-th attribute of the
+	 * sort.
+	 *
+	 * @param i
+	 * @return
+	 */
+	public long getKey(final int i) {
+		return this.keys[i];
+	}
+
+	/**
+	 * Id of the last widget of the page.
+	 *
+	 * @return
+	 */
+	public long getId() {
+		return this.keys[this.keys.length - 1];
+	}
+
+	/**
+	 * Total of widgets on the list when its first page was read.
+	 *
+	 * @return empty when the cursor does not carry it
+	 */
+	public OptionalLong getTotal() {
+		return this.total < 0 ? OptionalLong.empty() : OptionalLong.of(this.total);
+	}
+
+}
@@ -4,17 +4,20 @@ import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
 
 import javax.validation.Valid;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.env.Environment;
 import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
-import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
 import org.springframework.validation.BeanPropertyBindingResult;
 import org.springframework.validation.Errors;
@@ -23,10 +26,15 @@ import org.springframework.validation.beanvalidation.LocalValidatorFactoryBean;
 import com.danianepg.widget.entities.Widget;
 import com.danianepg.widget.exceptions.NotFoundException;
 import com.danianepg.widget.exceptions.ValidationException;
+import com.danianepg.widget.repositories.WidgetCachedRepository;
+import com.danianepg.widget.repositories.WidgetColumnarRepository;
 import com.danianepg.widget.repositories.WidgetInMemoryRepository;
+import com.danianepg.widget.repositories.WidgetInMemoryWritePipeline;
+import com.danianepg.widget.repositories.WidgetOffHeapRepository;
 import com.danianepg.widget.repositories.WidgetRepository;
 import com.danianepg.widget.repositories.WidgetRepositoryImpl;
-import com.danianepg.widget.services.inmemory.WidgetPagingAndSortingService;
+import com.danianepg.widget.services.cache.WidgetCacheStats;
+import com.danianepg.widget.services.changes.WidgetChangeFeed;
 
 /**
  * Service to handle the business logic of Widgets.
@@ -40,18 +48,39 @@ public class WidgetService {
 	@Autowired
 	private Environment environment;
 
-	@Autowired
-	private WidgetPagingAndSortingService pagingAndSorting;
-
 	@Autowired
 	private LocalValidatorFactoryBean validator;
 
 	@Autowired
 	private WidgetRepositoryImpl widgetRepositoryImpl;
 
+	@Autowired
+	private WidgetCachedRepository widgetCachedRepository;
+
 	@Autowired
 	private WidgetInMemoryRepository widgetInMemoryRepository;
 
+	@Autowired
+	private WidgetColumnarRepository widgetColumnarRepository;
+
+	@Autowired(required = false)
+	private WidgetOffHeapRepository widgetOffHeapRepository;
+
+	@Autowired
+	private WidgetZLocks zLocks;
+
+	@Autowired(required = false)
+	private WidgetInMemoryWritePipeline writePipeline;
+
+	@Autowired
+	private WidgetStoreVersion storeVersion;
+
+	@Autowired
+	private WidgetChangeFeed changeFeed;
+
+	@Value("${widget.export.page-size:1000}")
+	private int exportPageSize;
+
 	/**
 	 * Find a widget by id.
 	 *
@@ -79,6 +108,33 @@ public class WidgetService {
 		return this.getWidgetRepository().findAll(page);
 	}
 
+	/**
+	 * Find the widgets right after a cursor.
+	 *
+	 * @param pageParam Size of the page
+	 * @param cursor    Position to continue from, or null for the first page
+	 * @return
+	 */
+	public Page<Widget> findAll(final Pageable pageParam, final WidgetCursor cursor) {
+
+		if (cursor == null) {
+			return this.findAll(pageParam);
+		}
+
+		return this.getWidgetRepository().findAll(cursor, pageParam);
+	}
+
+	/**
+	 * Walk all the widgets in ascending z, read from the repository a page of
+	 * <code>widget.export.page-size</code> widgets at a time, so the walk holds a
+	 * single page whatever the number of widgets.
+	 *
+	 * @return
+	 */
+	public Iterator<Widget> findAllByZ() {
+		return new WidgetsByZ(this.getWidgetRepository(), this.exportPageSize);
+	}
+
 	/**
 	 * Validate if all mandatory attributes are filled and save a widget,
 	 * rearranging the queue.
@@ -95,7 +151,16 @@ public class WidgetService {
 			throw new ValidationException(errors.toString());
 		}
 
-		return this.saveQueue(widget);
+		try {
+			if (this.isPipelined()) {
+				return this.writePipeline.save(widget);
+			}
+
+			return this.saveQueue(widget);
+
+		} finally {
+			this.storeVersion.written();
+		}
 	}
 
 	/**
@@ -119,17 +184,155 @@ public class WidgetService {
 		}).orElseGet(() -> this.save(widget));
 	}
 
+	/**
+	 * Validate and apply a batch of writes with a single rearrangement of the
+	 * queue: every z index the batch takes is worked out at once by
+	 * {@link WidgetShiftPlan}, and the deletes, the widgets of the batch and the
+	 * ones moved out of their way are written with one
+	 * {@link WidgetRepository#deleteAndSaveAll(List, List)}, on one transaction
+	 * on the database, while holding the z positions involved on
+	 * {@link WidgetZLocks}. Nothing is written when a widget of the batch is
+	 * invalid. Every widget written is published on the {@link WidgetChangeFeed}.
+	 *
+	 * @param batch
+	 * @return The widgets saved, in the order informed
+	 */
+	public List<Widget> saveAll(final WidgetBatch batch) {
+
+		for (int i = 0; i < batch.getSave().size(); i++) {
+			final Widget widget = batch.getSave().get(i);
+			final Errors errors = new BeanPropertyBindingResult(widget, "save[" + i + "]");
+			this.validator.validate(widget, errors);
+
+			if (errors.hasErrors() || errors.hasFieldErrors()) {
+				throw new ValidationException(errors.toString());
+			}
+		}
+
+		try {
+			if (this.isPipelined()) {
+				final AtomicReference<List<Widget>> saved = new AtomicReference<>();
+				this.writePipeline.execute(() -> saved.set(this.applyBatch(batch)));
+				return saved.get();
+			}
+
+			final WidgetRepository repository = this.getWidgetRepository();
+			WidgetShiftPlan plan = WidgetShiftPlan.of(repository, batch);
+
+			while (!plan.isEmpty()) {
+				try (WidgetZLocks.Lease lease = plan.lock(this.zLocks)) {
+
+					// the queue may have changed before the locks were taken
+					plan = WidgetShiftPlan.of(repository, batch);
+					if (plan.isEmpty() || plan.isCoveredBy(lease)) {
+						return this.apply(repository, plan);
+					}
+				}
+			}
+
+			return Collections.emptyList();
+
+		} finally {
+			this.storeVersion.written();
+		}
+	}
+
+	private List<Widget> applyBatch(final WidgetBatch batch) {
+		final WidgetRepository repository = this.getWidgetRepository();
+		return this.apply(repository, WidgetShiftPlan.of(repository, batch));
+	}
+
+	private List<Widget> apply(final WidgetRepository repository, final WidgetShiftPlan plan) {
+
+		final List<Widget> widgets = new ArrayList<>(plan.getShifted());
+		widgets.addAll(plan.getSaved());
+		repository.deleteAndSaveAll(plan.getDeleted().stream().map(Widget::getId).collect(Collectors.toList()),
+				widgets);
+
+		// @formatter:off
+		final List<Widget> saved = plan.getSaved().stream()
+				.map(widget -> repository.findByZ(widget.getZ()).orElseGet(Widget::new))
+				.collect(Collectors.toList());
+		// @formatter:on
+
+		plan.getDeleted().forEach(this.changeFeed::deleted);
+		this.changeFeed.shifted(plan.getShifted());
+		for (int i = 0; i < saved.size(); i++) {
+			this.publishSaved(plan.getPrevious().get(i), saved.get(i));
+		}
+
+		return saved;
+	}
+
+	/**
+	 * Publish a widget saved on the {@link WidgetChangeFeed}.
+	 *
+	 * @param previous The widget as it was stored, null for a new widget
+	 * @param saved
+	 */
+	private void publishSaved(final Widget previous, final Widget saved) {
+
+		if (previous == null) {
+			this.changeFeed.created(saved);
+		} else {
+			this.changeFeed.updated(previous, saved);
+		}
+	}
+
 	/**
 	 * Delete widget by id
 	 *
 	 * @param id
 	 */
 	public void deleteById(final Long id) {
-		this.getWidgetRepository().deleteById(id);
+
+		try {
+			if (this.isPipelined()) {
+				this.writePipeline.deleteById(id);
+				return;
+			}
+
+			final WidgetRepository repository = this.getWidgetRepository();
+
+			while (true) {
+				final Long z = this.findZ(id);
+				if (z == null) {
+					repository.deleteById(id);
+					return;
+				}
+
+				try (WidgetZLocks.Lease lease = this.zLocks.lock(z, z)) {
+					// the widget may have been shifted out of the lease before the lock was
+					// taken
+					final Widget stored = this.findStored(id);
+					if (stored != null && lease.covers(stored.getZ())) {
+						repository.deleteById(id);
+						this.changeFeed.deleted(stored);
+						return;
+					}
+				}
+			}
+
+		} finally {
+			this.storeVersion.written();
+		}
 	}
 
 	/**
-	 * Readjusts necessary z indexes and move the queue.
+	 * Readjusts necessary z indexes, shifting the queue on the repository, and save
+	 * the widget on its position.
+	 *
+	 * The shift and the save run while holding the z positions they change on
+	 * {@link WidgetZLocks}: the current position of the widget and the run of
+	 * widgets starting on its new position, up to the free position after the
+	 * run. The run is only known once read, so the locks are taken for the run
+	 * last seen and the run is read again under them; when it has grown beyond
+	 * the locked positions, the locks are released and taken again for the wider
+	 * range. Writes on other ranges of z proceed in parallel, and a widget saved
+	 * on the position it already has shifts nothing. The shift and the save are
+	 * one write: on the database, a save that fails leaves no hole on the queue.
+	 * The widgets shifted and the widget saved are published on the
+	 * {@link WidgetChangeFeed}.
 	 *
 	 * @param widget
 	 * @return
@@ -141,43 +344,64 @@ public class WidgetService {
 		}
 		widget.setLastModification(LocalDateTime.now());
 
-		final List<Widget> widgetsToMoveLst = this.moveQueue(widget);
-		widgetsToMoveLst.add(widget);
+		final WidgetRepository repository = this.getWidgetRepository();
+		final Long z = widget.getZ();
+
+		Long previousZ = this.findZ(widget.getId());
+		long endOfRun = z;
+
+		while (true) {
+			try (WidgetZLocks.Lease lease = this.zLocks.lock(z, endOfRun + 1, previousZ)) {
 
-		this.getWidgetRepository().saveAll(widgetsToMoveLst);
+				final Widget previous = this.findStored(widget.getId());
+				previousZ = previous == null ? null : previous.getZ();
+				final Optional<Long> run = z.equals(previousZ) ? Optional.empty() : repository.findEndOfRun(z);
+				endOfRun = run.orElse(z);
 
-		return this.getWidgetRepository().findByZ(widget.getZ()).orElseGet(Widget::new);
+				if (lease.covers(previousZ) && lease.covers(z, endOfRun + 1)) {
+					final List<Widget> shifting = run.isPresent() ? this.changeFeed.toShift(repository, z, 1)
+							: Collections.emptyList();
+					if (run.isPresent()) {
+						repository.shiftZAndSaveAll(z, Collections.singletonList(widget));
+					} else {
+						repository.saveAll(Collections.singletonList(widget));
+					}
 
+					final Widget saved = repository.findByZ(z).orElseGet(Widget::new);
+					this.changeFeed.shifted(shifting, z, 1);
+					this.publishSaved(previous, saved);
+
+					return saved;
+				}
+			}
+		}
 	}
 
 	/**
-	 * Readjusts the queue
+	 * Find the current z index of a stored widget.
 	 *
-	 * @param newWidget
-	 * @return
+	 * @param id
+	 * @return null for widgets not stored yet
 	 */
-	private List<Widget> moveQueue(final Widget newWidget) {
-
-		final List<Widget> widgetsToMoveLst = Collections.synchronizedList(new ArrayList<>());
-		Long currentZ = newWidget.getZ();
-
-		while (currentZ != null) {
-
-			currentZ = this.getWidgetRepository().findByZ(currentZ).map(widgetAux -> {
+	private Long findZ(final Long id) {
 
-				final Widget widgetCopy = widgetAux.clone();
-				final Long auxZ = widgetCopy.getZ() + 1;
-				widgetCopy.setZ(auxZ);
-				widgetCopy.setLastModification(LocalDateTime.now());
-				widgetsToMoveLst.add(widgetCopy);
-				return auxZ;
+		final Widget stored = this.findStored(id);
+		return stored == null ? null : stored.getZ();
+	}
 
-			}).orElse(null);
+	/**
+	 * Find a stored widget.
+	 *
+	 * @param id
+	 * @return null for widgets not stored yet
+	 */
+	private Widget findStored(final Long id) {
 
+		if (id == null) {
+			return null;
 		}
 
-		return widgetsToMoveLst;
-
+		return this.getWidgetRepository().findById(id).orElse(null);
 	}
 
 	/**
@@ -188,27 +412,12 @@ public class WidgetService {
 	 */
 	private Long fillZ(final Widget widget) {
 
-		final Pageable page = PageRequest.of(0, 1, Sort.by("z").descending());
-
-		// @formatter:off
-		final Widget latestWidget = this.getWidgetRepository().findAll(page)
-				.getContent()
-				.stream()
-				.filter(Objects::nonNull)
-				.findFirst()
-				.orElseGet(Widget::new);
-		// @formatter:on
-
-		if (latestWidget.getZ() == null) {
-			return 1L;
-		} else {
-			return latestWidget.getZ() + 1;
-		}
+		return this.getWidgetRepository().findMaxZ().map(z -> z + 1).orElse(1L);
 	}
 
 	/**
-	 * Filter if a widget is inside a filtered area. X and y on widgets indicate
-	 * their center points. Based on that and its width and height, this method
+	 * Filter the widgets inside a filtered area. X and y on widgets indicate their
+	 * center points. Based on that and its width and height, the repository
 	 * calculates if a widget is inside a desired area.
 	 *
 	 * @param lowerX   Position x to determine lower boundary
@@ -221,26 +430,42 @@ public class WidgetService {
 	 */
 	public Page<Widget> filterWidget(final Long lowerX, final Long lowerY, final Long upperX, final Long upperY,
 			final Pageable pageable) {
+		return this.getWidgetRepository().findByArea(lowerX, lowerY, upperX, upperY, pageable);
+	}
 
-		final List<Widget> widgetsFiltered = Collections.synchronizedList(new ArrayList<>());
-		final List<Widget> widgets = this.getWidgetRepository().findAll(Pageable.unpaged()).getContent();
-
-		for (final Widget w : widgets) {
-			final Float left = w.getX() - w.getWidth() / 2;
-			final Float right = w.getX() + w.getWidth() / 2;
-			final Float bottom = w.getY() - w.getHeight() / 2;
-			final Float top = w.getY() + w.getHeight() / 2;
+	/**
+	 * Filter the widgets inside a filtered area, right after a cursor.
+	 *
+	 * @param lowerX   Position x to determine lower boundary
+	 * @param lowerY   Position y to determine lower boundary
+	 * @param upperX   Position x to determine upper boundary
+	 * @param upperY   Position y to determine upper boundary
+	 * @param pageable Size of the page
+	 * @param cursor   Position to continue from, or null for the first page
+	 * @return
+	 */
+	public Page<Widget> filterWidget(final Long lowerX, final Long lowerY, final Long upperX, final Long upperY,
+			final Pageable pageable, final WidgetCursor cursor) {
 
-			if (left >= lowerX && bottom >= lowerY && right <= upperX && top <= upperY) {
-				widgetsFiltered.add(w);
-			}
+		if (cursor == null) {
+			return this.filterWidget(lowerX, lowerY, upperX, upperY, pageable);
 		}
 
-		return this.pagingAndSorting.getPage(widgetsFiltered, pageable);
+		return this.getWidgetRepository().findByArea(lowerX, lowerY, upperX, upperY, cursor, pageable);
 	}
 
 	/**
-	 * Delegate the repository to in memory or to SQL database according to the
+	 * Statistics of the cache in front of the SQL database.
+	 *
+	 * @return
+	 */
+	public WidgetCacheStats getCacheStats() {
+		return this.widgetCachedRepository.getStats();
+	}
+
+	/**
+	 * Delegate the repository to in memory, to in memory columns, to off-heap
+	 * records or to SQL database, behind its cache when enabled, according to the
 	 * Spring profile informed on the initialization.
 	 *
 	 * @return
@@ -249,11 +474,29 @@ public class WidgetService {
 
 		final List<String> activeProfiles = Arrays.asList(this.environment.getActiveProfiles());
 		if (activeProfiles.contains("db")) {
-			return this.widgetRepositoryImpl;
+			return this.widgetCachedRepository.isEnabled() ? this.widgetCachedRepository : this.widgetRepositoryImpl;
+		}
+
+		if (activeProfiles.contains("columnar")) {
+			return this.widgetColumnarRepository;
+		}
+
+		if (activeProfiles.contains("offheap") && this.widgetOffHeapRepository != null) {
+			return this.widgetOffHeapRepository;
 		}
 
 		return this.widgetInMemoryRepository;
 
 	}
 
+	/**
+	 * Whether the writes go through the single writer of the in-memory storage
+	 * instead of taking {@link WidgetZLocks}.
+	 *
+	 * @return
+	 */
+	private boolean isPipelined() {
+		return this.writePipeline != null && this.getWidgetRepository() == this.widgetInMemoryRepository;
+	}
+
 }
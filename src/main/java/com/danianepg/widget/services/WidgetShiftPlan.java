@@ -0,0 +1,294 @@
+package com.danianepg.widget.services;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+
+import com.danianepg.widget.entities.Widget;
+import com.danianepg.widget.exceptions.NotFoundException;
+import com.danianepg.widget.exceptions.ValidationException;
+import com.danianepg.widget.repositories.WidgetRepository;
+
+/**
+ * Writes of a {@link WidgetBatch} with every z index they change, worked out
+ * before anything is written, so the whole batch is applied with one
+ * <code>saveAll</code> instead of one cascade per widget.
+ *
+ * The widgets of the batch take the z indexes informed, and the ones without z
+ * are stacked on the top of the queue in the order informed, above the widgets
+ * pushed up by the others. The other widgets
+ * keep their order and are pushed up just enough to leave those positions
+ * free: each one moves to the first position at or above its own, and above
+ * the one under it, not taken by the batch. The queue ends as if the widgets
+ * were saved one by one from the lowest z index up, but the widgets between
+ * the positions of the batch are visited and moved once.
+ *
+ * @author Daniane P. Gomes
+ *
+ */
+public final class WidgetShiftPlan {
+
+	/**
+	 * Widgets read on each page of the walk over the z index.
+	 */
+	private static final int PAGE_SIZE = 256;
+
+	private final List<Widget> saved;
+
+	private final List<Widget> previous;
+
+	private final List<Widget> shifted;
+
+	private final List<Widget> deleted;
+
+	/**
+	 * Positions left by the widgets updated or deleted.
+	 */
+	private final List<Long> released;
+
+	/**
+	 * Lowest and highest z index taken by the widgets saved or shifted, null when
+	 * nothing is saved.
+	 */
+	private final Long fromZ;
+
+	private final Long toZ;
+
+	private WidgetShiftPlan(final List<Widget> saved, final List<Widget> previous, final List<Widget> shifted,
+			final List<Widget> deleted, final List<Long> released) {
+
+		this.saved = saved;
+		this.previous = previous;
+		this.shifted = shifted;
+		this.deleted = deleted;
+		this.released = released;
+
+		// @formatter:off
+		final long[] taken = Stream.concat(saved.stream(), shifted.stream())
+				.mapToLong(Widget::getZ)
+				.sorted()
+				.toArray();
+		// @formatter:on
+
+		this.fromZ = taken.length == 0 ? null : taken[0];
+		this.toZ = taken.length == 0 ? null : taken[taken.length - 1];
+	}
+
+	/**
+	 * Work out the writes of a batch on the widgets currently stored. Nothing is
+	 * written.
+	 *
+	 * @param repository
+	 * @param batch
+	 * @return
+	 * @throws NotFoundException   when a widget to be deleted is not found
+	 * @throws ValidationException when the batch informs the same id or z index
+	 *                             twice
+	 */
+	public static WidgetShiftPlan of(final WidgetRepository repository, final WidgetBatch batch) {
+
+		final LocalDateTime now = LocalDateTime.now();
+		final Set<Long> ids = new HashSet<>();
+		final List<Long> released = new ArrayList<>();
+
+		final List<Widget> deleted = new ArrayList<>();
+		for (final Long id : batch.getDelete()) {
+			if (!ids.add(id)) {
+				throw new ValidationException("Widget " + id + " informed more than once on the batch");
+			}
+			final Widget stored = repository.findById(id).orElseThrow(NotFoundException::new);
+			released.add(stored.getZ());
+			deleted.add(stored);
+		}
+
+		final List<Widget> saved = new ArrayList<>();
+		final List<Widget> previous = new ArrayList<>();
+		final NavigableSet<Long> positions = new TreeSet<>();
+
+		for (final Widget widget : batch.getSave()) {
+
+			if (widget.getId() != null && !ids.add(widget.getId())) {
+				throw new ValidationException("Widget " + widget.getId() + " informed more than once on the batch");
+			}
+			if (widget.getZ() != null && !positions.add(widget.getZ())) {
+				throw new ValidationException("Z index " + widget.getZ() + " informed more than once on the batch");
+			}
+
+			final Widget existing = widget.getId() == null ? null : repository.findById(widget.getId()).orElse(null);
+			final Widget toSave;
+
+			if (existing == null) {
+				toSave = widget.clone();
+				previous.add(null);
+			} else {
+				released.add(existing.getZ());
+				previous.add(existing.clone());
+				toSave = existing;
+				toSave.setX(widget.getX());
+				toSave.setY(widget.getY());
+				toSave.setZ(widget.getZ());
+				toSave.setWidth(widget.getWidth());
+				toSave.setHeight(widget.getHeight());
+			}
+
+			toSave.setLastModification(now);
+			saved.add(toSave);
+		}
+
+		final List<Widget> shifted = positions.isEmpty() ? Collections.emptyList()
+				: shift(positions, ids, new WidgetsByZ(repository, positions.first(), PAGE_SIZE));
+		shifted.forEach(widget -> widget.setLastModification(now));
+
+		// stacked above the widgets pushed up too, as if saved after the ones with z
+		long top = Math.max(repository.findMaxZ().orElse(0L), positions.isEmpty() ? 0L : positions.last());
+		if (!shifted.isEmpty()) {
+			top = Math.max(top, shifted.get(0).getZ());
+		}
+
+		for (final Widget widget : saved) {
+			if (widget.getZ() == null) {
+				widget.setZ(++top);
+			}
+		}
+
+		return new WidgetShiftPlan(saved, previous, shifted, deleted, released);
+	}
+
+	/**
+	 * Find where the widgets on the way of the positions taken have to move.
+	 *
+	 * @param positions Positions taken by the batch
+	 * @param ignored   Ids of the widgets saved or deleted by the batch
+	 * @param widgets   Widgets stored from the lowest position taken up, in
+	 *                  ascending z
+	 * @return Copies of the widgets moved on their new positions, from the
+	 *         highest z index down, so each one moves to a position already
+	 *         released
+	 */
+	static List<Widget> shift(final NavigableSet<Long> positions, final Set<Long> ignored,
+			final Iterator<Widget> widgets) {
+
+		final List<Widget> shifted = new ArrayList<>();
+		final long last = positions.last();
+		long previous = Long.MIN_VALUE;
+
+		while (widgets.hasNext()) {
+
+			final Widget widget = widgets.next();
+			if (widget.getZ() == null || ignored.contains(widget.getId())) {
+				continue;
+			}
+
+			long z = previous == Long.MIN_VALUE ? widget.getZ() : Math.max(widget.getZ(), previous + 1);
+			while (positions.contains(z)) {
+				z++;
+			}
+
+			if (z == widget.getZ()) {
+				// nothing above the batch is pushed by a widget that stays
+				if (z > last) {
+					break;
+				}
+			} else {
+				final Widget moved = widget.clone();
+				moved.setZ(z);
+				shifted.add(moved);
+			}
+
+			previous = z;
+		}
+
+		Collections.reverse(shifted);
+		return shifted;
+	}
+
+	/**
+	 * Lock every z index the plan reads or writes: the positions taken, with the
+	 * free position right above them, and the positions released.
+	 *
+	 * @param zLocks
+	 * @return
+	 */
+	public WidgetZLocks.Lease lock(final WidgetZLocks zLocks) {
+
+		if (this.isEmpty()) {
+			throw new IllegalStateException("Nothing to lock on an empty plan");
+		}
+
+		final Long[] released = this.released.toArray(new Long[0]);
+		if (this.fromZ == null) {
+			return zLocks.lock(released[0], released[0], released);
+		}
+
+		return zLocks.lock(this.fromZ, this.toZ + 1, released);
+	}
+
+	/**
+	 * Whether a lease holds every z index of the plan.
+	 *
+	 * @param lease
+	 * @return
+	 */
+	public boolean isCoveredBy(final WidgetZLocks.Lease lease) {
+
+		if (this.fromZ != null && !lease.covers(this.fromZ, this.toZ + 1)) {
+			return false;
+		}
+
+		return this.released.stream().allMatch(lease::covers);
+	}
+
+	/**
+	 * Whether the batch neither saves nor deletes a widget.
+	 *
+	 * @return
+	 */
+	public boolean isEmpty() {
+		return this.saved.isEmpty() && this.deleted.isEmpty();
+	}
+
+	/**
+	 * Widgets of the batch on their positions.
+	 *
+	 * @return
+	 */
+	public List<Widget> getSaved() {
+		return this.saved;
+	}
+
+	/**
+	 * Other widgets moved out of the way, from the highest z index down.
+	 *
+	 * @return
+	 */
+	public List<Widget> getShifted() {
+		return this.shifted;
+	}
+
+	/**
+	 * Widgets of the batch as they were stored, in the order of
+	 * {@link #getSaved()}, null for the new ones.
+	 *
+	 * @return
+	 */
+	public List<Widget> getPrevious() {
+		return this.previous;
+	}
+
+	/**
+	 * Widgets to be deleted, as they are stored.
+	 *
+	 * @return
+	 */
+	public List<Widget> getDeleted() {
+		return this.deleted;
+	}
+
+}
@@ -0,0 +1,171 @@
+package com.danianepg.widget.services;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.data.domain.Sort;
+
+import com.danianepg.widget.entities.Widget;
+import com.danianepg.widget.utils.ApplicationConstants;
+
+/**
+ * Sort of widgets on one or more {@link WidgetSortField}, compiled once per
+ * distinct sort and cached. The attributes of a widget are read once into an
+ * array of sortable <code>long</code> keys, so sorting compares primitives
+ * instead of boxed getters.
+ *
+ * The last key is always the id, in the direction of the last attribute
+ * informed, so the order is total and pages are deterministic. Sort orders on
+ * other properties are ignored; without any attribute, widgets are sorted by
+ * {@link ApplicationConstants#SORT_FIELD}, descending.
+ *
+ * @author Daniane P. Gomes
+ *
+ */
+public final class WidgetSort {
+
+	private static final Map<String, WidgetSort> COMPILED = new ConcurrentHashMap<>();
+
+	private final WidgetSortField[] fields;
+
+	private final boolean[] ascending;
+
+	private final Sort sort;
+
+	private WidgetSort(final WidgetSortField[] fields, final boolean[] ascending) {
+		this.fields = fields;
+		this.ascending = ascending;
+
+		final List<Sort.Order> orders = new ArrayList<>();
+		for (int i = 0; i < fields.length; i++) {
+			final String property = fields[i].getProperty();
+			orders.add(ascending[i] ? Sort.Order.asc(property) : Sort.Order.desc(property));
+		}
+		this.sort = Sort.by(orders);
+	}
+
+	/**
+	 * Compiled sort of a Spring sort definition.
+	 *
+	 * @param sort
+	 * @return
+	 */
+	public static WidgetSort of(final Sort sort) {
+
+		final List<WidgetSortField> fields = new ArrayList<>();
+		final List<Boolean> ascending = new ArrayList<>();
+
+		if (sort != null) {
+			for (final Sort.Order order : sort) {
+				WidgetSortField.of(order.getProperty()).filter(field -> !fields.contains(field)).ifPresent(field -> {
+					fields.add(field);
+					ascending.add(order.isAscending());
+				});
+			}
+		}
+
+		if (fields.isEmpty()) {
+			fields.add(WidgetSortField.of(ApplicationConstants.SORT_FIELD).orElse(WidgetSortField.Z));
+			ascending.add(false);
+		}
+
+		if (!fields.contains(WidgetSortField.ID)) {
+			fields.add(WidgetSortField.ID);
+			ascending.add(ascending.get(ascending.size() - 1));
+		}
+
+		final StringBuilder spec = new StringBuilder();
+		for (int i = 0; i < fields.size(); i++) {
+			spec.append(fields.get(i).name()).append(ascending.get(i) ? '+' : '-');
+		}
+
+		return COMPILED.computeIfAbsent(spec.toString(), key -> {
+			final boolean[] directions = new boolean[ascending.size()];
+			for (int i = 0; i < directions.length; i++) {
+				directions[i] = ascending.get(i);
+			}
+			return new WidgetSort(fields.toArray(new WidgetSortField[0]), directions);
+		});
+	}
+
+	/**
+	 * Read the sortable keys of a widget, in the order of the attributes.
+	 *
+	 * @param widget
+	 * @return
+	 */
+	public long[] keys(final Widget widget) {
+
+		final long[] keys = new long[this.fields.length];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = this.fields[i].key(widget);
+		}
+
+		return keys;
+	}
+
+	/**
+	 * Compare the keys of two widgets.
+	 *
+	 * @param keys
+	 * @param otherKeys
+	 * @return
+	 */
+	public int compare(final long[] keys, final long[] otherKeys) {
+
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] != otherKeys[i]) {
+				final int compare = keys[i] < otherKeys[i] ? -1 : 1;
+				return this.ascending[i] ? compare : -compare;
+			}
+		}
+
+		return 0;
+	}
+
+	/**
+	 * Comparator of widgets for the occasional comparison. Sorting many widgets
+	 * should rather read their keys once and {@link #compare(long[], long[])}
+	 * them.
+	 *
+	 * @return
+	 */
+	public Comparator<Widget> comparator() {
+		return (widget, other) -> this.compare(this.keys(widget), this.keys(other));
+	}
+
+	/**
+	 * Whether the sort is on a single attribute tied by id in the same direction,
+	 * which is the order of the sorted indexes of the in-memory storage.
+	 *
+	 * @return
+	 */
+	public boolean isSingleField() {
+		return this.fields.length == 1 || (this.fields.length == 2 && this.ascending[0] == this.ascending[1]);
+	}
+
+	public int size() {
+		return this.fields.length;
+	}
+
+	public WidgetSortField getField(final int i) {
+		return this.fields[i];
+	}
+
+	public boolean isAscending(final int i) {
+		return this.ascending[i];
+	}
+
+	/**
+	 * Equivalent Spring sort definition, with the id as the last order.
+	 *
+	 * @return
+	 */
+	public Sort toSort() {
+		return this.sort;
+	}
+
+}
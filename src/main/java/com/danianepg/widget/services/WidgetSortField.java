@@ -0,0 +1,141 @@
+package com.danianepg.widget.services;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Optional;
+import java.util.function.LongFunction;
+import java.util.function.ToLongFunction;
+
+import com.danianepg.widget.entities.Widget;
+
+/**
+ * Attributes of {@link com.danianepg.widget.entities.Widget} that pages can be
+ * sorted by.
+ *
+ * Each attribute is reduced to a <code>long</code> key with the same order as
+ * the attribute itself, so widgets can be kept on sorted indexes and compared
+ * without boxing. Missing values come first. Sorts on several attributes are
+ * compiled by {@link WidgetSort}.
+ *
+ * @author Daniane P. Gomes
+ *
+ */
+public enum WidgetSortField {
+
+	// @formatter:off
+	ID("id", w -> key(w.getId()), WidgetSortField::longValue),
+	X("x", w -> key(w.getX()), WidgetSortField::longValue),
+	Y("y", w -> key(w.getY()), WidgetSortField::longValue),
+	Z("z", w -> key(w.getZ()), WidgetSortField::longValue),
+	WIDTH("width", w -> key(w.getWidth()), WidgetSortField::floatValue),
+	HEIGHT("height", w -> key(w.getHeight()), WidgetSortField::floatValue),
+	LAST_MODIFICATION("lastModification", w -> key(w.getLastModification()), WidgetSortField::dateTimeValue);
+	// @formatter:on
+
+	private final String property;
+
+	private final ToLongFunction<Widget> keyExtractor;
+
+	private final LongFunction<Comparable<?>> valueExtractor;
+
+	private WidgetSortField(final String property, final ToLongFunction<Widget> keyExtractor,
+			final LongFunction<Comparable<?>> valueExtractor) {
+		this.property = property;
+		this.keyExtractor = keyExtractor;
+		this.valueExtractor = valueExtractor;
+	}
+
+	public String getProperty() {
+		return this.property;
+	}
+
+	/**
+	 * Sortable key of the attribute of a widget.
+	 *
+	 * @param widget
+	 * @return
+	 */
+	public long key(final Widget widget) {
+		return this.keyExtractor.applyAsLong(widget);
+	}
+
+	/**
+	 * Value of the attribute a sortable key was taken from, or null for the key of
+	 * a missing value.
+	 *
+	 * @param key
+	 * @return
+	 */
+	public Comparable<?> value(final long key) {
+		return key == Long.MIN_VALUE ? null : this.valueExtractor.apply(key);
+	}
+
+	/**
+	 * Find the attribute named by a property.
+	 *
+	 * @param property
+	 * @return
+	 */
+	public static Optional<WidgetSortField> of(final String property) {
+
+		for (final WidgetSortField field : values()) {
+			if (field.property.equals(property)) {
+				return Optional.of(field);
+			}
+		}
+
+		return Optional.empty();
+	}
+
+	private static long key(final Long value) {
+		return value == null ? Long.MIN_VALUE : value;
+	}
+
+	private static long key(final Float value) {
+		return value == null ? Long.MIN_VALUE : key(value.floatValue());
+	}
+
+	/**
+	 * Sortable key of a float, for storages that keep it unboxed. Negative floats
+	 * have their bits in reverse order, so they are flipped to keep the order of
+	 * the values.
+	 *
+	 * @param value
+	 * @return
+	 */
+	public static long key(final float value) {
+		final int bits = Float.floatToIntBits(value);
+		return bits < 0 ? bits ^ Integer.MAX_VALUE : bits;
+	}
+
+	/**
+	 * Sortable key of a date and time, for storages that keep it as a primitive:
+	 * nanoseconds since the epoch, on UTC.
+	 *
+	 * @param value
+	 * @return
+	 */
+	public static long key(final LocalDateTime value) {
+
+		if (value == null) {
+			return Long.MIN_VALUE;
+		}
+
+		return value.toEpochSecond(ZoneOffset.UTC) * 1_000_000_000L + value.getNano();
+	}
+
+	private static Long longValue(final long key) {
+		return key;
+	}
+
+	private static Float floatValue(final long key) {
+		final int bits = (int) key;
+		return Float.intBitsToFloat(bits < 0 ? bits ^ Integer.MAX_VALUE : bits);
+	}
+
+	private static LocalDateTime dateTimeValue(final long key) {
+		return LocalDateTime.ofEpochSecond(Math.floorDiv(key, 1_000_000_000L), (int) Math.floorMod(key, 1_000_000_000L),
+				ZoneOffset.UTC);
+	}
+
+}
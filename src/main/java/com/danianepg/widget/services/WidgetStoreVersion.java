@@ -0,0 +1,154 @@
+package com.danianepg.widget.services;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.ZoneId;
+import java.util.Base64;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.springframework.stereotype.Component;
+
+import com.danianepg.widget.entities.Widget;
+
+/**
+ * Version of the widgets stored, raised by {@link WidgetService} after every
+ * write, and the strong entity tags derived from it for conditional requests.
+ *
+ * A widget is tagged by a SHA-256 digest of all its attributes, so its tag
+ * changes with any write on it. Pages and filters are tagged by the version of
+ * the store and a digest of the request, so an unchanged page is recognized
+ * before it is read. The version counts the writes of this instance, which is
+ * told apart by a random id taken on startup: tags of other instances, or of a
+ * previous run, never match.
+ *
+ * Dates of HTTP have whole seconds, so a last modification is only informed
+ * once its second is over: a date handed out earlier would still match after
+ * another write on the same second.
+ *
+ * @author Daniane P. Gomes
+ *
+ */
+@Component
+public class WidgetStoreVersion {
+
+	private final String instance = Long.toHexString(UUID.randomUUID().getMostSignificantBits());
+
+	private final AtomicReference<Version> current = new AtomicReference<>(
+			new Version(0, System.currentTimeMillis()));
+
+	/**
+	 * Version of the store and time of the latest write.
+	 */
+	public static final class Version {
+
+		private final long number;
+
+		private final long lastModified;
+
+		private Version(final long number, final long lastModified) {
+			this.number = number;
+			this.lastModified = lastModified;
+		}
+
+		public long getNumber() {
+			return this.number;
+		}
+
+		/**
+		 * @return Epoch milliseconds of the latest write, or of the startup
+		 */
+		public long getLastModified() {
+			return this.lastModified;
+		}
+
+	}
+
+	/**
+	 * Raise the version, once a write is visible to the readers. The time of the
+	 * latest write never goes back, even if the clock does.
+	 */
+	public void written() {
+		final long now = System.currentTimeMillis();
+		this.current.updateAndGet(v -> new Version(v.number + 1, Math.max(now, v.lastModified)));
+	}
+
+	public Version get() {
+		return this.current.get();
+	}
+
+	/**
+	 * Tag of a page or filter on a version of the store.
+	 *
+	 * @param version
+	 * @param request Path and query of the request, which tell the pages apart
+	 * @return
+	 */
+	public String tagOf(final Version version, final String request) {
+		return this.instance + "-" + Long.toHexString(version.number) + "-" + digest(request);
+	}
+
+	/**
+	 * Tag of a widget, from all its attributes at full precision.
+	 *
+	 * @param widget
+	 * @return
+	 */
+	public String tagOf(final Widget widget) {
+
+		return digest(widget.getId() + "," + widget.getX() + "," + widget.getY() + "," + widget.getZ() + ","
+				+ widget.getWidth() + "," + widget.getHeight() + "," + widget.getLastModification());
+	}
+
+	/**
+	 * Epoch milliseconds of the last modification of a widget, once its second is
+	 * over.
+	 *
+	 * @param widget
+	 * @return -1 when unknown or still on the current second
+	 */
+	public long lastModifiedOf(final Widget widget) {
+
+		if (widget.getLastModification() == null) {
+			return -1;
+		}
+
+		return settled(widget.getLastModification().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+	}
+
+	/**
+	 * Epoch milliseconds of the latest write on a version of the store, once its
+	 * second is over.
+	 *
+	 * @param version
+	 * @return -1 when still on the current second
+	 */
+	public long lastModifiedOf(final Version version) {
+		return settled(version.lastModified);
+	}
+
+	/**
+	 * A last modification on a second not over yet is unknown: another write may
+	 * still come on it.
+	 *
+	 * @param lastModified
+	 * @return
+	 */
+	private static long settled(final long lastModified) {
+		return lastModified / 1000 < System.currentTimeMillis() / 1000 ? lastModified : -1;
+	}
+
+	private static String digest(final String value) {
+
+		try {
+			final byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+			return Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+
+		} catch (final NoSuchAlgorithmException e) {
+			// every Java platform is required to support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+}
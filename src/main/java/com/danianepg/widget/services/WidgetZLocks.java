@@ -0,0 +1,144 @@
+package com.danianepg.widget.services;
+
+import java.util.BitSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Striped locks over the z axis. Consecutive z indexes are grouped in blocks of
+ * {@link #span} positions and every block is guarded by one of a fixed number of
+ * stripes, so writes on ranges of z far from each other take different locks
+ * and run in parallel, while writes on overlapping ranges are serialized.
+ *
+ * The stripes of a lease are always taken in ascending order and all at once,
+ * so leases never wait on each other in a cycle. A writer that finds out it
+ * needs a wider range must close its lease and take a new one.
+ *
+ * @author Daniane P. Gomes
+ *
+ */
+@Component
+public class WidgetZLocks {
+
+	private final ReentrantLock[] stripes;
+
+	private final int span;
+
+	public WidgetZLocks(@Value("${widget.z-locks.stripes:64}") final int stripes,
+			@Value("${widget.z-locks.span:16}") final int span) {
+
+		if (stripes < 1 || span < 1) {
+			throw new IllegalArgumentException("Stripes and span of the z locks must be positive");
+		}
+
+		this.stripes = new ReentrantLock[stripes];
+		for (int i = 0; i < stripes; i++) {
+			this.stripes[i] = new ReentrantLock();
+		}
+		this.span = span;
+	}
+
+	/**
+	 * Lock a range of z indexes and, optionally, some other z indexes outside
+	 * of it.
+	 *
+	 * @param fromZ  First z of the range
+	 * @param toZ    Last z of the range, inclusive
+	 * @param otherZ Other z indexes to lock; null values are ignored
+	 * @return the lease to be closed to release the locks
+	 */
+	public Lease lock(final long fromZ, final long toZ, final Long... otherZ) {
+
+		final BitSet locked = new BitSet(this.stripes.length);
+
+		final long fromBlock = Math.floorDiv(fromZ, this.span);
+		final long toBlock = Math.floorDiv(Math.max(fromZ, toZ), this.span);
+
+		if (toBlock - fromBlock + 1 >= this.stripes.length) {
+			locked.set(0, this.stripes.length);
+		} else {
+			for (long block = fromBlock; block <= toBlock; block++) {
+				locked.set(this.stripe(block));
+			}
+		}
+
+		for (final Long z : otherZ) {
+			if (z != null) {
+				locked.set(this.stripe(Math.floorDiv(z, this.span)));
+			}
+		}
+
+		for (int i = locked.nextSetBit(0); i >= 0; i = locked.nextSetBit(i + 1)) {
+			this.stripes[i].lock();
+		}
+
+		return new Lease(locked);
+	}
+
+	private int stripe(final long block) {
+		return (int) Math.floorMod(block, (long) this.stripes.length);
+	}
+
+	/**
+	 * Locks held on a set of stripes.
+	 */
+	public final class Lease implements AutoCloseable {
+
+		private final BitSet locked;
+
+		private Lease(final BitSet locked) {
+			this.locked = locked;
+		}
+
+		/**
+		 * Whether a z index is guarded by this lease.
+		 *
+		 * @param z
+		 * @return true for null, which needs no lock
+		 */
+		public boolean covers(final Long z) {
+			return z == null || this.covers(z, z);
+		}
+
+		/**
+		 * Whether every z index of a range is guarded by this lease.
+		 *
+		 * @param fromZ First z of the range
+		 * @param toZ   Last z of the range, inclusive
+		 * @return
+		 */
+		public boolean covers(final long fromZ, final long toZ) {
+
+			final int stripes = WidgetZLocks.this.stripes.length;
+			if (this.locked.cardinality() == stripes) {
+				return true;
+			}
+
+			final long fromBlock = Math.floorDiv(fromZ, WidgetZLocks.this.span);
+			final long toBlock = Math.floorDiv(Math.max(fromZ, toZ), WidgetZLocks.this.span);
+
+			for (long block = fromBlock; block <= toBlock; block++) {
+				if (!this.locked.get(WidgetZLocks.this.stripe(block))) {
+					return false;
+				}
+			}
+
+			return true;
+		}
+
+		/**
+		 * Release the locks, in the reverse order they were taken.
+		 */
+		@Override
+		public void close() {
+			for (int i = this.locked.previousSetBit(this.locked.length() - 1); i >= 0; i = this.locked
+					.previousSetBit(i - 1)) {
+				WidgetZLocks.this.stripes[i].unlock();
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,142 @@
+package com.danianepg.widget.services;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.stream.Collectors;
+
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+
+import com.danianepg.widget.entities.Widget;
+import com.danianepg.widget.repositories.WidgetRepository;
+
+/**
+ * Stored widgets in ascending z, read a page at a time by seeking the z index
+ * after the last widget of the previous page, so a walk over any number of
+ * widgets holds a single page and every page costs the same on every
+ * repository. Only the first page of a walk from the lowest z index is read
+ * with the total of widgets; the pages after it are not counted.
+ *
+ * Pages are read as the walk goes: widgets moved by writes meanwhile may be
+ * seen on both positions or on none.
+ *
+ * @author Daniane P. Gomes
+ *
+ */
+public class WidgetsByZ implements Iterator<Widget> {
+
+	private static final Sort BY_Z = Sort.by(Sort.Direction.ASC, WidgetSortField.Z.getProperty());
+
+	private final WidgetRepository repository;
+
+	private final int pageSize;
+
+	private List<Widget> page;
+
+	private int next;
+
+	/**
+	 * Walk the widgets from the lowest z index.
+	 *
+	 * @param repository
+	 * @param pageSize
+	 */
+	public WidgetsByZ(final WidgetRepository repository, final int pageSize) {
+		this(repository, null, pageSize);
+	}
+
+	/**
+	 * Walk the widgets from a z index up.
+	 *
+	 * @param repository
+	 * @param fromZ      First z index, inclusive, or null for the lowest one
+	 * @param pageSize
+	 */
+	public WidgetsByZ(final WidgetRepository repository, final Long fromZ, final int pageSize) {
+
+		if (pageSize < 1) {
+			throw new IllegalArgumentException("The page size must be positive");
+		}
+
+		this.repository = repository;
+		this.pageSize = pageSize;
+
+		if (fromZ == null) {
+			this.page = repository.findAll(PageRequest.of(0, pageSize, BY_Z)).getContent();
+		} else {
+			this.page = this.pageAfter(before(fromZ));
+		}
+	}
+
+	/**
+	 * Read the widgets between two z indexes with a single query.
+	 *
+	 * @param repository
+	 * @param fromZ      First z index, inclusive
+	 * @param toZ        Last z index, inclusive
+	 * @return The widgets in ascending z
+	 */
+	public static List<Widget> between(final WidgetRepository repository, final long fromZ, final long toZ) {
+
+		if (toZ < fromZ) {
+			return Collections.emptyList();
+		}
+
+		// z indexes are unique, so the widgets between them are no more than the
+		// positions; the ones above toZ read when there are gaps are dropped
+		final int limit = (int) Math.min(toZ - fromZ + 1, Integer.MAX_VALUE);
+
+		// @formatter:off
+		return repository.findNext(WidgetCursor.after(before(fromZ), BY_Z), limit).stream()
+				.filter(widget -> widget.getZ() <= toZ)
+				.collect(Collectors.toList());
+		// @formatter:on
+	}
+
+	/**
+	 * Position right before the first widget on a z index.
+	 *
+	 * @param z
+	 * @return
+	 */
+	private static Widget before(final long z) {
+		final Widget beforeFirst = new Widget(Long.MAX_VALUE);
+		beforeFirst.setZ(z - 1);
+		return beforeFirst;
+	}
+
+	@Override
+	public boolean hasNext() {
+
+		if (this.next < this.page.size()) {
+			return true;
+		}
+
+		if (this.page.size() < this.pageSize) {
+			return false;
+		}
+
+		this.page = this.pageAfter(this.page.get(this.page.size() - 1));
+		this.next = 0;
+
+		return !this.page.isEmpty();
+	}
+
+	@Override
+	public Widget next() {
+
+		if (!this.hasNext()) {
+			throw new NoSuchElementException();
+		}
+
+		return this.page.get(this.next++);
+	}
+
+	private List<Widget> pageAfter(final Widget widget) {
+
+		return this.repository.findNext(WidgetCursor.after(widget, BY_Z), this.pageSize);
+	}
+
+}
@@ -0,0 +1,251 @@
+package com.danianepg.widget.services.cache;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import com.danianepg.widget.entities.Widget;
+
+/**
+ * Bounded cache of widgets by id and by z index, evicted as a segmented LRU.
+ * Widgets enter a probation segment and are promoted to a protected segment,
+ * of 80% of the capacity, when read again; the least recent widgets of the
+ * protected segment fall back to probation, and evictions take the least
+ * recent widget on probation. Widgets read only once, as on a scan, never
+ * push the hot widgets out. Widgets have a fixed size, so the capacity is a
+ * number of widgets.
+ *
+ * Invalidations raise a version of the cache. Widgets loaded on a miss are
+ * only cached when no invalidation happened since the load started, so a
+ * widget read before a write and cached after it is never served.
+ *
+ * Widgets are copied in and out, so callers are free to change them.
+ * Thread-safe.
+ *
+ * @author Daniane P. Gomes
+ *
+ */
+public class WidgetCache {
+
+	private final int capacity;
+
+	private final int protectedCapacity;
+
+	/**
+	 * Segments in access order, from the least to the most recent widget.
+	 */
+	private final LinkedHashMap<Long, Widget> probation = new LinkedHashMap<>(16, 0.75f, true);
+
+	private final LinkedHashMap<Long, Widget> protectedSegment = new LinkedHashMap<>(16, 0.75f, true);
+
+	private final NavigableMap<Long, Long> idsByZ = new TreeMap<>();
+
+	private long version;
+
+	private long hits;
+
+	private long misses;
+
+	private long evictions;
+
+	private long invalidations;
+
+	public WidgetCache(final int capacity) {
+
+		if (capacity < 1) {
+			throw new IllegalArgumentException("The capacity must be positive");
+		}
+
+		this.capacity = capacity;
+		this.protectedCapacity = capacity * 4 / 5;
+	}
+
+	/**
+	 * Version to inform on {@link #put(Widget, long)}, read before loading the
+	 * widget.
+	 *
+	 * @return
+	 */
+	public synchronized long version() {
+		return this.version;
+	}
+
+	/**
+	 * Find a widget by id.
+	 *
+	 * @param id
+	 * @return A copy of the widget, or null when not cached
+	 */
+	public synchronized Widget get(final Long id) {
+
+		final Widget widget = this.touch(id);
+		if (widget == null) {
+			this.misses++;
+			return null;
+		}
+
+		this.hits++;
+		return widget.clone();
+	}
+
+	/**
+	 * Find a widget by z index.
+	 *
+	 * @param z
+	 * @return A copy of the widget, or null when not cached
+	 */
+	public synchronized Widget getByZ(final Long z) {
+
+		final Long id = this.idsByZ.get(z);
+		if (id == null) {
+			this.misses++;
+			return null;
+		}
+
+		return this.get(id);
+	}
+
+	/**
+	 * Cache a widget loaded, unless the cache was invalidated since the version
+	 * was read. The widget replaces any other widget cached on its z index.
+	 *
+	 * @param widget
+	 * @param version Read by {@link #version()} before loading the widget
+	 * @return Whether the widget was cached
+	 */
+	public synchronized boolean put(final Widget widget, final long version) {
+
+		if (version != this.version || widget.getId() == null) {
+			return false;
+		}
+
+		this.remove(widget.getId());
+		if (widget.getZ() != null) {
+			final Long other = this.idsByZ.get(widget.getZ());
+			if (other != null) {
+				this.remove(other);
+			}
+			this.idsByZ.put(widget.getZ(), widget.getId());
+		}
+
+		this.probation.put(widget.getId(), widget.clone());
+
+		while (this.probation.size() + this.protectedSegment.size() > this.capacity) {
+			final Map<Long, Widget> segment = this.probation.isEmpty() ? this.protectedSegment : this.probation;
+			this.remove(segment.keySet().iterator().next());
+			this.evictions++;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Drop a widget written, by its id and by its z index.
+	 *
+	 * @param widget
+	 */
+	public synchronized void invalidate(final Widget widget) {
+
+		this.version++;
+		this.invalidations++;
+
+		if (widget.getId() != null) {
+			this.remove(widget.getId());
+		}
+
+		if (widget.getZ() != null) {
+			final Long id = this.idsByZ.get(widget.getZ());
+			if (id != null) {
+				this.remove(id);
+			}
+		}
+	}
+
+	/**
+	 * Drop a widget written by its id.
+	 *
+	 * @param id
+	 */
+	public synchronized void invalidate(final Long id) {
+
+		this.version++;
+		this.invalidations++;
+		this.remove(id);
+	}
+
+	/**
+	 * Drop the widgets on a range of z indexes.
+	 *
+	 * @param fromZ inclusive
+	 * @param toZ   inclusive
+	 */
+	public synchronized void invalidateZ(final Long fromZ, final Long toZ) {
+
+		this.version++;
+		this.invalidations++;
+
+		final List<Long> ids = new ArrayList<>(this.idsByZ.subMap(fromZ, true, toZ, true).values());
+		ids.forEach(this::remove);
+	}
+
+	public synchronized void clear() {
+		this.version++;
+		this.probation.clear();
+		this.protectedSegment.clear();
+		this.idsByZ.clear();
+	}
+
+	public synchronized int size() {
+		return this.probation.size() + this.protectedSegment.size();
+	}
+
+	public synchronized WidgetCacheStats stats() {
+		return new WidgetCacheStats(this.capacity, this.size(), this.hits, this.misses, this.evictions,
+				this.invalidations);
+	}
+
+	/**
+	 * Find a cached widget, promoting it to the protected segment when on
+	 * probation.
+	 */
+	private Widget touch(final Long id) {
+
+		Widget widget = this.protectedSegment.get(id);
+		if (widget != null) {
+			return widget;
+		}
+
+		widget = this.probation.remove(id);
+		if (widget == null) {
+			return null;
+		}
+
+		this.protectedSegment.put(id, widget);
+
+		if (this.protectedSegment.size() > this.protectedCapacity) {
+			final Iterator<Map.Entry<Long, Widget>> eldest = this.protectedSegment.entrySet().iterator();
+			final Map.Entry<Long, Widget> demoted = eldest.next();
+			eldest.remove();
+			this.probation.put(demoted.getKey(), demoted.getValue());
+		}
+
+		return widget;
+	}
+
+	private void remove(final Long id) {
+
+		Widget widget = this.probation.remove(id);
+		if (widget == null) {
+			widget = this.protectedSegment.remove(id);
+		}
+
+		if (widget != null && widget.getZ() != null) {
+			this.idsByZ.remove(widget.getZ(), id);
+		}
+	}
+
+}
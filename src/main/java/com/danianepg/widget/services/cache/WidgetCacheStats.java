@@ -0,0 +1,74 @@
+package com.danianepg.widget.services.cache;
+
+/**
+ * Statistics of a {@link WidgetCache} since it was created.
+ *
+ * @author Daniane P. Gomes
+ *
+ */
+public class WidgetCacheStats {
+
+	private final int capacity;
+
+	private final int size;
+
+	private final long hits;
+
+	private final long misses;
+
+	private final long evictions;
+
+	private final long invalidations;
+
+	public WidgetCacheStats(final int capacity, final int size, final long hits, final long misses,
+			final long evictions, final long invalidations) {
+		this.capacity = capacity;
+		this.size = size;
+		this.hits = hits;
+		this.misses = misses;
+		this.evictions = evictions;
+		this.invalidations = invalidations;
+	}
+
+	public int getCapacity() {
+		return this.capacity;
+	}
+
+	public int getSize() {
+		return this.size;
+	}
+
+	public long getHits() {
+		return this.hits;
+	}
+
+	public long getMisses() {
+		return this.misses;
+	}
+
+	public long getEvictions() {
+		return this.evictions;
+	}
+
+	public long getInvalidations() {
+		return this.invalidations;
+	}
+
+	/**
+	 * Share of the reads served by the cache, or 0 before any read.
+	 *
+	 * @return
+	 */
+	public double getHitRate() {
+		final long reads = this.hits + this.misses;
+		return reads == 0 ? 0 : (double) this.hits / reads;
+	}
+
+	@Override
+	public String toString() {
+		return "WidgetCacheStats [capacity=" + this.capacity + ", size=" + this.size + ", hits=" + this.hits
+				+ ", misses=" + this.misses + ", evictions=" + this.evictions + ", invalidations="
+				+ this.invalidations + "]";
+	}
+
+}
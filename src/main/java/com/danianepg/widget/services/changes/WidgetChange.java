@@ -0,0 +1,70 @@
+package com.danianepg.widget.services.changes;
+
+import com.danianepg.widget.entities.Widget;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Change of one widget, published by {@link WidgetChangeFeed} with the
+ * sequence number of the change.
+ *
+ * @author Daniane P. Gomes
+ *
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class WidgetChange {
+
+	/**
+	 * Kind of change: a widget saved for the first time, saved again, deleted, or
+	 * moved up on the z axis to leave room for another one.
+	 */
+	public enum Type {
+		CREATED, UPDATED, DELETED, SHIFTED;
+
+		/**
+		 * Name of the server-sent events of the type.
+		 *
+		 * @return
+		 */
+		public String getEventName() {
+			return this.name().toLowerCase();
+		}
+	}
+
+	private final long sequence;
+
+	private final Type type;
+
+	private final Widget widget;
+
+	private final Widget previous;
+
+	public WidgetChange(final long sequence, final Type type, final Widget widget, final Widget previous) {
+		this.sequence = sequence;
+		this.type = type;
+		this.widget = widget;
+		this.previous = previous;
+	}
+
+	public long getSequence() {
+		return this.sequence;
+	}
+
+	public Type getType() {
+		return this.type;
+	}
+
+	/**
+	 * @return The widget as saved, or as it was before deleted
+	 */
+	public Widget getWidget() {
+		return this.widget;
+	}
+
+	/**
+	 * @return The widget as it was before an update, null for the other changes
+	 */
+	public Widget getPrevious() {
+		return this.previous;
+	}
+
+}
@@ -0,0 +1,358 @@
+package com.danianepg.widget.services.changes;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.danianepg.widget.entities.Widget;
+import com.danianepg.widget.repositories.WidgetRepository;
+import com.danianepg.widget.services.WidgetsByZ;
+
+/**
+ * Feed of the changes on the widgets, streamed to its subscribers as
+ * server-sent events. Every change is numbered, in the order it is published,
+ * and sent to the subscribers whose area it touches.
+ *
+ * Publishing never waits on a subscriber: each one has a bounded buffer of
+ * <code>widget.changes.buffer-size</code> changes, drained by a small pool of
+ * <code>widget.changes.dispatchers</code> threads only while it holds changes.
+ * Idle subscribers cost no thread, and a subscriber that falls a full buffer
+ * behind is sent an <code>overflow</code> event and closed, so it reads the
+ * widgets again and subscribes anew.
+ *
+ * @author Daniane P. Gomes
+ *
+ */
+@Component
+public class WidgetChangeFeed {
+
+	public static final String OVERFLOW = "overflow";
+
+	private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+
+	private final int bufferSize;
+
+	private final long timeout;
+
+	private final ExecutorService dispatchers;
+
+	private long sequence;
+
+	@Autowired
+	public WidgetChangeFeed(@Value("${widget.changes.buffer-size:256}") final int bufferSize,
+			@Value("${widget.changes.dispatchers:4}") final int dispatchers,
+			@Value("${widget.changes.timeout-ms:0}") final long timeout) {
+		this(bufferSize, timeout, Executors.newFixedThreadPool(dispatchers, new DispatcherFactory()));
+	}
+
+	WidgetChangeFeed(final int bufferSize, final long timeout, final ExecutorService dispatchers) {
+
+		if (bufferSize < 1) {
+			throw new IllegalArgumentException("The buffer size must be positive");
+		}
+
+		this.bufferSize = bufferSize;
+		this.timeout = timeout;
+		this.dispatchers = dispatchers;
+	}
+
+	@PreDestroy
+	public void stop() {
+		this.subscribers.forEach(subscriber -> subscriber.emitter.complete());
+		this.subscribers.clear();
+		this.dispatchers.shutdownNow();
+	}
+
+	/**
+	 * Subscribe to the changes of the widgets inside an area, or of all the
+	 * widgets when no area is informed.
+	 *
+	 * @param lowerX Position x to determine lower boundary
+	 * @param lowerY Position y to determine lower boundary
+	 * @param upperX Position x to determine upper boundary
+	 * @param upperY Position y to determine upper boundary
+	 * @return
+	 */
+	public SseEmitter subscribe(final Long lowerX, final Long lowerY, final Long upperX, final Long upperY) {
+
+		final SseEmitter emitter = new SseEmitter(this.timeout);
+		final Subscriber subscriber = new Subscriber(emitter, lowerX, lowerY, upperX, upperY);
+
+		emitter.onCompletion(() -> this.subscribers.remove(subscriber));
+		emitter.onTimeout(() -> this.subscribers.remove(subscriber));
+		emitter.onError(e -> this.subscribers.remove(subscriber));
+		this.subscribers.add(subscriber);
+
+		return emitter;
+	}
+
+	public boolean hasSubscribers() {
+		return !this.subscribers.isEmpty();
+	}
+
+	public void created(final Widget widget) {
+		this.publish(WidgetChange.Type.CREATED, widget, null);
+	}
+
+	public void updated(final Widget previous, final Widget widget) {
+		this.publish(WidgetChange.Type.UPDATED, widget, previous);
+	}
+
+	/**
+	 * @param widget The widget as it was before deleted
+	 */
+	public void deleted(final Widget widget) {
+		this.publish(WidgetChange.Type.DELETED, widget, null);
+	}
+
+	/**
+	 * @param widgets Widgets moved out of the way, on their new positions
+	 */
+	public void shifted(final List<Widget> widgets) {
+		widgets.forEach(widget -> this.publish(WidgetChange.Type.SHIFTED, widget, null));
+	}
+
+	/**
+	 * Publish the widgets moved by a shift of positions from a z index, as found
+	 * by {@link #toShift(WidgetRepository, long, int)} before the shift.
+	 *
+	 * @param widgets   Widgets on the way, in ascending z
+	 * @param fromZ
+	 * @param positions Number of z indexes released
+	 */
+	public void shifted(final List<Widget> widgets, final long fromZ, final int positions) {
+
+		final LocalDateTime now = LocalDateTime.now();
+		for (int i = 0; i < widgets.size(); i++) {
+			final Widget widget = widgets.get(i);
+			widget.setZ(fromZ + positions + i);
+			widget.setLastModification(now);
+			this.publish(WidgetChange.Type.SHIFTED, widget, null);
+		}
+	}
+
+	/**
+	 * Find the widgets a shift of positions from a z index is about to move: the
+	 * runs of widgets from fromZ up to the last free z index the shift takes. The
+	 * ends of the runs are found on the z index, one per free position, and the
+	 * widgets are then read with a single query. Nothing is read when nobody
+	 * listens.
+	 *
+	 * @param repository
+	 * @param fromZ
+	 * @param positions  Number of z indexes to release
+	 * @return Copies of the widgets on the way, in ascending z
+	 */
+	public List<Widget> toShift(final WidgetRepository repository, final long fromZ, final int positions) {
+
+		if (!this.hasSubscribers()) {
+			return Collections.emptyList();
+		}
+
+		long z = fromZ;
+		long toZ = fromZ - 1;
+
+		for (int free = 0; free < positions; free++) {
+			final Optional<Long> endOfRun = repository.findEndOfRun(z);
+			if (endOfRun.isPresent()) {
+				toZ = endOfRun.get();
+				z = toZ + 1;
+			}
+			z++;
+		}
+
+		// @formatter:off
+		return WidgetsByZ.between(repository, fromZ, toZ).stream()
+				.map(Widget::clone)
+				.collect(Collectors.toList());
+		// @formatter:on
+	}
+
+	/**
+	 * Number the change and hand it to the buffers of the subscribers it touches,
+	 * in the order of the numbers.
+	 *
+	 * @param type
+	 * @param widget
+	 * @param previous
+	 */
+	private synchronized void publish(final WidgetChange.Type type, final Widget widget, final Widget previous) {
+
+		if (widget == null) {
+			return;
+		}
+
+		final long number = ++this.sequence;
+		if (this.subscribers.isEmpty()) {
+			return;
+		}
+
+		final WidgetChange change = new WidgetChange(number, type, widget.clone(),
+				previous == null ? null : previous.clone());
+
+		for (final Subscriber subscriber : this.subscribers) {
+			if (subscriber.touches(change)) {
+				subscriber.offer(change);
+			}
+		}
+	}
+
+	/**
+	 * Stream of one subscriber, with its area and its buffer of changes not sent
+	 * yet.
+	 */
+	private final class Subscriber {
+
+		private final SseEmitter emitter;
+
+		private final Long lowerX;
+
+		private final Long lowerY;
+
+		private final Long upperX;
+
+		private final Long upperY;
+
+		private final BlockingQueue<WidgetChange> buffer;
+
+		private final AtomicBoolean draining = new AtomicBoolean();
+
+		private volatile boolean overflowed;
+
+		private Subscriber(final SseEmitter emitter, final Long lowerX, final Long lowerY, final Long upperX,
+				final Long upperY) {
+			this.emitter = emitter;
+			this.lowerX = lowerX;
+			this.lowerY = lowerY;
+			this.upperX = upperX;
+			this.upperY = upperY;
+			this.buffer = new ArrayBlockingQueue<>(WidgetChangeFeed.this.bufferSize);
+		}
+
+		/**
+		 * Whether the widget changed is inside the area, before or after the change.
+		 * Shifts move widgets on the z axis only, so they touch the same areas as the
+		 * widgets moved.
+		 *
+		 * @param change
+		 * @return
+		 */
+		private boolean touches(final WidgetChange change) {
+			return this.lowerX == null || this.isInside(change.getWidget()) || this.isInside(change.getPrevious());
+		}
+
+		private boolean isInside(final Widget widget) {
+
+			if (widget == null || widget.getX() == null || widget.getY() == null || widget.getWidth() == null
+					|| widget.getHeight() == null) {
+				return false;
+			}
+
+			// @formatter:off
+			return widget.getX() - widget.getWidth() / 2 >= this.lowerX
+					&& widget.getY() - widget.getHeight() / 2 >= this.lowerY
+					&& widget.getX() + widget.getWidth() / 2 <= this.upperX
+					&& widget.getY() + widget.getHeight() / 2 <= this.upperY;
+			// @formatter:on
+		}
+
+		/**
+		 * Buffer a change without waiting. On a full buffer the subscriber is left
+		 * behind: it is dropped from the feed and closed once told.
+		 *
+		 * @param change
+		 */
+		private void offer(final WidgetChange change) {
+
+			if (!this.buffer.offer(change)) {
+				this.overflowed = true;
+				this.buffer.clear();
+				WidgetChangeFeed.this.subscribers.remove(this);
+			}
+
+			this.schedule();
+		}
+
+		private void schedule() {
+			if (this.draining.compareAndSet(false, true)) {
+				WidgetChangeFeed.this.dispatchers.execute(this::drain);
+			}
+		}
+
+		/**
+		 * Send the changes buffered, on a dispatcher thread. Changes buffered while
+		 * the drain ends are sent by another drain.
+		 */
+		private void drain() {
+
+			try {
+				WidgetChange change;
+				while (!this.overflowed && (change = this.buffer.poll()) != null) {
+					// @formatter:off
+					this.emitter.send(SseEmitter.event()
+							.id(Long.toString(change.getSequence()))
+							.name(change.getType().getEventName())
+							.data(change, MediaType.APPLICATION_JSON));
+					// @formatter:on
+				}
+
+				if (this.overflowed) {
+					this.emitter.send(SseEmitter.event().name(OVERFLOW).data(WidgetChangeFeed.this.bufferSize));
+					this.emitter.complete();
+					return;
+				}
+
+			} catch (final IOException | IllegalStateException e) {
+				// the client has gone or the stream is already complete
+				WidgetChangeFeed.this.subscribers.remove(this);
+				this.emitter.complete();
+				return;
+
+			} finally {
+				this.draining.set(false);
+			}
+
+			if (!this.buffer.isEmpty()) {
+				this.schedule();
+			}
+		}
+
+	}
+
+	/**
+	 * Daemon threads of the dispatchers, named after the feed.
+	 */
+	private static final class DispatcherFactory implements ThreadFactory {
+
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(final Runnable runnable) {
+			final Thread thread = new Thread(runnable, "widget-changes-" + this.count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+
+	}
+
+}
@@ -0,0 +1,165 @@
+package com.danianepg.widget.services.columnar;
+
+import java.util.Arrays;
+
+/**
+ * Map of <code>long</code> keys to non-negative <code>int</code> values on two
+ * primitive arrays, with open addressing and linear probing. Nothing is boxed
+ * and a lookup touches one or two adjacent positions of the arrays.
+ *
+ * Removed entries are not left as tombstones: the entries after them on the
+ * same probe sequence are moved back, so lookups never walk over deleted keys.
+ *
+ * Not thread-safe.
+ *
+ * @author Daniane P. Gomes
+ *
+ */
+public final class LongIntHashMap {
+
+	/**
+	 * Value returned for missing keys and kept on empty positions.
+	 */
+	public static final int MISSING = -1;
+
+	private static final int MIN_CAPACITY = 16;
+
+	private long[] keys;
+
+	private int[] values;
+
+	private int size;
+
+	public LongIntHashMap() {
+		this(MIN_CAPACITY);
+	}
+
+	public LongIntHashMap(final int expectedSize) {
+		this.allocate(Math.max(MIN_CAPACITY, Integer.highestOneBit(Math.max(expectedSize, 1) * 2 - 1) << 1));
+	}
+
+	/**
+	 * Find the value of a key.
+	 *
+	 * @param key
+	 * @return the value, or {@link #MISSING}
+	 */
+	public int get(final long key) {
+
+		final int mask = this.keys.length - 1;
+		for (int i = this.index(key); this.values[i] != MISSING; i = (i + 1) & mask) {
+			if (this.keys[i] == key) {
+				return this.values[i];
+			}
+		}
+
+		return MISSING;
+	}
+
+	/**
+	 * Add or replace the value of a key.
+	 *
+	 * @param key
+	 * @param value non-negative value
+	 * @return the previous value, or {@link #MISSING}
+	 */
+	public int put(final long key, final int value) {
+
+		if (value < 0) {
+			throw new IllegalArgumentException("Values must not be negative");
+		}
+
+		final int mask = this.keys.length - 1;
+		int i = this.index(key);
+		for (; this.values[i] != MISSING; i = (i + 1) & mask) {
+			if (this.keys[i] == key) {
+				final int previous = this.values[i];
+				this.values[i] = value;
+				return previous;
+			}
+		}
+
+		this.keys[i] = key;
+		this.values[i] = value;
+
+		if (++this.size * 2 > this.keys.length) {
+			this.resize(this.keys.length * 2);
+		}
+
+		return MISSING;
+	}
+
+	/**
+	 * Remove a key.
+	 *
+	 * @param key
+	 * @return the value it had, or {@link #MISSING}
+	 */
+	public int remove(final long key) {
+
+		final int mask = this.keys.length - 1;
+		int i = this.index(key);
+		for (; this.values[i] != MISSING; i = (i + 1) & mask) {
+			if (this.keys[i] == key) {
+				break;
+			}
+		}
+
+		final int previous = this.values[i];
+		if (previous == MISSING) {
+			return MISSING;
+		}
+
+		// move back the entries that would not be found past the released position
+		int free = i;
+		for (int j = (i + 1) & mask; this.values[j] != MISSING; j = (j + 1) & mask) {
+			final int home = this.index(this.keys[j]);
+			if (((j - home) & mask) >= ((j - free) & mask)) {
+				this.keys[free] = this.keys[j];
+				this.values[free] = this.values[j];
+				free = j;
+			}
+		}
+
+		this.values[free] = MISSING;
+		this.size--;
+
+		return previous;
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	public void clear() {
+		Arrays.fill(this.values, MISSING);
+		this.size = 0;
+	}
+
+	private int index(final long key) {
+		final long hash = key * 0x9E3779B97F4A7C15L;
+		return (int) (hash ^ (hash >>> 32)) & (this.keys.length - 1);
+	}
+
+	private void allocate(final int capacity) {
+		this.keys = new long[capacity];
+		this.values = new int[capacity];
+		Arrays.fill(this.values, MISSING);
+	}
+
+	private void resize(final int capacity) {
+
+		final long[] oldKeys = this.keys;
+		final int[] oldValues = this.values;
+
+		this.allocate(capacity);
+		this.size = 0;
+
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldValues[i] != MISSING) {
+				this.put(oldKeys[i], oldValues[i]);
+			}
+		}
+	}
+
+}
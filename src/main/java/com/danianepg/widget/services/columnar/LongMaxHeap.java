@@ -0,0 +1,106 @@
+package com.danianepg.widget.services.columnar;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Binary max-heap of <code>long</code> values on a primitive array. Nothing is
+ * boxed; the greatest value is read in constant time and removed in
+ * logarithmic time. Values may be added more than once.
+ *
+ * Not thread-safe.
+ *
+ * @author Daniane P. Gomes
+ *
+ */
+public final class LongMaxHeap {
+
+	private static final int MIN_CAPACITY = 16;
+
+	private long[] values = new long[MIN_CAPACITY];
+
+	private int size;
+
+	public void push(final long value) {
+
+		if (this.size == this.values.length) {
+			this.values = Arrays.copyOf(this.values, this.values.length * 2);
+		}
+
+		int position = this.size++;
+		while (position > 0) {
+			final int parent = (position - 1) >>> 1;
+			if (this.values[parent] >= value) {
+				break;
+			}
+			this.values[position] = this.values[parent];
+			position = parent;
+		}
+		this.values[position] = value;
+	}
+
+	/**
+	 * Read the greatest value.
+	 *
+	 * @return
+	 * @throws NoSuchElementException when the heap is empty
+	 */
+	public long peek() {
+
+		if (this.size == 0) {
+			throw new NoSuchElementException();
+		}
+
+		return this.values[0];
+	}
+
+	/**
+	 * Remove the greatest value.
+	 *
+	 * @return
+	 * @throws NoSuchElementException when the heap is empty
+	 */
+	public long pop() {
+
+		final long top = this.peek();
+		final long last = this.values[--this.size];
+
+		int position = 0;
+		while (true) {
+			int child = 2 * position + 1;
+			if (child >= this.size) {
+				break;
+			}
+			if (child + 1 < this.size && this.values[child + 1] > this.values[child]) {
+				child++;
+			}
+			if (last >= this.values[child]) {
+				break;
+			}
+			this.values[position] = this.values[child];
+			position = child;
+		}
+		this.values[position] = last;
+
+		return top;
+	}
+
+	public boolean isEmpty() {
+		return this.size == 0;
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Remove all the values, releasing the array when it grew.
+	 */
+	public void clear() {
+		this.size = 0;
+		if (this.values.length > MIN_CAPACITY) {
+			this.values = new long[MIN_CAPACITY];
+		}
+	}
+
+}
@@ -0,0 +1,126 @@
+package com.danianepg.widget.services.columnar;
+
+import java.util.Arrays;
+
+/**
+ * {@link WidgetSlots} kept column by column on primitive arrays on the heap: a
+ * widget is the same position on every array. A widget takes 48 bytes plus its
+ * share of the maps, against the 150+ bytes and the pointer hops of a
+ * {@link com.danianepg.widget.entities.Widget} and its boxed attributes, and a
+ * scan over an attribute reads one contiguous array.
+ *
+ * Not thread-safe.
+ *
+ * @author Daniane P. Gomes
+ *
+ */
+public final class WidgetColumns extends WidgetSlots {
+
+	private static final int MIN_CAPACITY = 64;
+
+	private long[] ids = new long[0];
+
+	private long[] xs = new long[0];
+
+	private long[] ys = new long[0];
+
+	private long[] zs = new long[0];
+
+	private float[] widths = new float[0];
+
+	private float[] heights = new float[0];
+
+	private long[] lastModifications = new long[0];
+
+	public WidgetColumns() {
+		this.ensureCapacity(MIN_CAPACITY);
+	}
+
+	@Override
+	protected void ensureCapacity(final int slots) {
+
+		if (slots <= this.ids.length) {
+			return;
+		}
+
+		final int capacity = Math.max(slots, Math.max(MIN_CAPACITY, this.ids.length * 2));
+		this.ids = Arrays.copyOf(this.ids, capacity);
+		this.xs = Arrays.copyOf(this.xs, capacity);
+		this.ys = Arrays.copyOf(this.ys, capacity);
+		this.zs = Arrays.copyOf(this.zs, capacity);
+		this.widths = Arrays.copyOf(this.widths, capacity);
+		this.heights = Arrays.copyOf(this.heights, capacity);
+		this.lastModifications = Arrays.copyOf(this.lastModifications, capacity);
+	}
+
+	@Override
+	protected long readId(final int slot) {
+		return this.ids[slot];
+	}
+
+	@Override
+	protected void writeId(final int slot, final long id) {
+		this.ids[slot] = id;
+	}
+
+	@Override
+	protected long readX(final int slot) {
+		return this.xs[slot];
+	}
+
+	@Override
+	protected void writeX(final int slot, final long x) {
+		this.xs[slot] = x;
+	}
+
+	@Override
+	protected long readY(final int slot) {
+		return this.ys[slot];
+	}
+
+	@Override
+	protected void writeY(final int slot, final long y) {
+		this.ys[slot] = y;
+	}
+
+	@Override
+	protected long readZ(final int slot) {
+		return this.zs[slot];
+	}
+
+	@Override
+	protected void writeZ(final int slot, final long z) {
+		this.zs[slot] = z;
+	}
+
+	@Override
+	protected float readWidth(final int slot) {
+		return this.widths[slot];
+	}
+
+	@Override
+	protected void writeWidth(final int slot, final float width) {
+		this.widths[slot] = width;
+	}
+
+	@Override
+	protected float readHeight(final int slot) {
+		return this.heights[slot];
+	}
+
+	@Override
+	protected void writeHeight(final int slot, final float height) {
+		this.heights[slot] = height;
+	}
+
+	@Override
+	protected long readLastModification(final int slot) {
+		return this.lastModifications[slot];
+	}
+
+	@Override
+	protected void writeLastModification(final int slot, final long lastModification) {
+		this.lastModifications[slot] = lastModification;
+	}
+
+}
@@ -0,0 +1,247 @@
+package com.danianepg.widget.services.columnar;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link WidgetSlots} kept off the Java heap as fixed-width records of 48 bytes,
+ * on segments of {@link #SEGMENT_RECORDS} records each. The segments are either
+ * direct buffers or regions of a memory-mapped file; the heap only holds the
+ * primitive maps of ids and z indexes, so the garbage collector never walks
+ * the widgets.
+ *
+ * A mapped file keeps the widgets between runs: its header records how many
+ * slots were ever used, and opening it again only rebuilds the maps from the
+ * records, without reading any widget into an object. Writes reach the file
+ * through the page cache; they survive the process but only survive the
+ * machine once the file is {@link #close() closed}.
+ *
+ * Not thread-safe.
+ *
+ * @author Daniane P. Gomes
+ *
+ */
+public final class WidgetRecords extends WidgetSlots implements Closeable {
+
+	public static final int SEGMENT_RECORDS = 1 << 16;
+
+	private static final int RECORD_SIZE = 48;
+
+	private static final int SEGMENT_SIZE = SEGMENT_RECORDS * RECORD_SIZE;
+
+	private static final int ID = 0;
+
+	private static final int X = 8;
+
+	private static final int Y = 16;
+
+	private static final int Z = 24;
+
+	private static final int LAST_MODIFICATION = 32;
+
+	private static final int WIDTH = 40;
+
+	private static final int HEIGHT = 44;
+
+	/**
+	 * Header of a mapped file: magic number, record size and slots used.
+	 */
+	private static final int HEADER_SIZE = 64;
+
+	private static final long MAGIC = 0x5749444745545331L;
+
+	private static final int HEADER_RECORD_SIZE = 8;
+
+	private static final int HEADER_USED = 12;
+
+	private final FileChannel channel;
+
+	private final ByteBuffer header;
+
+	private final List<ByteBuffer> segments = new ArrayList<>();
+
+	private WidgetRecords(final FileChannel channel, final ByteBuffer header) {
+		this.channel = channel;
+		this.header = header;
+	}
+
+	/**
+	 * Records on direct buffers, lost when the application stops.
+	 *
+	 * @return
+	 */
+	public static WidgetRecords direct() {
+		return new WidgetRecords(null, ByteBuffer.allocateDirect(HEADER_SIZE));
+	}
+
+	/**
+	 * Records on a memory-mapped file, created when it does not exist and
+	 * restored otherwise.
+	 *
+	 * @param file
+	 * @return
+	 * @throws IOException           when the file cannot be opened or mapped
+	 * @throws IllegalStateException when the file is not a file of widgets
+	 */
+	public static WidgetRecords mapped(final Path file) throws IOException {
+
+		final FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+
+		try {
+			final boolean created = channel.size() == 0;
+			final WidgetRecords records = new WidgetRecords(channel,
+					channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE));
+
+			if (created) {
+				records.header.putLong(0, MAGIC);
+				records.header.putInt(HEADER_RECORD_SIZE, RECORD_SIZE);
+				records.header.putInt(HEADER_USED, 0);
+				return records;
+			}
+
+			if (records.header.getLong(0) != MAGIC || records.header.getInt(HEADER_RECORD_SIZE) != RECORD_SIZE) {
+				throw new IllegalStateException("Not a file of widgets: " + file);
+			}
+
+			final int used = records.header.getInt(HEADER_USED);
+			records.ensureCapacity(used);
+			records.restore(used);
+
+			return records;
+
+		} catch (final IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Write the mapped records to the file and release it. Direct records have
+	 * nothing to release.
+	 */
+	@Override
+	public void close() throws IOException {
+
+		if (this.channel == null) {
+			return;
+		}
+
+		for (final ByteBuffer segment : this.segments) {
+			((MappedByteBuffer) segment).force();
+		}
+		((MappedByteBuffer) this.header).force();
+
+		this.channel.close();
+	}
+
+	@Override
+	protected void ensureCapacity(final int slots) {
+
+		while ((long) this.segments.size() * SEGMENT_RECORDS < slots) {
+
+			if (this.channel == null) {
+				this.segments.add(ByteBuffer.allocateDirect(SEGMENT_SIZE));
+				continue;
+			}
+
+			try {
+				final long position = HEADER_SIZE + (long) this.segments.size() * SEGMENT_SIZE;
+				this.segments.add(this.channel.map(FileChannel.MapMode.READ_WRITE, position, SEGMENT_SIZE));
+			} catch (final IOException e) {
+				throw new IllegalStateException("Unable to grow the file of widgets", e);
+			}
+		}
+	}
+
+	@Override
+	protected void slotsUsed(final int usedSlots) {
+		this.header.putInt(HEADER_USED, usedSlots);
+	}
+
+	private ByteBuffer segment(final int slot) {
+		return this.segments.get(slot / SEGMENT_RECORDS);
+	}
+
+	private int offset(final int slot, final int attribute) {
+		return (slot % SEGMENT_RECORDS) * RECORD_SIZE + attribute;
+	}
+
+	@Override
+	protected long readId(final int slot) {
+		return this.segment(slot).getLong(this.offset(slot, ID));
+	}
+
+	@Override
+	protected void writeId(final int slot, final long id) {
+		this.segment(slot).putLong(this.offset(slot, ID), id);
+	}
+
+	@Override
+	protected long readX(final int slot) {
+		return this.segment(slot).getLong(this.offset(slot, X));
+	}
+
+	@Override
+	protected void writeX(final int slot, final long x) {
+		this.segment(slot).putLong(this.offset(slot, X), x);
+	}
+
+	@Override
+	protected long readY(final int slot) {
+		return this.segment(slot).getLong(this.offset(slot, Y));
+	}
+
+	@Override
+	protected void writeY(final int slot, final long y) {
+		this.segment(slot).putLong(this.offset(slot, Y), y);
+	}
+
+	@Override
+	protected long readZ(final int slot) {
+		return this.segment(slot).getLong(this.offset(slot, Z));
+	}
+
+	@Override
+	protected void writeZ(final int slot, final long z) {
+		this.segment(slot).putLong(this.offset(slot, Z), z);
+	}
+
+	@Override
+	protected float readWidth(final int slot) {
+		return this.segment(slot).getFloat(this.offset(slot, WIDTH));
+	}
+
+	@Override
+	protected void writeWidth(final int slot, final float width) {
+		this.segment(slot).putFloat(this.offset(slot, WIDTH), width);
+	}
+
+	@Override
+	protected float readHeight(final int slot) {
+		return this.segment(slot).getFloat(this.offset(slot, HEIGHT));
+	}
+
+	@Override
+	protected void writeHeight(final int slot, final float height) {
+		this.segment(slot).putFloat(this.offset(slot, HEIGHT), height);
+	}
+
+	@Override
+	protected long readLastModification(final int slot) {
+		return this.segment(slot).getLong(this.offset(slot, LAST_MODIFICATION));
+	}
+
+	@Override
+	protected void writeLastModification(final int slot, final long lastModification) {
+		this.segment(slot).putLong(this.offset(slot, LAST_MODIFICATION), lastModification);
+	}
+
+}
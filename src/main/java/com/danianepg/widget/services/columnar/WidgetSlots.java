@@ -0,0 +1,588 @@
+package com.danianepg.widget.services.columnar;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.OptionalLong;
+import java.util.function.IntPredicate;
+
+import com.danianepg.widget.entities.Widget;
+import com.danianepg.widget.services.WidgetCursor;
+import com.danianepg.widget.services.WidgetSort;
+import com.danianepg.widget.services.WidgetSortField;
+
+/**
+ * Widgets stored as primitive attributes on numbered slots. The id of a widget
+ * leads to its slot through a primitive hash map, as does its z index, and
+ * slots released by deletes are reused through a free list. The greatest z
+ * index is kept on a max-heap of the z indexes taken, whose entries no widget
+ * is on any more are dropped once they reach the top. Filters and sorts
+ * read only the attributes they need, slot after slot, and {@link Widget}
+ * objects are only created for the widgets returned.
+ *
+ * Subclasses decide where the attributes are kept. Missing values are kept as
+ * {@link Long#MIN_VALUE} on the long attributes, the same key
+ * {@link WidgetSortField} gives them, and as NaN on the float ones. The last
+ * modification is kept as its {@link WidgetSortField} key.
+ *
+ * Not thread-safe.
+ *
+ * @author Daniane P. Gomes
+ *
+ */
+public abstract class WidgetSlots {
+
+	protected static final long NONE = Long.MIN_VALUE;
+
+	private static final int MIN_FREE_SLOTS = 64;
+
+	/**
+	 * Slot of each id and of each z index.
+	 */
+	private final LongIntHashMap slotsById = new LongIntHashMap();
+
+	private final LongIntHashMap slotsByZ = new LongIntHashMap();
+
+	/**
+	 * Stack of the slots released by deletes.
+	 */
+	private int[] freeSlots = new int[MIN_FREE_SLOTS];
+
+	private int freeCount;
+
+	/**
+	 * Slots ever used; slots from here on were never used.
+	 */
+	private int used;
+
+	private long maxZ = NONE;
+
+	/**
+	 * Z indexes taken, including ones left since: an entry is only checked
+	 * against the z map once it is the greatest.
+	 */
+	private final LongMaxHeap zHeap = new LongMaxHeap();
+
+	public int size() {
+		return this.slotsById.size();
+	}
+
+	/**
+	 * Find the slot of a widget.
+	 *
+	 * @param id
+	 * @return the slot, or {@link LongIntHashMap#MISSING}
+	 */
+	public int slotOf(final long id) {
+		return this.slotsById.get(id);
+	}
+
+	/**
+	 * Find the slot of the widget on a z index.
+	 *
+	 * @param z
+	 * @return the slot, or {@link LongIntHashMap#MISSING}
+	 */
+	public int slotOfZ(final long z) {
+		return this.slotsByZ.get(z);
+	}
+
+	/**
+	 * Create the widget kept on a slot.
+	 *
+	 * @param slot
+	 * @return
+	 */
+	public Widget get(final int slot) {
+
+		// @formatter:off
+		return new Widget(this.readId(slot),
+				this.longValue(this.readX(slot)),
+				this.longValue(this.readY(slot)),
+				this.longValue(this.readZ(slot)),
+				this.floatValue(this.readWidth(slot)),
+				this.floatValue(this.readHeight(slot)),
+				(LocalDateTime) WidgetSortField.LAST_MODIFICATION.value(this.readLastModification(slot)));
+		// @formatter:on
+	}
+
+	/**
+	 * Add a widget or replace the one with the same id.
+	 *
+	 * @param widget widget with an id
+	 * @return the slot of the widget
+	 */
+	public int put(final Widget widget) {
+
+		final long id = widget.getId();
+
+		int slot = this.slotsById.get(id);
+		if (slot == LongIntHashMap.MISSING) {
+			slot = this.allocateSlot();
+			this.writeId(slot, id);
+			this.writeZ(slot, NONE);
+			this.slotsById.put(id, slot);
+		}
+
+		this.writeX(slot, WidgetSortField.X.key(widget));
+		this.writeY(slot, WidgetSortField.Y.key(widget));
+		this.writeWidth(slot, widget.getWidth() == null ? Float.NaN : widget.getWidth());
+		this.writeHeight(slot, widget.getHeight() == null ? Float.NaN : widget.getHeight());
+		this.writeLastModification(slot, WidgetSortField.LAST_MODIFICATION.key(widget));
+		this.moveZ(slot, WidgetSortField.Z.key(widget));
+
+		return slot;
+	}
+
+	/**
+	 * Move the widget on a slot to another z index.
+	 *
+	 * @param slot
+	 * @param z
+	 * @param lastModification
+	 */
+	public void setZ(final int slot, final long z, final LocalDateTime lastModification) {
+		this.moveZ(slot, z);
+		this.writeLastModification(slot, WidgetSortField.key(lastModification));
+	}
+
+	/**
+	 * Remove a widget, releasing its slot.
+	 *
+	 * @param id
+	 * @return false when the widget is not stored
+	 */
+	public boolean remove(final long id) {
+
+		final int slot = this.slotsById.remove(id);
+		if (slot == LongIntHashMap.MISSING) {
+			return false;
+		}
+
+		this.moveZ(slot, NONE);
+		this.writeId(slot, NONE);
+
+		this.pushFreeSlot(slot);
+
+		return true;
+	}
+
+	/**
+	 * Find the greatest z index stored.
+	 *
+	 * @return
+	 */
+	public OptionalLong findMaxZ() {
+		return this.maxZ == NONE ? OptionalLong.empty() : OptionalLong.of(this.maxZ);
+	}
+
+	/**
+	 * Whether the widget on a slot is entirely inside an area.
+	 *
+	 * @param slot
+	 * @param minX
+	 * @param minY
+	 * @param maxX
+	 * @param maxY
+	 * @return false for widgets missing any of the attributes of their area
+	 */
+	public boolean isInside(final int slot, final float minX, final float minY, final float maxX,
+			final float maxY) {
+
+		final long x = this.readX(slot);
+		final long y = this.readY(slot);
+		final float width = this.readWidth(slot);
+		final float height = this.readHeight(slot);
+
+		if (x == NONE || y == NONE || Float.isNaN(width) || Float.isNaN(height)) {
+			return false;
+		}
+
+		// @formatter:off
+		return x - width / 2 >= minX
+				&& y - height / 2 >= minY
+				&& x + width / 2 <= maxX
+				&& y + height / 2 <= maxY;
+		// @formatter:on
+	}
+
+	/**
+	 * Count the stored widgets accepted by a filter.
+	 *
+	 * @param filter
+	 * @return
+	 */
+	public int count(final IntPredicate filter) {
+
+		int count = 0;
+		for (int slot = 0; slot < this.used; slot++) {
+			if (this.readId(slot) != NONE && filter.test(slot)) {
+				count++;
+			}
+		}
+
+		return count;
+	}
+
+	/**
+	 * Select the slots of one page of the widgets accepted by a filter. Sorted
+	 * pages keep only the first <code>offset + limit</code> slots on a primitive
+	 * heap while the columns are scanned, so nothing but the slots of the page
+	 * is sorted.
+	 *
+	 * @param filter
+	 * @param sort   Sort of the page, or null for the order of the slots
+	 * @param after  Cursor the widgets must come after, on its own sort; or null
+	 * @param offset
+	 * @param limit
+	 * @return the slots of the page, in order
+	 */
+	public int[] select(final IntPredicate filter, final WidgetSort sort, final WidgetCursor after, final long offset,
+			final int limit) {
+
+		final WidgetSort order = after == null ? sort : after.getSort();
+		final IntPredicate accepted = after == null ? filter : filter.and(slot -> this.compare(after, slot) > 0);
+
+		if (order == null) {
+			return this.selectInSlotOrder(accepted, offset, limit);
+		}
+
+		final int wanted = (int) Math.min(offset + limit, this.size());
+		if (wanted <= offset) {
+			return new int[0];
+		}
+
+		// max-heap: the worst slot selected so far stays on top
+		final int[] heap = new int[wanted];
+		int heapSize = 0;
+
+		for (int slot = 0; slot < this.used; slot++) {
+			if (this.readId(slot) == NONE || !accepted.test(slot)) {
+				continue;
+			}
+
+			if (heapSize < wanted) {
+				heap[heapSize] = slot;
+				this.siftUp(heap, heapSize++, order);
+			} else if (this.compare(order, slot, heap[0]) < 0) {
+				heap[0] = slot;
+				this.siftDown(heap, heapSize, order);
+			}
+		}
+
+		// taking the worst each time sorts the heap from its end
+		for (int last = heapSize - 1; last > 0; last--) {
+			final int worst = heap[0];
+			heap[0] = heap[last];
+			heap[last] = worst;
+			this.siftDown(heap, last, order);
+		}
+
+		return heapSize <= offset ? new int[0] : Arrays.copyOfRange(heap, (int) offset, heapSize);
+	}
+
+	private int[] selectInSlotOrder(final IntPredicate accepted, final long offset, final int limit) {
+
+		final int[] selected = new int[Math.min(limit, this.size())];
+		int count = 0;
+		long skipped = 0;
+
+		for (int slot = 0; slot < this.used && count < selected.length; slot++) {
+			if (this.readId(slot) != NONE && accepted.test(slot) && skipped++ >= offset) {
+				selected[count++] = slot;
+			}
+		}
+
+		return Arrays.copyOf(selected, count);
+	}
+
+	/**
+	 * Sortable key of an attribute of the widget on a slot.
+	 *
+	 * @param field
+	 * @param slot
+	 * @return
+	 */
+	public long key(final WidgetSortField field, final int slot) {
+
+		switch (field) {
+		case ID:
+			return this.readId(slot);
+		case X:
+			return this.readX(slot);
+		case Y:
+			return this.readY(slot);
+		case Z:
+			return this.readZ(slot);
+		case WIDTH:
+			return this.floatKey(this.readWidth(slot));
+		case HEIGHT:
+			return this.floatKey(this.readHeight(slot));
+		default:
+			return this.readLastModification(slot);
+		}
+	}
+
+	private int compare(final WidgetSort sort, final int slot, final int other) {
+
+		for (int i = 0; i < sort.size(); i++) {
+			final long key = this.key(sort.getField(i), slot);
+			final long otherKey = this.key(sort.getField(i), other);
+			if (key != otherKey) {
+				final int compare = key < otherKey ? -1 : 1;
+				return sort.isAscending(i) ? compare : -compare;
+			}
+		}
+
+		return 0;
+	}
+
+	private int compare(final WidgetCursor cursor, final int slot) {
+
+		final WidgetSort sort = cursor.getSort();
+		for (int i = 0; i < sort.size(); i++) {
+			final long key = this.key(sort.getField(i), slot);
+			if (key != cursor.getKey(i)) {
+				final int compare = key < cursor.getKey(i) ? -1 : 1;
+				return sort.isAscending(i) ? compare : -compare;
+			}
+		}
+
+		return 0;
+	}
+
+	private void siftUp(final int[] heap, final int position, final WidgetSort sort) {
+
+		int child = position;
+		while (child > 0) {
+			final int parent = (child - 1) / 2;
+			if (this.compare(sort, heap[child], heap[parent]) <= 0) {
+				return;
+			}
+			this.swap(heap, child, parent);
+			child = parent;
+		}
+	}
+
+	private void siftDown(final int[] heap, final int size, final WidgetSort sort) {
+
+		int parent = 0;
+		while (true) {
+			final int left = parent * 2 + 1;
+			if (left >= size) {
+				return;
+			}
+
+			final int right = left + 1;
+			final int child = right < size && this.compare(sort, heap[right], heap[left]) > 0 ? right : left;
+			if (this.compare(sort, heap[child], heap[parent]) <= 0) {
+				return;
+			}
+
+			this.swap(heap, child, parent);
+			parent = child;
+		}
+	}
+
+	private void swap(final int[] heap, final int i, final int j) {
+		final int slot = heap[i];
+		heap[i] = heap[j];
+		heap[j] = slot;
+	}
+
+	/**
+	 * Move a slot on the z map, keeping track of the greatest z index.
+	 */
+	private void moveZ(final int slot, final long z) {
+
+		final long previousZ = this.readZ(slot);
+		if (previousZ == z) {
+			return;
+		}
+
+		this.writeZ(slot, z);
+		if (z != NONE) {
+			this.slotsByZ.put(z, slot);
+			this.pushZ(z);
+			this.maxZ = Math.max(this.maxZ, z);
+		}
+
+		if (previousZ != NONE && this.slotsByZ.get(previousZ) == slot) {
+			this.slotsByZ.remove(previousZ);
+			if (previousZ == this.maxZ) {
+				this.maxZ = this.popMaxZ();
+			}
+		}
+	}
+
+	/**
+	 * Add a z index to the heap. Once the entries left behind outnumber the z
+	 * indexes taken, the heap is built again from the z map, which costs as much
+	 * as the pushes since the previous build.
+	 */
+	private void pushZ(final long z) {
+
+		this.zHeap.push(z);
+
+		if (this.zHeap.size() > 2 * this.slotsByZ.size() + MIN_FREE_SLOTS) {
+			this.zHeap.clear();
+			for (int slot = 0; slot < this.used; slot++) {
+				final long taken = this.readZ(slot);
+				if (this.readId(slot) != NONE && taken != NONE && this.slotsByZ.get(taken) == slot) {
+					this.zHeap.push(taken);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Drop the entries of the heap no widget is on any more, from the top.
+	 *
+	 * @return the greatest z index taken
+	 */
+	private long popMaxZ() {
+
+		while (!this.zHeap.isEmpty() && this.slotsByZ.get(this.zHeap.peek()) == LongIntHashMap.MISSING) {
+			this.zHeap.pop();
+		}
+
+		return this.zHeap.isEmpty() ? NONE : this.zHeap.peek();
+	}
+
+	/**
+	 * Remove all the widgets. The slots are overwritten as they are used again.
+	 */
+	public void clear() {
+		this.slotsById.clear();
+		this.slotsByZ.clear();
+		this.freeCount = 0;
+		this.maxZ = NONE;
+		this.zHeap.clear();
+		this.used = 0;
+		this.slotsUsed(0);
+	}
+
+	/**
+	 * Find the greatest id stored.
+	 *
+	 * @return zero when there are no widgets
+	 */
+	public long findMaxId() {
+
+		long max = 0;
+		for (int slot = 0; slot < this.used; slot++) {
+			max = Math.max(max, this.readId(slot));
+		}
+
+		return max;
+	}
+
+	/**
+	 * Rebuild the maps and the free list from slots already written, e.g. by a
+	 * previous run on the same file.
+	 *
+	 * @param usedSlots Slots ever used
+	 */
+	protected void restore(final int usedSlots) {
+
+		this.clear();
+		this.used = usedSlots;
+
+		for (int slot = 0; slot < usedSlots; slot++) {
+
+			final long id = this.readId(slot);
+			if (id == NONE) {
+				this.pushFreeSlot(slot);
+				continue;
+			}
+
+			this.slotsById.put(id, slot);
+
+			final long z = this.readZ(slot);
+			if (z != NONE) {
+				this.slotsByZ.put(z, slot);
+				this.zHeap.push(z);
+				this.maxZ = Math.max(this.maxZ, z);
+			}
+		}
+
+		this.slotsUsed(usedSlots);
+	}
+
+	private int allocateSlot() {
+
+		if (this.freeCount > 0) {
+			return this.freeSlots[--this.freeCount];
+		}
+
+		// a slot counted as used before its widget is written must not look like one
+		this.ensureCapacity(this.used + 1);
+		this.writeId(this.used, NONE);
+		this.slotsUsed(this.used + 1);
+
+		return this.used++;
+	}
+
+	private void pushFreeSlot(final int slot) {
+
+		if (this.freeCount == this.freeSlots.length) {
+			this.freeSlots = Arrays.copyOf(this.freeSlots, this.freeSlots.length * 2);
+		}
+		this.freeSlots[this.freeCount++] = slot;
+	}
+
+	/**
+	 * Make room for at least a number of slots.
+	 *
+	 * @param slots
+	 */
+	protected abstract void ensureCapacity(int slots);
+
+	/**
+	 * Notified whenever the number of slots ever used changes.
+	 *
+	 * @param usedSlots
+	 */
+	protected void slotsUsed(final int usedSlots) {
+	}
+
+	protected abstract long readId(int slot);
+
+	protected abstract void writeId(int slot, long id);
+
+	protected abstract long readX(int slot);
+
+	protected abstract void writeX(int slot, long x);
+
+	protected abstract long readY(int slot);
+
+	protected abstract void writeY(int slot, long y);
+
+	protected abstract long readZ(int slot);
+
+	protected abstract void writeZ(int slot, long z);
+
+	protected abstract float readWidth(int slot);
+
+	protected abstract void writeWidth(int slot, float width);
+
+	protected abstract float readHeight(int slot);
+
+	protected abstract void writeHeight(int slot, float height);
+
+	protected abstract long readLastModification(int slot);
+
+	protected abstract void writeLastModification(int slot, long lastModification);
+
+	private long floatKey(final float value) {
+		return Float.isNaN(value) ? NONE : WidgetSortField.key(value);
+	}
+
+	private Long longValue(final long value) {
+		return value == NONE ? null : value;
+	}
+
+	private Float floatValue(final float value) {
+		return Float.isNaN(value) ? null : value;
+	}
+
+}
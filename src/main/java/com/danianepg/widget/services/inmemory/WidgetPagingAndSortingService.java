@@ -5,16 +5,18 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.stream.Collectors;
 
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
-import org.springframework.data.domain.Sort.Order;
 import org.springframework.stereotype.Service;
 
 import com.danianepg.widget.entities.Widget;
+import com.danianepg.widget.services.WidgetCursor;
+import com.danianepg.widget.services.WidgetSort;
 import com.danianepg.widget.utils.ApplicationConstants;
 
 /**
@@ -36,8 +38,35 @@ public class WidgetPagingAndSortingService {
 	 * @return
 	 */
 	public PageImpl<Widget> getPage(final List<Widget> widgets, final Pageable pageableParm) {
-		final List<Widget> widgetsCopy = Collections.synchronizedList(new ArrayList<>(widgets));
-		return this.getPageImpl(pageableParm, widgetsCopy);
+		return this.getPageImpl(pageableParm, widgets);
+	}
+
+	/**
+	 * Paginate the widgets after a cursor. The total of elements is still the size
+	 * of the whole list.
+	 *
+	 * @param widgets
+	 * @param pageableParm
+	 * @param cursor
+	 * @return
+	 */
+	public PageImpl<Widget> getPage(final List<Widget> widgets, final Pageable pageableParm,
+			final WidgetCursor cursor) {
+
+		if (cursor == null) {
+			return this.getPage(widgets, pageableParm);
+		}
+
+		final List<Widget> widgetsAfter = widgets.stream().filter(cursor::isBefore).collect(Collectors.toList());
+		final int pageSize = pageableParm == null || pageableParm.isUnpaged() ? Math.max(widgetsAfter.size(), 1)
+				: pageableParm.getPageSize();
+
+		final Pageable pageAfter = PageRequest.of(0, pageSize, cursor.getSort().toSort());
+		final PageImpl<Widget> page = this.getPageImpl(pageAfter, widgetsAfter);
+
+		// unpaged, otherwise a last page shorter than the page size would have its
+		// total of elements reduced to its own size
+		return new PageImpl<Widget>(page.getContent(), Pageable.unpaged(), widgets.size());
 	}
 
 	/**
@@ -53,13 +82,14 @@ public class WidgetPagingAndSortingService {
 	}
 
 	/**
-	 * Slice an array an return it paginated and sorted.
+	 * Slice an array an return it paginated and sorted. Only the widgets up to the
+	 * end of the page are sorted; the list itself is never modified.
 	 *
 	 * @param pageableParm
 	 * @param widgetsCopy
 	 * @return
 	 */
-	private PageImpl<Widget> getPageImpl(final Pageable pageableParm, List<Widget> widgetsCopy) {
+	private PageImpl<Widget> getPageImpl(final Pageable pageableParm, final List<Widget> widgetsCopy) {
 
 		Pageable pageable = pageableParm;
 		if (pageable == null || pageable.isUnpaged()) {
@@ -78,10 +108,16 @@ public class WidgetPagingAndSortingService {
 		final Long end = (start + pageable.getPageSize()) > widgetsCopy.size() ? widgetsCopy.size()
 				: (start + pageable.getPageSize());
 
+		if (start >= end) {
+			return new PageImpl<Widget>(Collections.emptyList(), pageable, widgetsCopy.size());
+		}
+
 		final Sort sort = pageable.getSort();
 
 		if (sort != null && sort.isSorted()) {
-			widgetsCopy = this.getPageSorted(widgetsCopy, sort);
+			final List<Widget> widgetsSorted = this.getFirstSorted(widgetsCopy, WidgetSort.of(sort), end.intValue());
+			return new PageImpl<Widget>(widgetsSorted.subList(start.intValue(), end.intValue()), pageable,
+					widgetsCopy.size());
 		}
 
 		return new PageImpl<Widget>(widgetsCopy.subList(start.intValue(), end.intValue()), pageable,
@@ -89,65 +125,72 @@ public class WidgetPagingAndSortingService {
 	}
 
 	/**
-	 * Handle the sorting for all the {@link com.danianepg.widget.entities.Widget}
-	 * attributes.
+	 * Select the first <code>limit</code> widgets in the order of the sort,
+	 * without sorting the whole list. The sortable keys of each widget are read
+	 * once and compared as primitives. A bounded heap keeps the best widgets seen
+	 * so far with the worst of them on top, so each widget costs O(log limit)
+	 * instead of the O(log n) of a full sort. The sort always ends on the id, so
+	 * there are no ties.
 	 *
 	 * @param widgets
 	 * @param sort
-	 * @return
+	 * @param limit
+	 * @return the selected widgets, sorted
 	 */
-	private List<Widget> getPageSorted(final List<Widget> widgets, final Sort sort) {
-
-		Comparator<Widget> comparator = Comparator.comparing(Widget::getZ);
-		boolean isAscending = false;
-
-		final Order directionId = sort.getOrderFor("id");
-		final Order directionX = sort.getOrderFor("x");
-		final Order directionY = sort.getOrderFor("y");
-		final Order directionZ = sort.getOrderFor("z");
-		final Order directionWidth = sort.getOrderFor("width");
-		final Order directionHeight = sort.getOrderFor("height");
-		final Order directionlastModification = sort.getOrderFor("lastModification");
-
-		if (directionId != null) {
-			comparator = Comparator.comparing(Widget::getId);
-			isAscending = directionId.getDirection().isAscending();
-
-		} else if (directionX != null) {
-			comparator = Comparator.comparing(Widget::getX);
-			isAscending = directionX.getDirection().isAscending();
-
-		} else if (directionY != null) {
-			comparator = Comparator.comparing(Widget::getY);
-			isAscending = directionY.getDirection().isAscending();
-
-		} else if (directionZ != null) {
-			comparator = Comparator.comparing(Widget::getZ);
-			isAscending = directionZ.getDirection().isAscending();
-
-		} else if (directionWidth != null) {
-			comparator = Comparator.comparing(Widget::getWidth);
-			isAscending = directionWidth.getDirection().isAscending();
-
-		} else if (directionHeight != null) {
-			comparator = Comparator.comparing(Widget::getHeight);
-			isAscending = directionHeight.getDirection().isAscending();
-
-		} else if (directionlastModification != null) {
-			comparator = Comparator.comparing(Widget::getLastModification);
-			isAscending = directionlastModification.getDirection().isAscending();
-		}
+	private List<Widget> getFirstSorted(final List<Widget> widgets, final WidgetSort sort, final int limit) {
+
+		final Comparator<Keyed> comparator = (keyed, other) -> sort.compare(keyed.keys, other.keys);
+
+		final List<Keyed> selected;
+
+		if (limit >= widgets.size()) {
+			selected = new ArrayList<>(widgets.size());
+			for (final Widget widget : widgets) {
+				selected.add(new Keyed(widget, sort.keys(widget)));
+			}
 
-		if (isAscending) {
-			return widgets.stream().sorted(comparator).collect(Collectors.toList());
 		} else {
-			return widgets.stream().sorted(comparator.reversed()).collect(Collectors.toList());
+			final PriorityQueue<Keyed> heap = new PriorityQueue<>(limit + 1, comparator.reversed());
+
+			for (final Widget widget : widgets) {
+				final Keyed keyed = new Keyed(widget, sort.keys(widget));
+
+				if (heap.size() < limit) {
+					heap.add(keyed);
+				} else if (comparator.compare(keyed, heap.peek()) < 0) {
+					heap.poll();
+					heap.add(keyed);
+				}
+			}
+
+			selected = new ArrayList<>(heap);
+		}
+
+		selected.sort(comparator);
+
+		return selected.stream().map(k -> k.widget).collect(Collectors.toList());
+	}
+
+	/**
+	 * Widget with its sortable keys.
+	 */
+	private static final class Keyed {
+
+		private final Widget widget;
+
+		private final long[] keys;
+
+		private Keyed(final Widget widget, final long[] keys) {
+			this.widget = widget;
+			this.keys = keys;
 		}
 
 	}
 
 	/**
-	 * Get the default paging and sorting definitions.
+	 * Get the default paging and sorting definitions. Pages are sorted by the
+	 * widget attributes informed, z descending by default, and then by id so they
+	 * can be continued by a {@link com.danianepg.widget.services.WidgetCursor}.
 	 *
 	 * @param page
 	 * @return
@@ -155,11 +198,33 @@ public class WidgetPagingAndSortingService {
 	public Pageable getPageAndSort(final Pageable page) {
 
 		if (page == null) {
-			return PageRequest.of(0, ApplicationConstants.PAGE_SIZE,
-					Sort.by(ApplicationConstants.SORT_FIELD).descending());
+			return PageRequest.of(0, ApplicationConstants.PAGE_SIZE, WidgetSort.of(Sort.unsorted()).toSort());
+		}
+
+		if (page.isUnpaged()) {
+			return page;
+		}
+
+		return PageRequest.of(page.getPageNumber(), page.getPageSize(), WidgetSort.of(page.getSort()).toSort());
+	}
+
+	/**
+	 * Get the paging and sorting definitions of the page after a cursor, which
+	 * follows the sort of the cursor.
+	 *
+	 * @param page
+	 * @param cursor
+	 * @return
+	 */
+	public Pageable getPageAndSort(final Pageable page, final WidgetCursor cursor) {
+
+		final Pageable pageRequest = this.getPageAndSort(page);
+		if (cursor == null) {
+			return pageRequest;
 		}
 
-		return page;
+		final int pageSize = pageRequest.isPaged() ? pageRequest.getPageSize() : ApplicationConstants.PAGE_SIZE;
+		return PageRequest.of(0, pageSize, cursor.getSort().toSort());
 	}
 
 }
@@ -0,0 +1,482 @@
+package com.danianepg.widget.services.inmemory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.danianepg.widget.entities.Widget;
+import com.danianepg.widget.services.WidgetCursor;
+import com.danianepg.widget.services.WidgetSort;
+import com.danianepg.widget.services.WidgetSortField;
+import com.danianepg.widget.services.spatial.SpatialIndex;
+
+/**
+ * Secondary indexes over the widgets kept by
+ * {@link com.danianepg.widget.services.inmemory.WidgetsInMemoryStorageService}.
+ * The indexes are bound to one instance of the storage map and are rebuilt
+ * whenever a different instance is handed over, e.g. after
+ * {@link WidgetsInMemoryStorageService#deleteAll()}.
+ *
+ * All the writes on the storage must be reported through
+ * {@link #index(Widget)}, {@link #indexAll(Collection)} and
+ * {@link #remove(Long)} to keep the indexes in sync.
+ *
+ * Each write changes the indexes and publishes its version of the widgets
+ * while holding a write stamp, so reads done through {@link #read(Function)}
+ * find the ids on the indexes and the widgets on the snapshot of the same
+ * version. Reads are optimistic: they take no lock unless a write happens
+ * meanwhile, when they run again holding a read stamp.
+ *
+ * @author Daniane P. Gomes
+ *
+ */
+@Service
+public class WidgetsInMemoryIndexService {
+
+	/**
+	 * Navigable z index to find widgets by their position on the plan in
+	 * O(log n).
+	 */
+	private final ConcurrentNavigableMap<Long, Long> idsByZ = new ConcurrentSkipListMap<>();
+
+	/**
+	 * Latest z indexed for each widget. Widgets may have their z changed in place
+	 * before being saved, so the previous position must be tracked here.
+	 */
+	private final Map<Long, Long> zById = new ConcurrentHashMap<>();
+
+	/**
+	 * Greatest z indexed, or {@link Long#MIN_VALUE} when there are no widgets. It
+	 * is raised on every insert and only recomputed when the top widget leaves
+	 * its position.
+	 */
+	private final AtomicLong maxZ = new AtomicLong(Long.MIN_VALUE);
+
+	/**
+	 * Spatial index over the area covered by each widget, chosen by
+	 * configuration.
+	 */
+	@Autowired
+	private SpatialIndex areaIndex;
+
+	/**
+	 * One sorted index per attribute widgets can be sorted by, so pages are
+	 * served by walking an index instead of sorting the storage.
+	 */
+	private final Map<WidgetSortField, ConcurrentSkipListSet<SortKey>> sortIndexes = new EnumMap<>(
+			WidgetSortField.class);
+
+	/**
+	 * Latest sort keys indexed for each widget, by {@link WidgetSortField}
+	 * ordinal, to find its entries on the sorted indexes when it changes.
+	 */
+	private final Map<Long, long[]> sortKeysById = new ConcurrentHashMap<>();
+
+	public WidgetsInMemoryIndexService() {
+		for (final WidgetSortField field : WidgetSortField.values()) {
+			this.sortIndexes.put(field, new ConcurrentSkipListSet<>());
+		}
+	}
+
+	/**
+	 * Latest version of the widgets, published atomically on every write for
+	 * readers to take in O(1).
+	 */
+	private final AtomicReference<WidgetsSnapshot> snapshot = new AtomicReference<>(WidgetsSnapshot.EMPTY);
+
+	/**
+	 * Held by writers while the indexes and the snapshot are out of step.
+	 */
+	private final StampedLock version = new StampedLock();
+
+	private volatile Map<Long, Widget> indexedWidgets;
+
+	/**
+	 * Make sure the indexes reflect the informed storage map, rebuilding them
+	 * when the map instance has changed.
+	 *
+	 * @param widgets
+	 * @return
+	 */
+	public WidgetsInMemoryIndexService sync(final Map<Long, Widget> widgets) {
+
+		if (this.indexedWidgets != widgets) {
+			synchronized (this) {
+				if (this.indexedWidgets != widgets) {
+					final long stamp = this.version.writeLock();
+					try {
+						this.idsByZ.clear();
+						this.zById.clear();
+						this.maxZ.set(Long.MIN_VALUE);
+						this.areaIndex.clear();
+						this.sortIndexes.values().forEach(Set::clear);
+						this.sortKeysById.clear();
+						this.snapshot.set(WidgetsSnapshot.EMPTY);
+						this.publish(widgets.values().stream().filter(Objects::nonNull).collect(Collectors.toList()));
+					} finally {
+						this.version.unlockWrite(stamp);
+					}
+					this.indexedWidgets = widgets;
+				}
+			}
+		}
+
+		return this;
+	}
+
+	/**
+	 * Add or replace the entries of a widget on the indexes.
+	 *
+	 * @param widget
+	 */
+	public void index(final Widget widget) {
+		this.indexAll(Collections.singletonList(widget));
+	}
+
+	/**
+	 * Add or replace the entries of the widgets written together, as the widgets
+	 * moved by a shift of the z queue, publishing a single version of the widgets
+	 * with all of them.
+	 *
+	 * @param widgets
+	 */
+	public void indexAll(final Collection<Widget> widgets) {
+
+		if (widgets.isEmpty()) {
+			return;
+		}
+
+		final long stamp = this.version.writeLock();
+		try {
+			this.publish(widgets);
+		} finally {
+			this.version.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Index the widgets and publish the version with them. The caller holds the
+	 * write stamp.
+	 *
+	 * @param widgets
+	 */
+	private void publish(final Collection<Widget> widgets) {
+
+		final List<Widget> frozen = new ArrayList<>(widgets.size());
+		for (final Widget widget : widgets) {
+			this.indexEntries(widget);
+			frozen.add(widget.clone());
+		}
+
+		this.snapshot.set(this.snapshot.get().withAll(frozen));
+	}
+
+	private void indexEntries(final Widget widget) {
+
+		final Long id = widget.getId();
+		final Long z = widget.getZ();
+
+		final Long previousZ = z == null ? this.zById.remove(id) : this.zById.put(id, z);
+
+		if (z != null) {
+			this.idsByZ.put(z, id);
+			this.maxZ.accumulateAndGet(z, Math::max);
+		}
+
+		if (previousZ != null && !previousZ.equals(z)) {
+			this.removeZ(previousZ, id);
+		}
+
+		this.indexArea(widget);
+		this.indexSortKeys(widget);
+	}
+
+	/**
+	 * Keep the rectangle covered by a widget on the spatial index. X and y are the
+	 * center of the widget, so the rectangle spreads half of the width and half of
+	 * the height around them.
+	 *
+	 * @param widget
+	 */
+	private void indexArea(final Widget widget) {
+
+		if (widget.getX() == null || widget.getY() == null || widget.getWidth() == null
+				|| widget.getHeight() == null) {
+			this.areaIndex.remove(widget.getId());
+			return;
+		}
+
+		final float left = widget.getX() - widget.getWidth() / 2;
+		final float right = widget.getX() + widget.getWidth() / 2;
+		final float bottom = widget.getY() - widget.getHeight() / 2;
+		final float top = widget.getY() + widget.getHeight() / 2;
+
+		this.areaIndex.put(widget.getId(), left, bottom, right, top);
+	}
+
+	/**
+	 * Move a widget on the sorted indexes whose attributes have changed.
+	 *
+	 * @param widget
+	 */
+	private void indexSortKeys(final Widget widget) {
+
+		final Long id = widget.getId();
+		final WidgetSortField[] fields = WidgetSortField.values();
+
+		final long[] keys = new long[fields.length];
+		for (final WidgetSortField field : fields) {
+			keys[field.ordinal()] = field.key(widget);
+		}
+
+		final long[] previousKeys = this.sortKeysById.put(id, keys);
+
+		for (final WidgetSortField field : fields) {
+			final int i = field.ordinal();
+			if (previousKeys == null || previousKeys[i] != keys[i]) {
+				final Set<SortKey> sortIndex = this.sortIndexes.get(field);
+				sortIndex.add(new SortKey(keys[i], id));
+				if (previousKeys != null) {
+					sortIndex.remove(new SortKey(previousKeys[i], id));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Remove the entries of a widget from the indexes.
+	 *
+	 * @param id
+	 */
+	public void remove(final Long id) {
+
+		final long stamp = this.version.writeLock();
+		try {
+			final Long previousZ = this.zById.remove(id);
+			if (previousZ != null) {
+				this.removeZ(previousZ, id);
+			}
+
+			this.areaIndex.remove(id);
+
+			final long[] previousKeys = this.sortKeysById.remove(id);
+			if (previousKeys != null) {
+				this.sortIndexes.forEach(
+						(field, sortIndex) -> sortIndex.remove(new SortKey(previousKeys[field.ordinal()], id)));
+			}
+
+			this.snapshot.set(this.snapshot.get().without(id));
+
+		} finally {
+			this.version.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Release a z position and, when it was the greatest one, fall back to the
+	 * next greatest position still indexed.
+	 *
+	 * @param z
+	 * @param id
+	 */
+	private void removeZ(final Long z, final Long id) {
+
+		if (this.idsByZ.remove(z, id) && this.maxZ.get() == z) {
+			final Map.Entry<Long, Long> last = this.idsByZ.lastEntry();
+			this.maxZ.compareAndSet(z, last == null ? Long.MIN_VALUE : last.getKey());
+		}
+	}
+
+	/**
+	 * Take the latest version of the widgets, for reads on the widgets alone.
+	 * Reads that find ids on the indexes go through {@link #read(Function)}.
+	 *
+	 * @return
+	 */
+	public WidgetsSnapshot snapshot() {
+		return this.snapshot.get();
+	}
+
+	/**
+	 * Run a read on the indexes and on the snapshot of the same version: the ids
+	 * the query finds on the indexes are all on the snapshot it is handed, with
+	 * the values they were indexed by. The query runs without locks and runs
+	 * again, holding a read stamp, when a write happened meanwhile, so it must
+	 * not have side effects.
+	 *
+	 * @param query
+	 * @return
+	 */
+	public <T> T read(final Function<WidgetsSnapshot, T> query) {
+
+		final long optimistic = this.version.tryOptimisticRead();
+		if (optimistic != 0) {
+			try {
+				final T result = query.apply(this.snapshot.get());
+				if (this.version.validate(optimistic)) {
+					return result;
+				}
+			} catch (final RuntimeException e) {
+				if (this.version.validate(optimistic)) {
+					throw e;
+				}
+			}
+		}
+
+		final long stamp = this.version.readLock();
+		try {
+			return query.apply(this.snapshot.get());
+		} finally {
+			this.version.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Find the id of the widget indexed on a z position.
+	 *
+	 * @param z
+	 * @return
+	 */
+	public Optional<Long> findIdByZ(final Long z) {
+
+		if (z == null) {
+			return Optional.empty();
+		}
+
+		return Optional.ofNullable(this.idsByZ.get(z));
+	}
+
+	/**
+	 * Find the greatest z indexed.
+	 *
+	 * @return
+	 */
+	public Optional<Long> findMaxZ() {
+
+		final long z = this.maxZ.get();
+		return z == Long.MIN_VALUE ? Optional.empty() : Optional.of(z);
+	}
+
+	/**
+	 * Find the ids of the widgets entirely inside an area through the spatial
+	 * index.
+	 *
+	 * @param lowerX Position x to determine lower boundary
+	 * @param lowerY Position y to determine lower boundary
+	 * @param upperX Position x to determine upper boundary
+	 * @param upperY Position y to determine upper boundary
+	 * @return
+	 */
+	public List<Long> findIdsInsideArea(final Long lowerX, final Long lowerY, final Long upperX, final Long upperY) {
+		return this.areaIndex.findInside(lowerX, lowerY, upperX, upperY);
+	}
+
+	/**
+	 * Navigable view of the z index starting on a z position, in ascending order.
+	 *
+	 * @param z
+	 * @return
+	 */
+	public NavigableMap<Long, Long> findFromZ(final Long z) {
+		return this.idsByZ.tailMap(z, true);
+	}
+
+	/**
+	 * Walk the sorted index of an attribute, skipping the first widgets, to find
+	 * the ids of one page. The sort must be on a single attribute, see
+	 * {@link WidgetSort#isSingleField()}.
+	 *
+	 * @param sort
+	 * @param offset
+	 * @param limit
+	 * @return
+	 */
+	public List<Long> findIdsSorted(final WidgetSort sort, final long offset, final int limit) {
+
+		final NavigableSet<SortKey> sortIndex = this.sortIndexes.get(sort.getField(0));
+
+		final NavigableSet<SortKey> sorted = sort.isAscending(0) ? sortIndex : sortIndex.descendingSet();
+
+		return this.collectIds(sorted.iterator(), offset, limit);
+	}
+
+	/**
+	 * Seek the position of a cursor on the sorted index of its attribute to find
+	 * the ids of the page after it, without walking the widgets before it. The
+	 * sort of the cursor must be on a single attribute.
+	 *
+	 * @param cursor
+	 * @param limit
+	 * @return
+	 */
+	public List<Long> findIdsSortedAfter(final WidgetCursor cursor, final int limit) {
+
+		final WidgetSort sort = cursor.getSort();
+		final NavigableSet<SortKey> sortIndex = this.sortIndexes.get(sort.getField(0));
+		final SortKey position = new SortKey(cursor.getKey(0), cursor.getId());
+
+		final NavigableSet<SortKey> after = sort.isAscending(0) ? sortIndex.tailSet(position, false)
+				: sortIndex.headSet(position, false).descendingSet();
+
+		return this.collectIds(after.iterator(), 0, limit);
+	}
+
+	private List<Long> collectIds(final Iterator<SortKey> iterator, final long offset, final int limit) {
+
+		final List<Long> ids = new ArrayList<>(limit);
+
+		for (long skipped = 0; skipped < offset && iterator.hasNext(); skipped++) {
+			iterator.next();
+		}
+
+		while (ids.size() < limit && iterator.hasNext()) {
+			ids.add(iterator.next().id);
+		}
+
+		return ids;
+	}
+
+	/**
+	 * Entry of a sorted index: the sort key of a widget and its id.
+	 */
+	private static final class SortKey implements Comparable<SortKey> {
+
+		private final long key;
+
+		private final long id;
+
+		private SortKey(final long key, final long id) {
+			this.key = key;
+			this.id = id;
+		}
+
+		@Override
+		public int compareTo(final SortKey other) {
+			final int compare = Long.compare(this.key, other.key);
+			return compare != 0 ? compare : Long.compare(this.id, other.id);
+		}
+
+	}
+
+}
@@ -0,0 +1,251 @@
+package com.danianepg.widget.services.inmemory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import com.danianepg.widget.entities.Widget;
+
+/**
+ * Immutable version of the widgets kept in memory, as a persistent trie keyed
+ * by id. Each node has 32 slots, indexed by 5 bits of the id, and the widgets
+ * are on the last level.
+ *
+ * Writes never change a snapshot: they copy only the nodes on the path to the
+ * widget, O(log32 n) arrays of 32 slots, and share every other node with the
+ * previous version. Readers holding a snapshot keep seeing the same widgets no
+ * matter how many writes happen after it was taken. A write on many widgets, as
+ * a shift of the z queue, is published as one version that copies each node on
+ * its paths once.
+ *
+ * The widgets on a snapshot must not be changed; they are copies taken when the
+ * snapshot was written.
+ *
+ * @author Daniane P. Gomes
+ *
+ */
+public final class WidgetsSnapshot {
+
+	private static final int BITS = 5;
+
+	private static final int WIDTH = 1 << BITS;
+
+	private static final int MASK = WIDTH - 1;
+
+	public static final WidgetsSnapshot EMPTY = new WidgetsSnapshot(new Object[WIDTH], 0, 0, 0L);
+
+	private final Object[] root;
+
+	/**
+	 * Bits of the id consumed below the root; zero when the root holds widgets.
+	 */
+	private final int shift;
+
+	private final int size;
+
+	private final long version;
+
+	private WidgetsSnapshot(final Object[] root, final int shift, final int size, final long version) {
+		this.root = root;
+		this.shift = shift;
+		this.size = size;
+		this.version = version;
+	}
+
+	/**
+	 * Find a widget by id.
+	 *
+	 * @param id
+	 * @return the widget, or null when it is not on this version
+	 */
+	public Widget get(final long id) {
+
+		if (!this.covers(id, this.shift)) {
+			return null;
+		}
+
+		Object[] node = this.root;
+		for (int level = this.shift; level > 0; level -= BITS) {
+			node = (Object[]) node[this.slot(id, level)];
+			if (node == null) {
+				return null;
+			}
+		}
+
+		return (Widget) node[this.slot(id, 0)];
+	}
+
+	/**
+	 * New version with a widget added or replaced.
+	 *
+	 * @param widget
+	 * @return
+	 */
+	public WidgetsSnapshot with(final Widget widget) {
+		return this.withAll(Collections.singletonList(widget));
+	}
+
+	/**
+	 * New version with several widgets added or replaced at once. Nodes shared by
+	 * the paths to the widgets are copied once, and the nodes copied are filled in
+	 * place until the version is returned.
+	 *
+	 * @param widgets
+	 * @return this version when no widget is informed
+	 */
+	public WidgetsSnapshot withAll(final Collection<Widget> widgets) {
+
+		if (widgets.isEmpty()) {
+			return this;
+		}
+
+		final Set<Object[]> copied = Collections.newSetFromMap(new IdentityHashMap<>());
+		final boolean[] added = new boolean[1];
+
+		Object[] root = this.root;
+		int shift = this.shift;
+		int size = this.size;
+
+		for (final Widget widget : widgets) {
+
+			final long id = widget.getId();
+			while (!this.covers(id, shift)) {
+				final Object[] parent = new Object[WIDTH];
+				parent[0] = root;
+				copied.add(parent);
+				root = parent;
+				shift += BITS;
+			}
+
+			added[0] = false;
+			root = this.put(root, shift, id, widget, added, copied);
+			if (added[0]) {
+				size++;
+			}
+		}
+
+		return new WidgetsSnapshot(root, shift, size, this.version + 1);
+	}
+
+	/**
+	 * New version without a widget.
+	 *
+	 * @param id
+	 * @return this version when the widget is not on it
+	 */
+	public WidgetsSnapshot without(final long id) {
+
+		if (this.get(id) == null) {
+			return this;
+		}
+
+		return new WidgetsSnapshot(this.remove(this.root, this.shift, id), this.shift, this.size - 1,
+				this.version + 1);
+	}
+
+	/**
+	 * Visit every widget, by ascending id.
+	 *
+	 * @param action
+	 */
+	public void forEach(final Consumer<Widget> action) {
+		this.forEach(this.root, this.shift, action);
+	}
+
+	/**
+	 * List the widgets of this version, by ascending id.
+	 *
+	 * @return
+	 */
+	public List<Widget> values() {
+		final List<Widget> widgets = new ArrayList<>(this.size);
+		this.forEach(widgets::add);
+		return widgets;
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Number of versions published before this one.
+	 *
+	 * @return
+	 */
+	public long getVersion() {
+		return this.version;
+	}
+
+	private boolean covers(final long id, final int shift) {
+		return shift + BITS >= Long.SIZE || (id >>> (shift + BITS)) == 0;
+	}
+
+	private int slot(final long id, final int shift) {
+		return (int) ((id >>> shift) & MASK);
+	}
+
+	/**
+	 * Copy the path to a widget with it, reusing the nodes already copied by the
+	 * same write.
+	 */
+	private Object[] put(final Object[] node, final int shift, final long id, final Widget widget,
+			final boolean[] added, final Set<Object[]> copied) {
+
+		Object[] copy = node;
+		if (node == null || !copied.contains(node)) {
+			copy = node == null ? new Object[WIDTH] : node.clone();
+			copied.add(copy);
+		}
+
+		final int slot = this.slot(id, shift);
+
+		if (shift == 0) {
+			added[0] = copy[slot] == null;
+			copy[slot] = widget;
+		} else {
+			copy[slot] = this.put((Object[]) copy[slot], shift - BITS, id, widget, added, copied);
+		}
+
+		return copy;
+	}
+
+	/**
+	 * Copy the path to a widget known to be on the trie without it, releasing the
+	 * nodes left empty.
+	 */
+	private Object[] remove(final Object[] node, final int shift, final long id) {
+
+		final Object[] copy = node.clone();
+		final int slot = this.slot(id, shift);
+
+		copy[slot] = shift == 0 ? null : this.remove((Object[]) copy[slot], shift - BITS, id);
+
+		for (final Object child : copy) {
+			if (child != null) {
+				return copy;
+			}
+		}
+
+		return shift == this.shift ? copy : null;
+	}
+
+	private void forEach(final Object[] node, final int shift, final Consumer<Widget> action) {
+
+		for (final Object child : node) {
+			if (child == null) {
+				continue;
+			}
+
+			if (shift == 0) {
+				action.accept((Widget) child);
+			} else {
+				this.forEach((Object[]) child, shift - BITS, action);
+			}
+		}
+	}
+
+}
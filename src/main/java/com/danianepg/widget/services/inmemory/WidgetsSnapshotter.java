@@ -0,0 +1,293 @@
+package com.danianepg.widget.services.inmemory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.danianepg.widget.entities.Widget;
+
+/**
+ * Compact binary snapshots of the in-memory widgets, so a restart restores the
+ * latest snapshot and replays only the tail of the
+ * {@link WidgetsWriteAheadLog} written after it, instead of the whole history
+ * of writes.
+ *
+ * A snapshot is written from a {@link WidgetsSnapshot}, which writers never
+ * change, so it is taken without blocking them. It is written to a temporary
+ * file, forced to the disk and then moved over the previous snapshot, so the
+ * latest complete snapshot is always on the file. The file holds a header with
+ * the number of widgets and the id counter, the widgets as the fixed-width
+ * records of the log, and a CRC32 of everything before it. A snapshot of
+ * records of another version of the log is refused. It is read back through
+ * memory-mapped regions.
+ *
+ * Disabled while <code>widget.snapshot.file</code> is empty.
+ *
+ * @author Daniane P. Gomes
+ *
+ */
+@Service
+public class WidgetsSnapshotter {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(WidgetsSnapshotter.class);
+
+	private static final long MAGIC = 0x5749444745545332L;
+
+	/**
+	 * Magic number, record size, version of the records, number of widgets and id
+	 * counter.
+	 */
+	private static final int HEADER_SIZE = 32;
+
+	/**
+	 * Widgets read on each mapped region.
+	 */
+	private static final int REGION_WIDGETS = 1 << 16;
+
+	private final Path file;
+
+	private final long intervalMs;
+
+	private ScheduledExecutorService scheduler;
+
+	/**
+	 * What a snapshot holds besides the widgets.
+	 */
+	public static final class Header {
+
+		private final long size;
+
+		private final long latestId;
+
+		Header(final long size, final long latestId) {
+			this.size = size;
+			this.latestId = latestId;
+		}
+
+		public long getSize() {
+			return this.size;
+		}
+
+		public long getLatestId() {
+			return this.latestId;
+		}
+
+	}
+
+	// @formatter:off
+	@Autowired
+	public WidgetsSnapshotter(
+			@Value("${widget.snapshot.file:}") final String file,
+			@Value("${widget.snapshot.interval-ms:60000}") final long intervalMs) {
+	// @formatter:on
+		this(file == null || file.trim().isEmpty() ? null : Paths.get(file.trim()), intervalMs);
+	}
+
+	public WidgetsSnapshotter(final Path file, final long intervalMs) {
+
+		if (intervalMs < 1) {
+			throw new IllegalArgumentException("The interval must be positive");
+		}
+
+		this.file = file;
+		this.intervalMs = intervalMs;
+	}
+
+	public boolean isEnabled() {
+		return this.file != null;
+	}
+
+	public Path getFile() {
+		return this.file;
+	}
+
+	/**
+	 * Run a checkpoint on a background thread on a fixed interval, until the
+	 * application stops.
+	 *
+	 * @param checkpoint Takes a snapshot through {@link #write(WidgetsSnapshot, long)}
+	 */
+	public synchronized void schedule(final Runnable checkpoint) {
+
+		if (!this.isEnabled() || this.scheduler != null) {
+			return;
+		}
+
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			final Thread thread = new Thread(runnable, "widget-snapshotter");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		this.scheduler.scheduleWithFixedDelay(() -> {
+			try {
+				checkpoint.run();
+			} catch (final RuntimeException e) {
+				LOGGER.error("Unable to take a snapshot on {}", this.file, e);
+			}
+		}, this.intervalMs, this.intervalMs, TimeUnit.MILLISECONDS);
+	}
+
+	@PreDestroy
+	public synchronized void stop() {
+
+		if (this.scheduler != null) {
+			this.scheduler.shutdownNow();
+			this.scheduler = null;
+		}
+	}
+
+	/**
+	 * Write a snapshot of the widgets, replacing the previous one once complete.
+	 *
+	 * @param widgets
+	 * @param latestId Latest id given to a widget
+	 */
+	public void write(final WidgetsSnapshot widgets, final long latestId) {
+
+		if (!this.isEnabled()) {
+			return;
+		}
+
+		final Path written = this.file.resolveSibling(this.file.getFileName() + ".tmp");
+
+		try (FileChannel channel = FileChannel.open(written, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+
+			final ByteBuffer buffer = ByteBuffer.allocate(REGION_WIDGETS / 16 * WidgetsWriteAheadLog.WIDGET_SIZE);
+			final CRC32 crc = new CRC32();
+
+			// @formatter:off
+			buffer.putLong(MAGIC)
+					.putInt(WidgetsWriteAheadLog.WIDGET_SIZE)
+					.putInt(WidgetsWriteAheadLog.VERSION)
+					.putLong(widgets.size())
+					.putLong(latestId);
+			// @formatter:on
+
+			widgets.forEach(widget -> {
+				if (buffer.remaining() < WidgetsWriteAheadLog.WIDGET_SIZE) {
+					this.drain(buffer, channel, crc);
+				}
+				WidgetsWriteAheadLog.writeWidget(buffer, widget);
+			});
+
+			this.drain(buffer, channel, crc);
+			buffer.putInt((int) crc.getValue()).flip();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+
+			channel.force(true);
+
+		} catch (final IOException e) {
+			throw new UncheckedIOException("Unable to write " + written, e);
+		}
+
+		try {
+			Files.move(written, this.file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (final IOException e) {
+			throw new UncheckedIOException("Unable to replace " + this.file, e);
+		}
+	}
+
+	/**
+	 * Read the latest snapshot, handing each widget to put. Nothing is handed over
+	 * unless the whole snapshot passes its check.
+	 *
+	 * @param put
+	 * @return The header of the snapshot, empty when there is no snapshot yet
+	 * @throws IllegalStateException when the file is not a complete snapshot
+	 */
+	public Optional<Header> restore(final Consumer<Widget> put) {
+
+		if (!this.isEnabled() || !Files.exists(this.file)) {
+			return Optional.empty();
+		}
+
+		try (FileChannel channel = FileChannel.open(this.file, StandardOpenOption.READ)) {
+
+			final long size = channel.size();
+			if (size < HEADER_SIZE + Integer.BYTES) {
+				throw new IllegalStateException("Not a snapshot of widgets: " + this.file);
+			}
+
+			final MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+			final long widgets = header.getLong(16);
+
+			if (header.getLong(0) != MAGIC || header.getInt(8) != WidgetsWriteAheadLog.WIDGET_SIZE
+					|| header.getInt(12) != WidgetsWriteAheadLog.VERSION
+					|| size != HEADER_SIZE + widgets * WidgetsWriteAheadLog.WIDGET_SIZE + Integer.BYTES) {
+				throw new IllegalStateException("Not a snapshot of widgets: " + this.file);
+			}
+
+			final CRC32 crc = new CRC32();
+			crc.update(header.duplicate());
+			this.readWidgets(channel, widgets, region -> crc.update(region));
+
+			final ByteBuffer check = channel.map(FileChannel.MapMode.READ_ONLY, size - Integer.BYTES, Integer.BYTES);
+			if ((int) crc.getValue() != check.getInt(0)) {
+				throw new IllegalStateException("Snapshot of widgets failed its check: " + this.file);
+			}
+
+			this.readWidgets(channel, widgets, region -> {
+				while (region.hasRemaining()) {
+					put.accept(WidgetsWriteAheadLog.readWidget(region));
+				}
+			});
+
+			return Optional.of(new Header(widgets, header.getLong(24)));
+
+		} catch (final IOException e) {
+			throw new UncheckedIOException("Unable to read " + this.file, e);
+		}
+	}
+
+	private void readWidgets(final FileChannel channel, final long widgets, final Consumer<ByteBuffer> reader)
+			throws IOException {
+
+		for (long first = 0; first < widgets; first += REGION_WIDGETS) {
+			final long count = Math.min(REGION_WIDGETS, widgets - first);
+			reader.accept(channel.map(FileChannel.MapMode.READ_ONLY,
+					HEADER_SIZE + first * WidgetsWriteAheadLog.WIDGET_SIZE, count * WidgetsWriteAheadLog.WIDGET_SIZE));
+		}
+	}
+
+	private void drain(final ByteBuffer buffer, final FileChannel channel, final CRC32 crc) {
+
+		buffer.flip();
+		crc.update(buffer.duplicate());
+
+		try {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		buffer.clear();
+	}
+
+}
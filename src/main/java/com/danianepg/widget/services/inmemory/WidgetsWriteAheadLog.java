@@ -0,0 +1,673 @@
+package com.danianepg.widget.services.inmemory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.zip.CRC32;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.danianepg.widget.entities.Widget;
+
+/**
+ * Append-only log of the writes on the in-memory storage, so the widgets
+ * survive a restart. Every widget saved or moved is appended with all its
+ * attributes and every deletion with its id; replaying the log from the start
+ * rebuilds the storage, whatever the order the writes were applied in for
+ * different widgets.
+ *
+ * Records are appended to a buffer shared by all the writers and reach the
+ * file on group commits: the writer that commits first writes everything
+ * appended so far, so writers arriving while a commit runs are carried by the
+ * next one together. The sync policy tells when the file is forced to the disk:
+ * <ul>
+ * <li><code>always</code>: a commit returns once its records are on the disk;</li>
+ * <li><code>batch</code>: a commit returns once its records are written to the
+ * file, and the disk is forced every batch of records;</li>
+ * <li><code>interval</code>: a commit returns once its records are written to
+ * the file, and the disk is forced on a fixed interval.</li>
+ * </ul>
+ * Records written to the file survive the process in every policy; the policy
+ * only bounds what a crash of the machine can lose.
+ *
+ * The log starts with a magic number and the version of its format, and a log
+ * of another version is refused instead of replayed. Each record is its length,
+ * its type, its payload and a CRC32 of type and payload; a widget is written
+ * field by field, as {@link #writeWidget(ByteBuffer, Widget)} lays it out. A
+ * record torn by a crash fails its check and is cut off the log on the next
+ * replay. Once the widgets are kept on a snapshot by
+ * {@link WidgetsSnapshotter}, the records before it are
+ * {@link #truncate(long) truncated}. Disabled while <code>widget.wal.file</code>
+ * is empty.
+ *
+ * @author Daniane P. Gomes
+ *
+ */
+@Service
+public class WidgetsWriteAheadLog implements Closeable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(WidgetsWriteAheadLog.class);
+
+	public enum SyncPolicy {
+		ALWAYS, BATCH, INTERVAL;
+
+		public static SyncPolicy of(final String name) {
+			return valueOf(name.trim().toUpperCase(Locale.ROOT));
+		}
+	}
+
+	private static final long MAGIC = 0x5749444745545741L;
+
+	/**
+	 * Version of the layout of the records, raised on every change to it.
+	 */
+	static final int VERSION = 1;
+
+	/**
+	 * Magic number and version at the start of the log.
+	 */
+	private static final int FILE_HEADER_SIZE = Long.BYTES + Integer.BYTES;
+
+	static final byte PUT = 1;
+
+	static final byte DELETE = 2;
+
+	/**
+	 * Payload of a widget: a byte flagging its null attributes, its id, x, y and
+	 * z, its width and height and its last modification as seconds and nanos.
+	 */
+	static final int WIDGET_SIZE = 1 + 4 * Long.BYTES + 2 * Float.BYTES + Long.BYTES + Integer.BYTES;
+
+	private static final int HEADER_SIZE = Integer.BYTES + 1;
+
+	private static final int MAX_RECORD_SIZE = HEADER_SIZE + WIDGET_SIZE + Integer.BYTES;
+
+	private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+	private final Path file;
+
+	private final SyncPolicy syncPolicy;
+
+	private final int batchSize;
+
+	private final long intervalMs;
+
+	private FileChannel channel;
+
+	private ScheduledExecutorService syncer;
+
+	private final Object appendLock = new Object();
+
+	/**
+	 * Records appended and not written yet, guarded by the append lock. Swapped
+	 * with {@link #writing} on each commit.
+	 */
+	private ByteBuffer appending = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+	private ByteBuffer writing = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+	private final CRC32 crc = new CRC32();
+
+	/**
+	 * Position of the log after the last record appended.
+	 */
+	private long appended;
+
+	private long appendedRecords;
+
+	/**
+	 * Positions of the log already written to the file and forced to the disk.
+	 */
+	private volatile long written;
+
+	private volatile long synced;
+
+	private volatile long syncedRecords;
+
+	/**
+	 * Position of the first record on the file, raised as the log is
+	 * {@link #truncate(long) truncated}; positions never go back, so commits
+	 * waiting across a truncation still find their records.
+	 */
+	private long base;
+
+	private final ReentrantLock commitLock = new ReentrantLock();
+
+	// @formatter:off
+	@Autowired
+	public WidgetsWriteAheadLog(
+			@Value("${widget.wal.file:}") final String file,
+			@Value("${widget.wal.sync:always}") final String syncPolicy,
+			@Value("${widget.wal.batch-size:64}") final int batchSize,
+			@Value("${widget.wal.interval-ms:100}") final long intervalMs) {
+	// @formatter:on
+		this(file == null || file.trim().isEmpty() ? null : Paths.get(file.trim()), SyncPolicy.of(syncPolicy),
+				batchSize, intervalMs);
+	}
+
+	public WidgetsWriteAheadLog(final Path file, final SyncPolicy syncPolicy, final int batchSize,
+			final long intervalMs) {
+
+		if (batchSize < 1 || intervalMs < 1) {
+			throw new IllegalArgumentException("The batch size and the interval must be positive");
+		}
+
+		this.file = file;
+		this.syncPolicy = syncPolicy;
+		this.batchSize = batchSize;
+		this.intervalMs = intervalMs;
+	}
+
+	public boolean isEnabled() {
+		return this.file != null;
+	}
+
+	public Path getFile() {
+		return this.file;
+	}
+
+	/**
+	 * Open the log, creating it with its header when it does not exist. Records
+	 * are appended after the end of the log, cut to its last complete record once
+	 * it is {@link #replay(Consumer, LongConsumer) replayed}.
+	 *
+	 * @throws IOException
+	 */
+	@PostConstruct
+	public void open() throws IOException {
+
+		if (!this.isEnabled() || this.channel != null) {
+			return;
+		}
+
+		this.channel = FileChannel.open(this.file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+
+		// a header shorter than its size was torn while the log was created
+		if (this.channel.size() < FILE_HEADER_SIZE) {
+			this.channel.truncate(0);
+			this.writeFileHeader(this.channel);
+			this.channel.force(false);
+		}
+
+		this.channel.position(this.channel.size());
+		this.startFrom(this.channel.size());
+
+		if (this.syncPolicy == SyncPolicy.INTERVAL) {
+			this.syncer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				final Thread thread = new Thread(runnable, "widget-wal-sync");
+				thread.setDaemon(true);
+				return thread;
+			});
+			this.syncer.scheduleWithFixedDelay(this::syncAppended, this.intervalMs, this.intervalMs,
+					TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Read the log from the start, handing each widget saved to put and each id
+	 * deleted to delete. The log is cut on the first record that is incomplete or
+	 * fails its check, and the next records are appended from there.
+	 *
+	 * @param put
+	 * @param delete
+	 * @return Number of records replayed
+	 * @throws IllegalStateException when the file is not a log of this version
+	 */
+	public long replay(final Consumer<Widget> put, final LongConsumer delete) {
+
+		if (!this.isEnabled()) {
+			return 0;
+		}
+
+		this.commitLock.lock();
+		try {
+			final long size = this.channel.size();
+			final ByteBuffer record = ByteBuffer.allocate(MAX_RECORD_SIZE);
+			final CRC32 check = new CRC32();
+
+			record.clear().limit(FILE_HEADER_SIZE);
+			this.readFully(record, 0);
+			if (record.getLong(0) != MAGIC) {
+				throw new IllegalStateException("Not a write-ahead log of widgets: " + this.file);
+			}
+			if (record.getInt(Long.BYTES) != VERSION) {
+				throw new IllegalStateException("Unknown version " + record.getInt(Long.BYTES)
+						+ " of the write-ahead log " + this.file + ", expected " + VERSION);
+			}
+
+			long position = FILE_HEADER_SIZE;
+			long records = 0;
+
+			while (position + HEADER_SIZE <= size) {
+
+				record.clear().limit(HEADER_SIZE);
+				this.readFully(record, position);
+				final int length = record.getInt(0);
+				final byte type = record.get(Integer.BYTES);
+
+				if (length < HEADER_SIZE + Integer.BYTES || length > MAX_RECORD_SIZE || position + length > size) {
+					break;
+				}
+
+				record.limit(length);
+				this.readFully(record, position);
+
+				check.reset();
+				check.update(record.array(), Integer.BYTES, length - 2 * Integer.BYTES);
+				if ((int) check.getValue() != record.getInt(length - Integer.BYTES)) {
+					break;
+				}
+
+				record.position(HEADER_SIZE);
+				if (type == PUT) {
+					put.accept(readWidget(record));
+				} else if (type == DELETE) {
+					delete.accept(record.getLong());
+				} else {
+					// passed its check, so written by another version rather than torn
+					throw new IllegalStateException(
+							"Unknown record type " + type + " at " + position + " of " + this.file);
+				}
+
+				position += length;
+				records++;
+			}
+
+			if (position < size) {
+				LOGGER.warn("Cutting {} bytes of incomplete records off the end of {}", size - position, this.file);
+				this.channel.truncate(position);
+				this.channel.force(false);
+			}
+
+			this.channel.position(position);
+			this.startFrom(position);
+
+			return records;
+
+		} catch (final IOException e) {
+			throw new UncheckedIOException("Unable to replay " + this.file, e);
+		} finally {
+			this.commitLock.unlock();
+		}
+	}
+
+	/**
+	 * Append a widget saved or moved.
+	 *
+	 * @param widget
+	 * @return Position to {@link #commit(long)} for the widget to be logged
+	 */
+	public long append(final Widget widget) {
+
+		if (!this.isEnabled()) {
+			return 0;
+		}
+
+		synchronized (this.appendLock) {
+			final ByteBuffer buffer = this.reserve(HEADER_SIZE + WIDGET_SIZE + Integer.BYTES);
+			final int start = buffer.position();
+			buffer.putInt(HEADER_SIZE + WIDGET_SIZE + Integer.BYTES).put(PUT);
+			writeWidget(buffer, widget);
+			return this.seal(buffer, start);
+		}
+	}
+
+	/**
+	 * Append a widget deleted.
+	 *
+	 * @param id
+	 * @return Position to {@link #commit(long)} for the deletion to be logged
+	 */
+	public long appendDelete(final long id) {
+
+		if (!this.isEnabled()) {
+			return 0;
+		}
+
+		synchronized (this.appendLock) {
+			final ByteBuffer buffer = this.reserve(HEADER_SIZE + Long.BYTES + Integer.BYTES);
+			final int start = buffer.position();
+			buffer.putInt(HEADER_SIZE + Long.BYTES + Integer.BYTES).put(DELETE).putLong(id);
+			return this.seal(buffer, start);
+		}
+	}
+
+	/**
+	 * Position after the last record appended. Every write applied before it is
+	 * read is logged before it.
+	 *
+	 * @return
+	 */
+	public long position() {
+		synchronized (this.appendLock) {
+			return this.appended;
+		}
+	}
+
+	/**
+	 * Drop the records before a position, once the writes they log are kept
+	 * elsewhere, e.g. on a snapshot of the widgets. The records after it are
+	 * copied to a new log that atomically replaces the current one; writers keep
+	 * appending during the copy and only their commits wait for it.
+	 *
+	 * @param position Read by {@link #position()}
+	 */
+	public void truncate(final long position) {
+
+		if (!this.isEnabled()) {
+			return;
+		}
+
+		this.commitLock.lock();
+		try {
+			this.writeAppended(true);
+
+			final long from = position - this.base;
+			if (from <= FILE_HEADER_SIZE) {
+				return;
+			}
+
+			final long size = this.channel.size();
+			final Path tail = this.file.resolveSibling(this.file.getFileName() + ".tmp");
+
+			try (FileChannel copy = FileChannel.open(tail, StandardOpenOption.CREATE,
+					StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+				this.writeFileHeader(copy);
+				long copied = from;
+				while (copied < size) {
+					copied += this.channel.transferTo(copied, size - copied, copy);
+				}
+				copy.force(false);
+			}
+
+			Files.move(tail, this.file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+			this.channel.close();
+			this.channel = FileChannel.open(this.file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			this.channel.position(this.channel.size());
+			this.base = position - FILE_HEADER_SIZE;
+
+		} catch (final IOException e) {
+			throw new UncheckedIOException("Unable to truncate " + this.file, e);
+		} finally {
+			this.commitLock.unlock();
+		}
+	}
+
+	/**
+	 * Make the records appended up to a position as durable as the sync policy
+	 * asks, committing along every record appended before them.
+	 *
+	 * @param position Returned by the last append of the caller
+	 */
+	public void commit(final long position) {
+
+		if (!this.isEnabled() || position <= 0) {
+			return;
+		}
+
+		switch (this.syncPolicy) {
+		case ALWAYS:
+			this.flush(position, true);
+			break;
+		case BATCH:
+			this.flush(position, false);
+			if (this.appendedRecords() - this.syncedRecords >= this.batchSize) {
+				this.flush(position, true);
+			}
+			break;
+		default:
+			this.flush(position, false);
+		}
+	}
+
+	/**
+	 * Write and force every record appended, then release the file.
+	 */
+	@PreDestroy
+	@Override
+	public void close() throws IOException {
+
+		if (this.channel == null) {
+			return;
+		}
+
+		if (this.syncer != null) {
+			this.syncer.shutdownNow();
+		}
+
+		this.syncAppended();
+		this.channel.close();
+		this.channel = null;
+	}
+
+	private void syncAppended() {
+
+		final long position;
+		synchronized (this.appendLock) {
+			position = this.appended;
+		}
+
+		try {
+			this.flush(position, true);
+		} catch (final RuntimeException e) {
+			LOGGER.error("Unable to sync {}", this.file, e);
+		}
+	}
+
+	/**
+	 * Group commit: the first writer to get the lock writes every record appended
+	 * so far, and the writers waiting for it find their records already written.
+	 */
+	private void flush(final long position, final boolean force) {
+
+		if (this.isDone(position, force)) {
+			return;
+		}
+
+		this.commitLock.lock();
+		try {
+			if (!this.isDone(position, force)) {
+				this.writeAppended(force);
+			}
+		} catch (final IOException e) {
+			throw new UncheckedIOException("Unable to write to " + this.file, e);
+		} finally {
+			this.commitLock.unlock();
+		}
+	}
+
+	/**
+	 * Write every record appended so far to the file. Called holding the commit
+	 * lock.
+	 */
+	private void writeAppended(final boolean force) throws IOException {
+
+		final long upTo;
+		final long records;
+		synchronized (this.appendLock) {
+			final ByteBuffer filled = this.appending;
+			this.appending = this.writing;
+			this.writing = filled;
+			upTo = this.appended;
+			records = this.appendedRecords;
+		}
+
+		this.writing.flip();
+		while (this.writing.hasRemaining()) {
+			this.channel.write(this.writing);
+		}
+		this.writing.clear();
+		this.written = upTo;
+
+		if (force) {
+			this.channel.force(false);
+			this.synced = upTo;
+			this.syncedRecords = records;
+		}
+	}
+
+	private boolean isDone(final long position, final boolean force) {
+		return force ? this.synced >= position : this.written >= position;
+	}
+
+	private long appendedRecords() {
+		synchronized (this.appendLock) {
+			return this.appendedRecords;
+		}
+	}
+
+	private void startFrom(final long position) {
+		synchronized (this.appendLock) {
+			this.base = 0;
+			this.appending.clear();
+			this.writing.clear();
+			this.appended = position;
+			this.appendedRecords = 0;
+			this.written = position;
+			this.synced = position;
+			this.syncedRecords = 0;
+		}
+	}
+
+	/**
+	 * The buffer being appended to, grown to fit a record.
+	 */
+	private ByteBuffer reserve(final int length) {
+
+		if (this.appending.remaining() < length) {
+			final ByteBuffer grown = ByteBuffer.allocate(Math.max(this.appending.capacity() * 2, length));
+			this.appending.flip();
+			grown.put(this.appending);
+			this.appending = grown;
+		}
+
+		return this.appending;
+	}
+
+	/**
+	 * Close the record started on start with its check.
+	 */
+	private long seal(final ByteBuffer buffer, final int start) {
+
+		this.crc.reset();
+		this.crc.update(buffer.array(), start + Integer.BYTES, buffer.position() - start - Integer.BYTES);
+		buffer.putInt((int) this.crc.getValue());
+
+		this.appended += buffer.position() - start;
+		this.appendedRecords++;
+
+		return this.appended;
+	}
+
+	private void writeFileHeader(final FileChannel channel) throws IOException {
+
+		final ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE).putLong(MAGIC).putInt(VERSION);
+		header.flip();
+		while (header.hasRemaining()) {
+			channel.write(header);
+		}
+	}
+
+	private void readFully(final ByteBuffer buffer, final long position) throws IOException {
+
+		long offset = position + buffer.position();
+		while (buffer.hasRemaining()) {
+			final int read = this.channel.read(buffer, offset);
+			if (read < 0) {
+				throw new IOException("Unexpected end of " + this.file);
+			}
+			offset += read;
+		}
+	}
+
+	/**
+	 * Write a widget as its fixed-width payload, independent of any other class:
+	 * changing it means raising {@link #VERSION}.
+	 */
+	static void writeWidget(final ByteBuffer buffer, final Widget widget) {
+
+		final LocalDateTime lastModification = widget.getLastModification();
+
+		// @formatter:off
+		final int nulls = nullFlag(widget.getId(), 0)
+				| nullFlag(widget.getX(), 1)
+				| nullFlag(widget.getY(), 2)
+				| nullFlag(widget.getZ(), 3)
+				| nullFlag(widget.getWidth(), 4)
+				| nullFlag(widget.getHeight(), 5)
+				| nullFlag(lastModification, 6);
+
+		buffer.put((byte) nulls)
+				.putLong(orZero(widget.getId()))
+				.putLong(orZero(widget.getX()))
+				.putLong(orZero(widget.getY()))
+				.putLong(orZero(widget.getZ()))
+				.putFloat(widget.getWidth() == null ? 0f : widget.getWidth())
+				.putFloat(widget.getHeight() == null ? 0f : widget.getHeight())
+				.putLong(lastModification == null ? 0L : lastModification.toEpochSecond(ZoneOffset.UTC))
+				.putInt(lastModification == null ? 0 : lastModification.getNano());
+		// @formatter:on
+	}
+
+	static Widget readWidget(final ByteBuffer buffer) {
+
+		final byte nulls = buffer.get();
+		final long id = buffer.getLong();
+		final long x = buffer.getLong();
+		final long y = buffer.getLong();
+		final long z = buffer.getLong();
+		final float width = buffer.getFloat();
+		final float height = buffer.getFloat();
+		final long seconds = buffer.getLong();
+		final int nanos = buffer.getInt();
+
+		// @formatter:off
+		return new Widget(
+				isNull(nulls, 0) ? null : id,
+				isNull(nulls, 1) ? null : x,
+				isNull(nulls, 2) ? null : y,
+				isNull(nulls, 3) ? null : z,
+				isNull(nulls, 4) ? null : width,
+				isNull(nulls, 5) ? null : height,
+				isNull(nulls, 6) ? null : LocalDateTime.ofEpochSecond(seconds, nanos, ZoneOffset.UTC));
+		// @formatter:on
+	}
+
+	private static int nullFlag(final Object value, final int field) {
+		return value == null ? 1 << field : 0;
+	}
+
+	private static long orZero(final Long value) {
+		return value == null ? 0L : value;
+	}
+
+	private static boolean isNull(final byte nulls, final int field) {
+		return (nulls & 1 << field) != 0;
+	}
+
+}
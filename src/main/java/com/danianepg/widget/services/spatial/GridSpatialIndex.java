@@ -0,0 +1,182 @@
+package com.danianepg.widget.services.spatial;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * {@link SpatialIndex} as a uniform grid. A widget is kept on the cell that
+ * holds the lower corner of its rectangle: a widget can only be inside an area
+ * when that corner is inside it too, so a query only visits the cells covered by
+ * the area and every widget is found once.
+ *
+ * Cells are created on demand, thus the plan does not need to be bounded. The
+ * size of the cells is defined by <code>widget.spatial-index.grid.cell-size</code>
+ * and should be close to the size of the typical widget.
+ *
+ * @author Daniane P. Gomes
+ *
+ */
+@Component
+@ConditionalOnProperty(name = SpatialIndex.PROPERTY, havingValue = "grid")
+public class GridSpatialIndex implements SpatialIndex {
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	private final float cellSize;
+
+	private final Map<Long, float[]> rectangles = new HashMap<>();
+
+	private final Map<Long, Set<Long>> cells = new HashMap<>();
+
+	public GridSpatialIndex(@Value("${widget.spatial-index.grid.cell-size:100}") final float cellSize) {
+		this.cellSize = cellSize;
+	}
+
+	@Override
+	public void put(final long id, final float minX, final float minY, final float maxX, final float maxY) {
+
+		this.lock.writeLock().lock();
+		try {
+			final float[] previous = this.rectangles.put(id, new float[] { minX, minY, maxX, maxY });
+			final long cell = this.cellOf(minX, minY);
+
+			if (previous != null) {
+				final long previousCell = this.cellOf(previous[0], previous[1]);
+				if (previousCell == cell) {
+					return;
+				}
+				this.removeFromCell(previousCell, id);
+			}
+
+			this.cells.computeIfAbsent(cell, key -> new HashSet<>()).add(id);
+		} finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void remove(final long id) {
+
+		this.lock.writeLock().lock();
+		try {
+			final float[] previous = this.rectangles.remove(id);
+			if (previous != null) {
+				this.removeFromCell(this.cellOf(previous[0], previous[1]), id);
+			}
+		} finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void clear() {
+
+		this.lock.writeLock().lock();
+		try {
+			this.rectangles.clear();
+			this.cells.clear();
+		} finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public int size() {
+
+		this.lock.readLock().lock();
+		try {
+			return this.rectangles.size();
+		} finally {
+			this.lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Visit the cells covered by the area, or every occupied cell when the area
+	 * covers more cells than there are occupied.
+	 */
+	@Override
+	public List<Long> findInside(final float minX, final float minY, final float maxX, final float maxY) {
+
+		final List<Long> ids = new ArrayList<>();
+
+		final long firstColumn = this.coordinate(minX);
+		final long lastColumn = this.coordinate(maxX);
+		final long firstRow = this.coordinate(minY);
+		final long lastRow = this.coordinate(maxY);
+
+		if (firstColumn > lastColumn || firstRow > lastRow) {
+			return ids;
+		}
+
+		this.lock.readLock().lock();
+		try {
+			final double coveredCells = (double) (lastColumn - firstColumn + 1) * (lastRow - firstRow + 1);
+
+			if (coveredCells > this.cells.size()) {
+				this.cells.forEach((cell, cellIds) -> {
+					final long column = cell >> 32;
+					final long row = (int) (long) cell;
+					if (column >= firstColumn && column <= lastColumn && row >= firstRow && row <= lastRow) {
+						this.collectInside(cellIds, minX, minY, maxX, maxY, ids);
+					}
+				});
+			} else {
+				for (long column = firstColumn; column <= lastColumn; column++) {
+					for (long row = firstRow; row <= lastRow; row++) {
+						final Set<Long> cellIds = this.cells.get(this.key(column, row));
+						if (cellIds != null) {
+							this.collectInside(cellIds, minX, minY, maxX, maxY, ids);
+						}
+					}
+				}
+			}
+		} finally {
+			this.lock.readLock().unlock();
+		}
+
+		return ids;
+	}
+
+	private void collectInside(final Set<Long> cellIds, final float minX, final float minY, final float maxX,
+			final float maxY, final List<Long> ids) {
+
+		for (final Long id : cellIds) {
+			final float[] r = this.rectangles.get(id);
+			if (r[0] >= minX && r[1] >= minY && r[2] <= maxX && r[3] <= maxY) {
+				ids.add(id);
+			}
+		}
+	}
+
+	private void removeFromCell(final long cell, final long id) {
+
+		final Set<Long> cellIds = this.cells.get(cell);
+		if (cellIds != null && cellIds.remove(id) && cellIds.isEmpty()) {
+			this.cells.remove(cell);
+		}
+	}
+
+	private long cellOf(final float x, final float y) {
+		return this.key(this.coordinate(x), this.coordinate(y));
+	}
+
+	private long coordinate(final float value) {
+		return (int) Math.floor(value / this.cellSize);
+	}
+
+	private long key(final long column, final long row) {
+		return (column << 32) | (row & 0xffffffffL);
+	}
+
+}
@@ -0,0 +1,259 @@
+package com.danianepg.widget.services.spatial;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * {@link SpatialIndex} as a loose quadtree. The bounds of each node are twice
+ * as large as its quadrant, so a widget is kept on the deepest node whose
+ * quadrant holds its center and whose size is not smaller than the widget,
+ * without ever being split across nodes. Nodes are only created where there
+ * are widgets, so clustered boards get deep trees where they are crowded and
+ * shallow ones elsewhere.
+ *
+ * Widgets centered outside the area covered by the root are kept on the root.
+ *
+ * @author Daniane P. Gomes
+ *
+ */
+@Component
+@ConditionalOnProperty(name = SpatialIndex.PROPERTY, havingValue = "quadtree")
+public class LooseQuadtreeSpatialIndex implements SpatialIndex {
+
+	private static final float ROOT_HALF_SIZE = 1 << 30;
+
+	private static final int MAX_DEPTH = 24;
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	private final Map<Long, Entry> entries = new HashMap<>();
+
+	private Node root = new Node(null, 0, 0f, 0f, ROOT_HALF_SIZE);
+
+	@Override
+	public void put(final long id, final float minX, final float minY, final float maxX, final float maxY) {
+
+		this.lock.writeLock().lock();
+		try {
+			final Entry previous = this.entries.remove(id);
+			if (previous != null) {
+				this.detach(id, previous.node);
+			}
+
+			final float centerX = (minX + maxX) / 2;
+			final float centerY = (minY + maxY) / 2;
+			final float extent = Math.max(maxX - minX, maxY - minY) / 2;
+
+			Node node = this.root;
+			node.count++;
+
+			for (int depth = 0; depth < MAX_DEPTH; depth++) {
+				final float childHalfSize = node.halfSize / 2;
+
+				if (extent > childHalfSize || Math.abs(centerX - node.centerX) > node.halfSize
+						|| Math.abs(centerY - node.centerY) > node.halfSize) {
+					break;
+				}
+
+				node = node.child(centerX, centerY);
+				node.count++;
+			}
+
+			if (node.ids == null) {
+				node.ids = new HashSet<>();
+			}
+			node.ids.add(id);
+			this.entries.put(id, new Entry(new float[] { minX, minY, maxX, maxY }, node));
+		} finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void remove(final long id) {
+
+		this.lock.writeLock().lock();
+		try {
+			final Entry previous = this.entries.remove(id);
+			if (previous != null) {
+				this.detach(id, previous.node);
+			}
+		} finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void clear() {
+
+		this.lock.writeLock().lock();
+		try {
+			this.entries.clear();
+			this.root = new Node(null, 0, 0f, 0f, ROOT_HALF_SIZE);
+		} finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public int size() {
+
+		this.lock.readLock().lock();
+		try {
+			return this.entries.size();
+		} finally {
+			this.lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public List<Long> findInside(final float minX, final float minY, final float maxX, final float maxY) {
+
+		final List<Long> ids = new ArrayList<>();
+
+		this.lock.readLock().lock();
+		try {
+			final Deque<Node> nodes = new ArrayDeque<>();
+			nodes.push(this.root);
+
+			while (!nodes.isEmpty()) {
+				final Node node = nodes.pop();
+				final boolean isRoot = node == this.root;
+
+				if (!isRoot && !node.looseIntersects(minX, minY, maxX, maxY)) {
+					continue;
+				}
+
+				if (node.ids != null) {
+					final boolean allInside = !isRoot && node.looseInside(minX, minY, maxX, maxY);
+					for (final Long id : node.ids) {
+						final float[] r = this.entries.get(id).rectangle;
+						if (allInside || (r[0] >= minX && r[1] >= minY && r[2] <= maxX && r[3] <= maxY)) {
+							ids.add(id);
+						}
+					}
+				}
+
+				if (node.children != null) {
+					for (final Node child : node.children) {
+						if (child != null) {
+							nodes.push(child);
+						}
+					}
+				}
+			}
+		} finally {
+			this.lock.readLock().unlock();
+		}
+
+		return ids;
+	}
+
+	/**
+	 * Remove an id from its node and release the nodes left without widgets.
+	 */
+	private void detach(final long id, final Node node) {
+
+		node.ids.remove(id);
+
+		Node current = node;
+		while (current != null) {
+			current.count--;
+
+			final Node parent = current.parent;
+			if (parent != null && current.count == 0) {
+				parent.children[current.quadrant] = null;
+			}
+			current = parent;
+		}
+	}
+
+	private static final class Entry {
+
+		private final float[] rectangle;
+
+		private final Node node;
+
+		private Entry(final float[] rectangle, final Node node) {
+			this.rectangle = rectangle;
+			this.node = node;
+		}
+
+	}
+
+	private static final class Node {
+
+		private final Node parent;
+
+		private final int quadrant;
+
+		private final float centerX;
+
+		private final float centerY;
+
+		private final float halfSize;
+
+		private Node[] children;
+
+		private Set<Long> ids;
+
+		/**
+		 * Number of widgets kept on this node and on its descendants.
+		 */
+		private int count;
+
+		private Node(final Node parent, final int quadrant, final float centerX, final float centerY,
+				final float halfSize) {
+			this.parent = parent;
+			this.quadrant = quadrant;
+			this.centerX = centerX;
+			this.centerY = centerY;
+			this.halfSize = halfSize;
+		}
+
+		private Node child(final float x, final float y) {
+
+			if (this.children == null) {
+				this.children = new Node[4];
+			}
+
+			final int index = (x >= this.centerX ? 1 : 0) | (y >= this.centerY ? 2 : 0);
+			if (this.children[index] == null) {
+				final float childHalfSize = this.halfSize / 2;
+				final float childX = this.centerX + ((index & 1) == 1 ? childHalfSize : -childHalfSize);
+				final float childY = this.centerY + ((index & 2) == 2 ? childHalfSize : -childHalfSize);
+				this.children[index] = new Node(this, index, childX, childY, childHalfSize);
+			}
+
+			return this.children[index];
+		}
+
+		/**
+		 * Loose bounds stretch the quadrant by half of its size on every side.
+		 */
+		private boolean looseIntersects(final float minX, final float minY, final float maxX, final float maxY) {
+			final float looseHalfSize = this.halfSize * 2;
+			return this.centerX - looseHalfSize <= maxX && this.centerX + looseHalfSize >= minX
+					&& this.centerY - looseHalfSize <= maxY && this.centerY + looseHalfSize >= minY;
+		}
+
+		private boolean looseInside(final float minX, final float minY, final float maxX, final float maxY) {
+			final float looseHalfSize = this.halfSize * 2;
+			return this.centerX - looseHalfSize >= minX && this.centerX + looseHalfSize <= maxX
+					&& this.centerY - looseHalfSize >= minY && this.centerY + looseHalfSize <= maxY;
+		}
+
+	}
+
+}
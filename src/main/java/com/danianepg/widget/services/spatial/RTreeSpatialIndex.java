@@ -0,0 +1,428 @@
+package com.danianepg.widget.services.spatial;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * {@link SpatialIndex} as an R-tree over the rectangles covered by the widgets
+ * on the plan, following Guttman's insertion and deletion algorithms with
+ * quadratic split. It is maintained incrementally, so queries only visit the
+ * nodes that intersect the requested area and their cost depends on the number
+ * of widgets found rather than on the number of widgets stored.
+ *
+ * Reads share a lock and writes are exclusive.
+ *
+ * @author Daniane P. Gomes
+ *
+ */
+@Component
+@ConditionalOnProperty(name = SpatialIndex.PROPERTY, havingValue = "rtree", matchIfMissing = true)
+public class RTreeSpatialIndex implements SpatialIndex {
+
+	private static final int MAX_ENTRIES = 16;
+
+	private static final int MIN_ENTRIES = 6;
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	private final Map<Long, Entry> entries = new HashMap<>();
+
+	private Node root = new Node(true);
+
+	@Override
+	public void put(final long id, final float minX, final float minY, final float maxX, final float maxY) {
+
+		this.lock.writeLock().lock();
+		try {
+			final Entry existing = this.entries.get(id);
+			if (existing != null) {
+				if (existing.hasBounds(minX, minY, maxX, maxY)) {
+					return;
+				}
+				this.delete(existing);
+			}
+
+			final Entry entry = new Entry(id, minX, minY, maxX, maxY);
+			this.entries.put(id, entry);
+			this.insert(entry);
+		} finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void remove(final long id) {
+
+		this.lock.writeLock().lock();
+		try {
+			final Entry entry = this.entries.get(id);
+			if (entry != null) {
+				this.delete(entry);
+			}
+		} finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void clear() {
+
+		this.lock.writeLock().lock();
+		try {
+			this.entries.clear();
+			this.root = new Node(true);
+		} finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public int size() {
+
+		this.lock.readLock().lock();
+		try {
+			return this.entries.size();
+		} finally {
+			this.lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public List<Long> findInside(final float minX, final float minY, final float maxX, final float maxY) {
+
+		final List<Long> ids = new ArrayList<>();
+
+		this.lock.readLock().lock();
+		try {
+			final Deque<Node> nodes = new ArrayDeque<>();
+			nodes.push(this.root);
+
+			while (!nodes.isEmpty()) {
+				final Node node = nodes.pop();
+
+				if (node.isEmpty() || !node.intersects(minX, minY, maxX, maxY)) {
+					continue;
+				}
+
+				final boolean allInside = node.isInside(minX, minY, maxX, maxY);
+
+				for (final Bounds child : node.children) {
+					if (node.leaf) {
+						if (allInside || child.isInside(minX, minY, maxX, maxY)) {
+							ids.add(((Entry) child).id);
+						}
+					} else {
+						nodes.push((Node) child);
+					}
+				}
+			}
+		} finally {
+			this.lock.readLock().unlock();
+		}
+
+		return ids;
+	}
+
+	private void insert(final Entry entry) {
+
+		final Node leaf = this.chooseLeaf(entry);
+		leaf.add(entry);
+		this.adjustTree(leaf);
+	}
+
+	/**
+	 * Descend from the root choosing the child that needs the least enlargement
+	 * to cover the new entry.
+	 */
+	private Node chooseLeaf(final Bounds bounds) {
+
+		Node node = this.root;
+
+		while (!node.leaf) {
+			Node best = (Node) node.children.get(0);
+			float bestEnlargement = Float.MAX_VALUE;
+			float bestArea = Float.MAX_VALUE;
+
+			for (final Bounds child : node.children) {
+				final float area = child.area();
+				final float enlargement = child.unionArea(bounds) - area;
+
+				if (enlargement < bestEnlargement || (enlargement == bestEnlargement && area < bestArea)) {
+					best = (Node) child;
+					bestEnlargement = enlargement;
+					bestArea = area;
+				}
+			}
+
+			node = best;
+		}
+
+		return node;
+	}
+
+	/**
+	 * Walk up from a changed node splitting overflowing nodes and refreshing the
+	 * bounds of the ancestors.
+	 */
+	private void adjustTree(final Node changed) {
+
+		Node node = changed;
+
+		while (node != null) {
+			Node sibling = null;
+			if (node.children.size() > MAX_ENTRIES) {
+				sibling = this.split(node);
+			} else {
+				node.refreshBounds();
+			}
+
+			if (node == this.root) {
+				if (sibling != null) {
+					final Node newRoot = new Node(false);
+					newRoot.add(node);
+					newRoot.add(sibling);
+					this.root = newRoot;
+				}
+				return;
+			}
+
+			final Node parent = node.parent;
+			if (sibling != null) {
+				parent.add(sibling);
+			}
+			node = parent;
+		}
+	}
+
+	/**
+	 * Quadratic split: the two children that would waste the most area together
+	 * seed the groups, the remaining ones go to the group they enlarge the least.
+	 */
+	private Node split(final Node node) {
+
+		final List<Bounds> remaining = new ArrayList<>(node.children);
+		node.children.clear();
+
+		int seedA = 0;
+		int seedB = 1;
+		float worstWaste = -Float.MAX_VALUE;
+		for (int i = 0; i < remaining.size(); i++) {
+			for (int j = i + 1; j < remaining.size(); j++) {
+				final Bounds a = remaining.get(i);
+				final Bounds b = remaining.get(j);
+				final float waste = a.unionArea(b) - a.area() - b.area();
+				if (waste > worstWaste) {
+					worstWaste = waste;
+					seedA = i;
+					seedB = j;
+				}
+			}
+		}
+
+		final Node sibling = new Node(node.leaf);
+		final Bounds first = remaining.get(seedA);
+		final Bounds second = remaining.get(seedB);
+		remaining.remove(seedB);
+		remaining.remove(seedA);
+		node.add(first);
+		sibling.add(second);
+
+		while (!remaining.isEmpty()) {
+
+			if (node.children.size() + remaining.size() == MIN_ENTRIES) {
+				remaining.forEach(node::add);
+				break;
+			}
+			if (sibling.children.size() + remaining.size() == MIN_ENTRIES) {
+				remaining.forEach(sibling::add);
+				break;
+			}
+
+			int next = 0;
+			float greatestPreference = -1;
+			for (int i = 0; i < remaining.size(); i++) {
+				final Bounds candidate = remaining.get(i);
+				final float preference = Math.abs((node.unionArea(candidate) - node.area())
+						- (sibling.unionArea(candidate) - sibling.area()));
+				if (preference > greatestPreference) {
+					greatestPreference = preference;
+					next = i;
+				}
+			}
+
+			final Bounds candidate = remaining.remove(next);
+			final float enlargementNode = node.unionArea(candidate) - node.area();
+			final float enlargementSibling = sibling.unionArea(candidate) - sibling.area();
+
+			if (enlargementNode < enlargementSibling
+					|| (enlargementNode == enlargementSibling && node.children.size() <= sibling.children.size())) {
+				node.add(candidate);
+			} else {
+				sibling.add(candidate);
+			}
+		}
+
+		return sibling;
+	}
+
+	/**
+	 * Remove an entry and condense the tree, dissolving the nodes left under the
+	 * minimum fill and inserting their entries again.
+	 */
+	private void delete(final Entry entry) {
+
+		this.entries.remove(entry.id);
+
+		Node node = entry.parent;
+		node.children.remove(entry);
+		entry.parent = null;
+
+		final List<Entry> orphans = new ArrayList<>();
+
+		while (node != this.root) {
+			final Node parent = node.parent;
+
+			if (node.children.size() < MIN_ENTRIES) {
+				parent.children.remove(node);
+				node.parent = null;
+				node.collectEntries(orphans);
+			} else {
+				node.refreshBounds();
+			}
+
+			node = parent;
+		}
+
+		this.root.refreshBounds();
+		while (!this.root.leaf && this.root.children.size() == 1) {
+			this.root = (Node) this.root.children.get(0);
+			this.root.parent = null;
+		}
+		if (!this.root.leaf && this.root.children.isEmpty()) {
+			this.root = new Node(true);
+		}
+
+		orphans.forEach(this::insert);
+	}
+
+	/**
+	 * Axis aligned rectangle shared by the entries and the nodes of the tree.
+	 */
+	private abstract static class Bounds {
+
+		protected float minX;
+		protected float minY;
+		protected float maxX;
+		protected float maxY;
+
+		protected Node parent;
+
+		float area() {
+			return (this.maxX - this.minX) * (this.maxY - this.minY);
+		}
+
+		float unionArea(final Bounds other) {
+			return (Math.max(this.maxX, other.maxX) - Math.min(this.minX, other.minX))
+					* (Math.max(this.maxY, other.maxY) - Math.min(this.minY, other.minY));
+		}
+
+		boolean intersects(final float minX, final float minY, final float maxX, final float maxY) {
+			return this.minX <= maxX && this.maxX >= minX && this.minY <= maxY && this.maxY >= minY;
+		}
+
+		boolean isInside(final float minX, final float minY, final float maxX, final float maxY) {
+			return this.minX >= minX && this.minY >= minY && this.maxX <= maxX && this.maxY <= maxY;
+		}
+
+	}
+
+	private static final class Entry extends Bounds {
+
+		private final long id;
+
+		private Entry(final long id, final float minX, final float minY, final float maxX, final float maxY) {
+			this.id = id;
+			this.minX = minX;
+			this.minY = minY;
+			this.maxX = maxX;
+			this.maxY = maxY;
+		}
+
+		private boolean hasBounds(final float minX, final float minY, final float maxX, final float maxY) {
+			return this.minX == minX && this.minY == minY && this.maxX == maxX && this.maxY == maxY;
+		}
+
+	}
+
+	private static final class Node extends Bounds {
+
+		private final boolean leaf;
+
+		private final List<Bounds> children = new ArrayList<>(MAX_ENTRIES + 1);
+
+		private Node(final boolean leaf) {
+			this.leaf = leaf;
+		}
+
+		private boolean isEmpty() {
+			return this.children.isEmpty();
+		}
+
+		private void add(final Bounds child) {
+
+			if (this.children.isEmpty()) {
+				this.minX = child.minX;
+				this.minY = child.minY;
+				this.maxX = child.maxX;
+				this.maxY = child.maxY;
+			} else {
+				this.include(child);
+			}
+
+			this.children.add(child);
+			child.parent = this;
+		}
+
+		private void include(final Bounds child) {
+			this.minX = Math.min(this.minX, child.minX);
+			this.minY = Math.min(this.minY, child.minY);
+			this.maxX = Math.max(this.maxX, child.maxX);
+			this.maxY = Math.max(this.maxY, child.maxY);
+		}
+
+		private void refreshBounds() {
+
+			if (this.children.isEmpty()) {
+				return;
+			}
+
+			final Bounds first = this.children.get(0);
+			this.minX = first.minX;
+			this.minY = first.minY;
+			this.maxX = first.maxX;
+			this.maxY = first.maxY;
+			this.children.forEach(this::include);
+		}
+
+		private void collectEntries(final List<Entry> collected) {
+			for (final Bounds child : this.children) {
+				if (this.leaf) {
+					collected.add((Entry) child);
+				} else {
+					((Node) child).collectEntries(collected);
+				}
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,60 @@
+package com.danianepg.widget.services.spatial;
+
+import java.util.List;
+
+/**
+ * Spatial index over the rectangles covered by the widgets, used by the
+ * in-memory storage to filter widgets by area. The implementation is chosen by
+ * the property <code>widget.spatial-index</code>:
+ * <ul>
+ * <li><code>rtree</code> (default): {@link RTreeSpatialIndex}, balanced for any
+ * distribution of widgets.</li>
+ * <li><code>grid</code>: {@link GridSpatialIndex}, cheapest to maintain when
+ * widgets are uniformly scattered.</li>
+ * <li><code>quadtree</code>: {@link LooseQuadtreeSpatialIndex}, adapts its
+ * depth to heavily clustered boards.</li>
+ * </ul>
+ *
+ * Implementations must be safe for concurrent use.
+ *
+ * @author Daniane P. Gomes
+ *
+ */
+public interface SpatialIndex {
+
+	String PROPERTY = "widget.spatial-index";
+
+	/**
+	 * Add or move the rectangle covered by a widget.
+	 *
+	 * @param id
+	 * @param minX
+	 * @param minY
+	 * @param maxX
+	 * @param maxY
+	 */
+	void put(final long id, final float minX, final float minY, final float maxX, final float maxY);
+
+	/**
+	 * Remove the rectangle of a widget, if indexed.
+	 *
+	 * @param id
+	 */
+	void remove(final long id);
+
+	void clear();
+
+	int size();
+
+	/**
+	 * Find the ids of the widgets whose rectangles are entirely inside an area.
+	 *
+	 * @param minX
+	 * @param minY
+	 * @param maxX
+	 * @param maxY
+	 * @return
+	 */
+	List<Long> findInside(final float minX, final float minY, final float maxX, final float maxY);
+
+}
@@ -1,7 +1,8 @@
-INSERT INTO widget(x, y, z, width, height) VALUES(2,1,1,10,10);
-INSERT INTO widget(x, y, z, width, height) VALUES(1,2,6,10,10);
-INSERT INTO widget(x, y, z, width, height) VALUES(1,2,7,10,10);
-INSERT INTO widget(x, y, z, width, height) VALUES(1,2,10,10,10);
-INSERT INTO widget(x, y, z, width, height) VALUES(50,50,11,100,100);
-INSERT INTO widget(x, y, z, width, height) VALUES(50,100,12,100,100);
-INSERT INTO widget(x, y, z, width, height) VALUES(100,150,13,100,100);
\ No newline at end of file
+INSERT INTO widget(id, x, y, z, width, height) VALUES(1,2,1,1,10,10);
+INSERT INTO widget(id, x, y, z, width, height) VALUES(2,1,2,6,10,10);
+INSERT INTO widget(id, x, y, z, width, height) VALUES(3,1,2,7,10,10);
+INSERT INTO widget(id, x, y, z, width, height) VALUES(4,1,2,10,10,10);
+INSERT INTO widget(id, x, y, z, width, height) VALUES(5,50,50,11,100,100);
+INSERT INTO widget(id, x, y, z, width, height) VALUES(6,50,100,12,100,100);
+INSERT INTO widget(id, x, y, z, width, height) VALUES(7,100,150,13,100,100);
+ALTER SEQUENCE widget_seq RESTART WITH 8;
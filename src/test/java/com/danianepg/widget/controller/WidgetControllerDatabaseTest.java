@@ -11,15 +11,20 @@ import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
+import java.net.URI;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Sort;
 import org.springframework.hateoas.EntityModel;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.ActiveProfiles;
@@ -30,6 +35,7 @@ import org.springframework.test.web.servlet.ResultActions;
 
 import com.danianepg.widget.entities.Widget;
 import com.danianepg.widget.repositories.WidgetDatabaseRepository;
+import com.danianepg.widget.services.WidgetBatch;
 import com.danianepg.widget.util.WidgetMock;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
@@ -73,6 +79,23 @@ public class WidgetControllerDatabaseTest {
 		result.andExpect(status().isNotFound());
 	}
 
+	@Test
+	public void cacheStats_ok() throws Exception {
+
+		this.mockMvc.perform(get(this.PATH + "/" + 2L));
+		this.mockMvc.perform(get(this.PATH + "/" + 2L));
+
+		// @formatter:off
+		this.mockMvc.perform(get(this.PATH + "/cache"))
+			.andExpect(status().isOk())
+			.andExpect(jsonPath("capacity").value(10000))
+			.andExpect(jsonPath("hits").isNumber())
+			.andExpect(jsonPath("misses").isNumber())
+			.andExpect(jsonPath("evictions").isNumber())
+			.andExpect(jsonPath("hitRate").isNumber());
+		// @formatter:on
+	}
+
 	@Test
 	public void create_ok() throws Exception {
 
@@ -309,4 +332,146 @@ public class WidgetControllerDatabaseTest {
 		resultFilterByArea.andExpect(status().isOk()).andExpect(jsonPath("_embedded").doesNotExist());
 
 	}
+
+	@Test
+	public void create_shiftContiguousQueue() throws Exception {
+
+		final List<Widget> widgets = new ArrayList<>();
+		widgets.add(new Widget(1L, 1L, 1001L, 10f, 10f));
+		widgets.add(new Widget(2L, 2L, 1002L, 10f, 10f));
+		widgets.add(new Widget(4L, 4L, 1004L, 10f, 10f));
+		widgets.add(new Widget(9L, 9L, 1001L, 10f, 10f));
+
+		for (final Widget w : widgets) {
+			final String json = this.mapper.writeValueAsString(w);
+			this.mockMvc.perform(post(this.PATH).contentType(MediaType.APPLICATION_JSON).content(json));
+		}
+
+		assertThat(this.widgetRepository.findByZ(1001L).map(Widget::getX)).contains(9L);
+		assertThat(this.widgetRepository.findByZ(1002L).map(Widget::getX)).contains(1L);
+		assertThat(this.widgetRepository.findByZ(1003L).map(Widget::getX)).contains(2L);
+		assertThat(this.widgetRepository.findByZ(1004L).map(Widget::getX)).contains(4L);
+
+	}
+
+	@Test
+	public void export_ok() throws Exception {
+
+		final ResultActions result = this.mockMvc.perform(get(this.PATH + "export"));
+		result.andExpect(status().isOk());
+
+		final String[] lines = result.andReturn().getResponse().getContentAsString().split("\n");
+		assertThat(lines).hasSize((int) this.widgetRepository.count());
+
+		long previousZ = Long.MIN_VALUE;
+		for (final String line : lines) {
+			final long z = this.mapper.readTree(line).get("z").asLong();
+			assertThat(z).isGreaterThan(previousZ);
+			previousZ = z;
+		}
+
+	}
+
+	@Test
+	public void bulk_shiftContiguousQueueOnce() throws Exception {
+
+		for (final Widget w : Arrays.asList(new Widget(1L, 1L, 6001L, 10f, 10f), new Widget(2L, 2L, 6002L, 10f, 10f),
+				new Widget(4L, 4L, 6004L, 10f, 10f))) {
+			final String json = this.mapper.writeValueAsString(w);
+			this.mockMvc.perform(post(this.PATH).contentType(MediaType.APPLICATION_JSON).content(json));
+		}
+
+		final WidgetBatch batch = new WidgetBatch(
+				Arrays.asList(new Widget(9L, 9L, 6001L, 10f, 10f), new Widget(8L, 8L, 6003L, 10f, 10f)), null);
+
+		this.mockMvc.perform(
+				post(this.PATH + "bulk").contentType(MediaType.APPLICATION_JSON).content(this.mapper.writeValueAsString(batch)))
+				.andExpect(status().isOk()).andExpect(jsonPath("_embedded.widgets.length()").value(2));
+
+		assertThat(this.widgetRepository.findByZ(6001L).map(Widget::getX)).contains(9L);
+		assertThat(this.widgetRepository.findByZ(6002L).map(Widget::getX)).contains(1L);
+		assertThat(this.widgetRepository.findByZ(6003L).map(Widget::getX)).contains(8L);
+		assertThat(this.widgetRepository.findByZ(6004L).map(Widget::getX)).contains(2L);
+		assertThat(this.widgetRepository.findByZ(6005L).map(Widget::getX)).contains(4L);
+
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	@Test
+	public void filterWidget_walkWithCursor() throws Exception {
+
+		for (long x = 5001; x <= 5012; x++) {
+			final String json = this.mapper.writeValueAsString(new Widget(x, 5000L, x - 3000, 10f, 10f));
+			this.mockMvc.perform(post(this.PATH).contentType(MediaType.APPLICATION_JSON).content(json));
+		}
+
+		final List<Long> xs = new ArrayList<>();
+		int pages = 0;
+
+		// @formatter:off
+		ResultActions result = this.mockMvc.perform(get(this.PATH + "/filter")
+				.param("lowerX", "4900")
+				.param("lowerY", "4900")
+				.param("upperX", "5100")
+				.param("upperY", "5100")
+				.param("size", "5")
+				.param("sort", "x,desc"));
+		// @formatter:on
+
+		while (true) {
+			result.andExpect(status().isOk()).andExpect(jsonPath("page.totalElements", is(12)));
+			pages++;
+
+			final Map page = this.mapper.readValue(result.andReturn().getResponse().getContentAsString(), Map.class);
+			final List<Map> embedded = (List<Map>) ((Map) page.get("_embedded")).get("widgets");
+			embedded.forEach(w -> xs.add(((Number) w.get("x")).longValue()));
+
+			final Map next = (Map) ((Map) page.get("_links")).get("next");
+			if (next == null) {
+				break;
+			}
+			result = this.mockMvc.perform(get(URI.create((String) next.get("href"))));
+		}
+
+		assertThat(pages).isEqualTo(3);
+		assertThat(xs).containsExactlyElementsOf(
+				LongStream.rangeClosed(5001, 5012).map(x -> 10013 - x).boxed().collect(Collectors.toList()));
+
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	@Test
+	public void findAll_walkWithCursorSortedBySeveralFields() throws Exception {
+
+		for (long x = 1; x <= 6; x++) {
+			final String json = this.mapper.writeValueAsString(new Widget(x % 3, 7000L + x % 2, 3000 + x, 10f, 10f));
+			this.mockMvc.perform(post(this.PATH).contentType(MediaType.APPLICATION_JSON).content(json));
+		}
+
+		final List<Long> ids = new ArrayList<>();
+
+		ResultActions result = this.mockMvc
+				.perform(get(this.PATH).param("size", "4").param("sort", "y,asc").param("sort", "x,desc"));
+		while (true) {
+			result.andExpect(status().isOk());
+
+			final Map page = this.mapper.readValue(result.andReturn().getResponse().getContentAsString(), Map.class);
+			final List<Map> embedded = (List<Map>) ((Map) page.get("_embedded")).get("widgets");
+			embedded.forEach(w -> ids.add(((Number) w.get("id")).longValue()));
+
+			final Map next = (Map) ((Map) page.get("_links")).get("next");
+			if (next == null) {
+				break;
+			}
+			result = this.mockMvc.perform(get(URI.create((String) next.get("href"))));
+		}
+
+		final List<Long> expected = new ArrayList<>();
+		this.widgetRepository.findAll(Sort.by(Sort.Order.asc("y"), Sort.Order.desc("x"), Sort.Order.desc("id")))
+				.forEach(w -> expected.add(w.getId()));
+
+		assertThat(ids).containsExactlyElementsOf(expected);
+
+	}
+
 }
@@ -2,18 +2,26 @@ package com.danianepg.widget.controller;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
 import static org.junit.Assert.fail;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
+import java.net.URI;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -21,14 +29,18 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.hateoas.EntityModel;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.context.web.WebAppConfiguration;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.ResultActions;
 
+import com.danianepg.widget.controllers.WidgetController;
 import com.danianepg.widget.entities.Widget;
+import com.danianepg.widget.services.WidgetBatch;
 import com.danianepg.widget.services.inmemory.WidgetsInMemoryStorageService;
 import com.danianepg.widget.util.WidgetMock;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -78,6 +90,55 @@ public class WidgetControllerInMemoryTest {
 
 	}
 
+	@Test
+	public void findById_notModified() throws Exception {
+
+		final Widget widget = WidgetMock.getWidget();
+		final String saved = this.mockMvc
+				.perform(post(this.PATH).contentType(MediaType.APPLICATION_JSON)
+						.content(this.mapper.writeValueAsString(widget)))
+				.andReturn().getResponse().getContentAsString();
+		final long id = this.mapper.readTree(saved).get("id").asLong();
+
+		// no Last-Modified yet: the second of the write may not be over
+		final String etag = this.mockMvc.perform(get(this.PATH + id)).andExpect(status().isOk()).andReturn()
+				.getResponse().getHeader(HttpHeaders.ETAG);
+		assertThat(etag).isNotEmpty();
+
+		this.mockMvc.perform(get(this.PATH + id).header(HttpHeaders.IF_NONE_MATCH, etag))
+				.andExpect(status().isNotModified()).andExpect(content().string(""));
+
+		final Widget changed = new Widget(id, widget.getX(), widget.getY(), widget.getZ(), widget.getWidth() + 1,
+				widget.getHeight());
+		this.mockMvc.perform(put(this.PATH + id).contentType(MediaType.APPLICATION_JSON)
+				.content(this.mapper.writeValueAsString(changed)));
+
+		this.mockMvc.perform(get(this.PATH + id).header(HttpHeaders.IF_NONE_MATCH, etag))
+				.andExpect(status().isOk()).andExpect(header().string(HttpHeaders.ETAG, not(etag)));
+
+	}
+
+	@Test
+	public void findAll_notModifiedUntilAWrite() throws Exception {
+
+		final String etag = this.mockMvc.perform(get(this.PATH).param("size", "5")).andExpect(status().isOk())
+				.andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+		this.mockMvc.perform(get(this.PATH).param("size", "5").header(HttpHeaders.IF_NONE_MATCH, etag))
+				.andExpect(status().isNotModified());
+
+		// another page is another resource
+		this.mockMvc.perform(get(this.PATH).param("size", "6").header(HttpHeaders.IF_NONE_MATCH, etag))
+				.andExpect(status().isOk());
+
+		final String json = this.mapper.writeValueAsString(WidgetMock.getWidget());
+		this.mockMvc.perform(post(this.PATH).contentType(MediaType.APPLICATION_JSON).content(json));
+
+		this.mockMvc.perform(get(this.PATH).param("size", "5").header(HttpHeaders.IF_NONE_MATCH, etag))
+				.andExpect(status().isOk());
+
+	}
+
 	@Test
 	public void findById_notFound() throws Exception {
 		final long id = 100L;
@@ -98,6 +159,66 @@ public class WidgetControllerInMemoryTest {
 
 	}
 
+	@Test
+	public void bulk_ok() throws Exception {
+
+		final Widget first = WidgetMock.getWidget();
+		first.setZ(null);
+		final Widget second = WidgetMock.getWidget();
+		second.setZ(null);
+
+		final String json = this.mapper.writeValueAsString(new WidgetBatch(Arrays.asList(first, second), null));
+
+		final ResultActions result = this.mockMvc
+				.perform(post(this.PATH + "bulk").contentType(MediaType.APPLICATION_JSON).content(json))
+				.andDo(print());
+
+		// @formatter:off
+		result.andExpect(status().isOk())
+			.andExpect(jsonPath("_embedded.widgets.length()").value(2))
+			.andExpect(jsonPath("_embedded.widgets[0].id").isNotEmpty())
+			.andExpect(jsonPath("_links.widgets.href", is(BASE_PATH + this.PATH)));
+		// @formatter:on
+
+	}
+
+	@Test
+	public void bulk_failWhenAttributesAreNull() throws Exception {
+
+		final String json = this.mapper
+				.writeValueAsString(new WidgetBatch(Arrays.asList(WidgetMock.getWidget(), new Widget()), null));
+
+		final ResultActions result = this.mockMvc
+				.perform(post(this.PATH + "bulk").contentType(MediaType.APPLICATION_JSON).content(json))
+				.andDo(print());
+
+		result.andExpect(status().isBadRequest());
+
+	}
+
+	@Test
+	public void export_ok() throws Exception {
+
+		this.widgetsInMemoryStorageService.deleteAll();
+
+		for (final long z : new long[] { 3, 1, 2 }) {
+			final String json = this.mapper.writeValueAsString(new Widget(z, z, z, 10f, 10f));
+			this.mockMvc.perform(post(this.PATH).contentType(MediaType.APPLICATION_JSON).content(json));
+		}
+
+		final ResultActions result = this.mockMvc.perform(get(this.PATH + "export"));
+		result.andExpect(status().isOk())
+				.andExpect(content().contentTypeCompatibleWith(WidgetController.APPLICATION_NDJSON));
+
+		final String[] lines = result.andReturn().getResponse().getContentAsString().split("\n");
+
+		assertThat(lines).hasSize(3);
+		for (int i = 0; i < lines.length; i++) {
+			assertThat(this.mapper.readTree(lines[i]).get("z").asLong()).isEqualTo(i + 1);
+		}
+
+	}
+
 	@Test
 	public void create_failWhenAttributesAreNull() throws Exception {
 
@@ -319,4 +440,124 @@ public class WidgetControllerInMemoryTest {
 		resultFilterByArea.andExpect(status().isOk()).andExpect(jsonPath("_embedded").doesNotExist());
 
 	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	@Test
+	public void findAll_walkWithCursor() throws Exception {
+
+		this.widgetsInMemoryStorageService.deleteAll();
+
+		for (long z = 1; z <= 25; z++) {
+			final String json = this.mapper.writeValueAsString(new Widget(z, z, z, 10f, 10f));
+			this.mockMvc.perform(post(this.PATH).contentType(MediaType.APPLICATION_JSON).content(json));
+		}
+
+		final List<Long> zs = new ArrayList<>();
+		int pages = 0;
+
+		ResultActions result = this.mockMvc.perform(get(this.PATH).param("size", "10").param("sort", "z,asc"));
+		while (true) {
+			result.andExpect(status().isOk());
+			pages++;
+
+			final Map page = this.mapper.readValue(result.andReturn().getResponse().getContentAsString(), Map.class);
+			final List<Map> embedded = (List<Map>) ((Map) page.get("_embedded")).get("widgets");
+			embedded.forEach(w -> zs.add(((Number) w.get("z")).longValue()));
+
+			final Map next = (Map) ((Map) page.get("_links")).get("next");
+			if (next == null) {
+				break;
+			}
+			result = this.mockMvc.perform(get(URI.create((String) next.get("href"))));
+		}
+
+		assertThat(pages).isEqualTo(3);
+		assertThat(zs).containsExactlyElementsOf(LongStream.rangeClosed(1, 25).boxed().collect(Collectors.toList()));
+
+	}
+
+	@Test
+	public void findAll_leanView() throws Exception {
+
+		this.widgetsInMemoryStorageService.deleteAll();
+
+		for (final long z : new long[] { 1, 2, 3 }) {
+			final String json = this.mapper.writeValueAsString(new Widget(z, z, z, 10f, 10f));
+			this.mockMvc.perform(post(this.PATH).contentType(MediaType.APPLICATION_JSON).content(json));
+		}
+
+		// @formatter:off
+		final ResultActions first = this.mockMvc.perform(get(this.PATH)
+				.param("view", "lean")
+				.param("size", "2")
+				.param("sort", "z"));
+
+		first.andExpect(status().isOk())
+			.andExpect(jsonPath("$.length()").value(2))
+			.andExpect(jsonPath("$[0].z").value(1))
+			.andExpect(jsonPath("$[0]._links").doesNotExist());
+		// @formatter:on
+
+		final String link = first.andReturn().getResponse().getHeader(HttpHeaders.LINK);
+		assertThat(link).contains("rel=\"next\"").contains("view=lean");
+
+		final String next = link.substring(link.indexOf('<') + 1, link.indexOf('>'));
+		final ResultActions second = this.mockMvc.perform(get(URI.create(next)));
+
+		// @formatter:off
+		second.andExpect(status().isOk())
+			.andExpect(jsonPath("$.length()").value(1))
+			.andExpect(jsonPath("$[0].z").value(3));
+		// @formatter:on
+		assertThat(second.andReturn().getResponse().getHeader(HttpHeaders.LINK)).isNull();
+
+	}
+
+	@Test
+	public void changes_streamsTheWritesInsideTheArea() throws Exception {
+
+		// @formatter:off
+		final MvcResult stream = this.mockMvc.perform(get(this.PATH + "changes")
+					.param("lowerX", "10000").param("lowerY", "10000")
+					.param("upperX", "10100").param("upperY", "10100"))
+				.andExpect(request().asyncStarted())
+				.andReturn();
+		// @formatter:on
+
+		for (final long x : new long[] { 20050, 10050 }) {
+			final String json = this.mapper.writeValueAsString(new Widget(x, 10050L, x, 10f, 10f));
+			this.mockMvc.perform(post(this.PATH).contentType(MediaType.APPLICATION_JSON).content(json))
+					.andExpect(status().isOk());
+		}
+
+		final long timeout = System.currentTimeMillis() + 5000;
+		String events = stream.getResponse().getContentAsString();
+		// the lines of an event are flushed one by one: wait for the blank line ending it
+		while (!events.contains("\n\n") && System.currentTimeMillis() < timeout) {
+			Thread.sleep(10);
+			events = stream.getResponse().getContentAsString();
+		}
+		stream.getRequest().getAsyncContext().complete();
+
+		assertThat(events).contains("event:created").contains("\"x\":10050").doesNotContain("\"x\":20050");
+		assertThat(events.split("\n")[0]).matches("id:\\d+");
+
+	}
+
+	@Test
+	public void changes_failWhenTheAreaIsIncomplete() throws Exception {
+
+		final ResultActions result = this.mockMvc.perform(get(this.PATH + "changes").param("lowerX", "0"));
+		result.andExpect(status().isBadRequest());
+
+	}
+
+	@Test
+	public void findAll_invalidCursor() throws Exception {
+
+		final ResultActions result = this.mockMvc.perform(get(this.PATH).param("cursor", "not-a-cursor"));
+		result.andExpect(status().isBadRequest());
+
+	}
+
 }
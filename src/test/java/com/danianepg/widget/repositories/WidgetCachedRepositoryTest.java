@@ -0,0 +1,103 @@
+package com.danianepg.widget.repositories;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Collections;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.danianepg.widget.entities.Widget;
+
+@ActiveProfiles(profiles = "db")
+@RunWith(SpringRunner.class)
+// own database: contexts sharing one take their ids from the same sequence, reset by each of them
+// @formatter:off
+@SpringBootTest(properties = {
+		"spring.datasource.url=jdbc:h2:mem:repositories",
+		"spring.jpa.properties.hibernate.generate_statistics=true",
+		"widget.db.batch-size=20" })
+// @formatter:on
+public class WidgetCachedRepositoryTest {
+
+	@Autowired
+	private WidgetCachedRepository repository;
+
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+
+	private Statistics statistics;
+
+	@Before
+	public void setUp() {
+		this.statistics = this.entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+	}
+
+	@Test
+	public void findById_hotWidgetWithoutRoundTrip() {
+
+		final Widget widget = this.repository.save(new Widget(1L, 1L, 900L, 10f, 10f));
+
+		assertThat(this.repository.findById(widget.getId())).isPresent();
+
+		this.statistics.clear();
+		final long hits = this.repository.getStats().getHits();
+
+		assertThat(this.repository.findById(widget.getId()).get().getZ()).isEqualTo(900L);
+		assertThat(this.repository.findByZ(900L).get().getId()).isEqualTo(widget.getId());
+
+		assertThat(this.statistics.getPrepareStatementCount()).isZero();
+		assertThat(this.repository.getStats().getHits()).isEqualTo(hits + 2);
+	}
+
+	@Test
+	public void shiftZ_dropsTheWidgetsShifted() {
+
+		final Widget first = this.repository.save(new Widget(1L, 1L, 700L, 10f, 10f));
+		final Widget second = this.repository.save(new Widget(1L, 1L, 701L, 10f, 10f));
+		final Widget away = this.repository.save(new Widget(1L, 1L, 710L, 10f, 10f));
+
+		this.repository.findById(first.getId());
+		this.repository.findById(second.getId());
+		this.repository.findById(away.getId());
+
+		this.repository.shiftZ(700L);
+
+		assertThat(this.repository.findById(first.getId()).get().getZ()).isEqualTo(701L);
+		assertThat(this.repository.findByZ(702L).get().getId()).isEqualTo(second.getId());
+		assertThat(this.repository.findByZ(700L)).isEmpty();
+
+		// not on the run, still served from the cache
+		this.statistics.clear();
+		assertThat(this.repository.findById(away.getId())).isPresent();
+		assertThat(this.statistics.getPrepareStatementCount()).isZero();
+	}
+
+	@Test
+	public void saveAndDelete_dropTheWidgetsWritten() {
+
+		final Widget widget = this.repository.save(new Widget(1L, 1L, 800L, 10f, 10f));
+		this.repository.findById(widget.getId());
+
+		final Widget moved = this.repository.findById(widget.getId()).get();
+		moved.setZ(801L);
+		this.repository.saveAll(Collections.singletonList(moved));
+
+		assertThat(this.repository.findById(widget.getId()).get().getZ()).isEqualTo(801L);
+		assertThat(this.repository.findByZ(800L)).isEmpty();
+
+		this.repository.deleteById(widget.getId());
+		assertThat(this.repository.findById(widget.getId())).isEmpty();
+		assertThat(this.repository.findByZ(801L)).isEmpty();
+	}
+
+}
@@ -0,0 +1,137 @@
+package com.danianepg.widget.repositories;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.danianepg.widget.entities.Widget;
+import com.danianepg.widget.exceptions.NotFoundException;
+import com.danianepg.widget.services.WidgetCursor;
+import com.danianepg.widget.services.inmemory.WidgetPagingAndSortingService;
+import com.danianepg.widget.util.WidgetMock;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class WidgetColumnarRepositoryTest {
+
+	@Autowired
+	private WidgetColumnarRepository repository;
+
+	private final WidgetPagingAndSortingService pagingAndSorting = new WidgetPagingAndSortingService();
+
+	@Before
+	public void setUp() {
+		this.repository.deleteAll();
+		this.repository.saveAll(new ArrayList<>(WidgetMock.getWidgetsMock().values()));
+	}
+
+	@Test
+	public void findById_ok() {
+		assertThat(this.repository.findById(5L)).get().isEqualToIgnoringGivenFields(
+				WidgetMock.getWidgetsMock().get(5L), "lastModification");
+	}
+
+	@Test
+	public void findById_notFound() {
+		assertThat(this.repository.findById(10L)).isNotPresent();
+	}
+
+	@Test(expected = NotFoundException.class)
+	public void deleteById_notFound() {
+		this.repository.deleteById(10L);
+	}
+
+	@Test
+	public void deleteById_releasesSlotAndZ() {
+
+		this.repository.deleteById(7L);
+		assertThat(this.repository.findById(7L)).isNotPresent();
+		assertThat(this.repository.findByZ(13L)).isNotPresent();
+		assertThat(this.repository.findMaxZ()).contains(12L);
+
+		final Widget widget = this.repository.save(new Widget(1L, 1L, 20L, 10f, 10f));
+		assertThat(this.repository.findByZ(20L)).contains(widget);
+		assertThat(this.repository.findAll(null).getTotalElements()).isEqualTo(7);
+	}
+
+	@Test
+	public void shiftZ_movesOnlyTheContiguousRun() {
+
+		this.repository.shiftZ(6L);
+
+		assertThat(this.repository.findById(1L).get().getZ()).isEqualTo(1L);
+		assertThat(this.repository.findById(2L).get().getZ()).isEqualTo(7L);
+		assertThat(this.repository.findById(3L).get().getZ()).isEqualTo(8L);
+		assertThat(this.repository.findById(4L).get().getZ()).isEqualTo(10L);
+		assertThat(this.repository.findByZ(6L)).isEmpty();
+		assertThat(this.repository.findEndOfRun(10L)).contains(13L);
+	}
+
+	@Test
+	public void findAll_sameAsSortingWidgets() {
+
+		final Random random = new Random(9);
+		final List<Widget> widgets = new ArrayList<>();
+		for (long id = 1; id <= 700; id++) {
+			widgets.add(new Widget(id, (long) random.nextInt(30), (long) random.nextInt(30), id * 3,
+					(float) random.nextInt(40), 10f));
+		}
+		this.repository.deleteAll();
+		this.repository.saveAll(widgets);
+		final List<Widget> stored = this.repository.findAll(null).getContent();
+
+		final Sort[] sorts = { Sort.by("x"), Sort.by("z").descending(),
+				Sort.by(Sort.Order.desc("width"), Sort.Order.asc("y")) };
+
+		for (final Sort sort : sorts) {
+			for (final int pageNumber : new int[] { 0, 5, 69, 70 }) {
+				final Pageable page = PageRequest.of(pageNumber, 10, sort);
+				assertThat(this.repository.findAll(page).getContent())
+						.containsExactlyElementsOf(this.pagingAndSorting.getPage(stored, page).getContent());
+			}
+		}
+	}
+
+	@Test
+	public void findAll_walkWithCursor() {
+
+		final Sort sort = this.pagingAndSorting.getPageAndSort(PageRequest.of(0, 3, Sort.by("x"))).getSort();
+		final List<Widget> walked = new ArrayList<>();
+
+		Page<Widget> page = this.repository.findAll(PageRequest.of(0, 3, sort));
+		walked.addAll(page.getContent());
+		while (page.getNumberOfElements() == 3) {
+			final WidgetCursor cursor = WidgetCursor.after(walked.get(walked.size() - 1), sort);
+			page = this.repository.findAll(cursor, PageRequest.of(0, 3));
+			assertThat(page.getTotalElements()).isEqualTo(7);
+			walked.addAll(page.getContent());
+		}
+
+		assertThat(walked).extracting(Widget::getId).containsExactly(2L, 3L, 4L, 1L, 5L, 6L, 7L);
+	}
+
+	@Test
+	public void findByArea_ok() {
+
+		final Pageable page = PageRequest.of(0, 10, Sort.by("z").descending());
+		final Page<Widget> inside = this.repository.findByArea(0L, 0L, 100L, 150L, page);
+
+		assertThat(inside.getContent()).extracting(Widget::getId).containsExactly(6L, 5L);
+		assertThat(inside.getTotalElements()).isEqualTo(2);
+		assertThat(this.repository.findByArea(100L, 0L, 150L, 50L, null).getTotalElements()).isZero();
+	}
+
+}
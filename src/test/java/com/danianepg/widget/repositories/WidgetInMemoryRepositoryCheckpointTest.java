@@ -0,0 +1,115 @@
+package com.danianepg.widget.repositories;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.danianepg.widget.entities.Widget;
+import com.danianepg.widget.services.inmemory.WidgetsInMemoryStorageService;
+import com.danianepg.widget.services.inmemory.WidgetsSnapshotter;
+import com.danianepg.widget.services.inmemory.WidgetsWriteAheadLog;
+import com.danianepg.widget.services.inmemory.WidgetsWriteAheadLog.SyncPolicy;
+
+@RunWith(SpringRunner.class)
+// @formatter:off
+@SpringBootTest(properties = {
+		"widget.wal.file=${java.io.tmpdir}/widgets-${random.uuid}.wal",
+		"widget.snapshot.file=${java.io.tmpdir}/widgets-${random.uuid}.snapshot" })
+// @formatter:on
+public class WidgetInMemoryRepositoryCheckpointTest {
+
+	@Autowired
+	private WidgetInMemoryRepository repository;
+
+	@Autowired
+	private WidgetsInMemoryStorageService widgetsStored;
+
+	@SpyBean
+	private WidgetsWriteAheadLog writeAheadLog;
+
+	@Autowired
+	private WidgetsSnapshotter snapshotter;
+
+	private ExecutorService checkpointer;
+
+	/**
+	 * Armed to run a checkpoint on another thread right after the next widget is
+	 * appended to the log, before its writer goes on.
+	 */
+	private final AtomicBoolean checkpointOnAppend = new AtomicBoolean();
+
+	@Before
+	public void setUp() {
+
+		this.checkpointer = Executors.newSingleThreadExecutor();
+
+		doAnswer(invocation -> {
+			final Object position = invocation.callRealMethod();
+			if (this.checkpointOnAppend.compareAndSet(true, false)) {
+				this.checkpointer.submit(this.repository::checkpoint).get();
+			}
+			return position;
+		}).when(this.writeAheadLog).append(any(Widget.class));
+	}
+
+	@After
+	public void tearDown() {
+		this.checkpointer.shutdown();
+	}
+
+	@Test
+	public void checkpoint_concurrentWritesRecovered() throws Exception {
+
+		final List<Widget> widgets = new ArrayList<>();
+		for (long z = 1; z <= 10; z++) {
+			widgets.add(new Widget(0L, 0L, z, 5f, 5f));
+		}
+
+		this.checkpointOnAppend.set(true);
+		this.repository.saveAll(widgets);
+		assertThat(this.recover()).isEqualTo(this.widgetsStored.getWidgets());
+
+		this.checkpointOnAppend.set(true);
+		this.repository.shiftZ(1L);
+		assertThat(this.recover()).isEqualTo(this.widgetsStored.getWidgets());
+
+		this.checkpointOnAppend.set(true);
+		this.repository.shiftZ(2L, 3);
+		assertThat(this.recover()).isEqualTo(this.widgetsStored.getWidgets());
+	}
+
+	/**
+	 * The widgets a restart would restore: the snapshot and the log after it.
+	 */
+	private Map<Long, Widget> recover() throws Exception {
+
+		final Map<Long, Widget> recovered = new HashMap<>();
+		this.snapshotter.restore(widget -> recovered.put(widget.getId(), widget));
+
+		try (WidgetsWriteAheadLog log = new WidgetsWriteAheadLog(this.writeAheadLog.getFile(), SyncPolicy.ALWAYS, 1,
+				1)) {
+			log.open();
+			log.replay(widget -> recovered.put(widget.getId(), widget), recovered::remove);
+		}
+
+		return recovered;
+	}
+
+}
@@ -126,6 +126,43 @@ public class WidgetInMemoryRepositoryTest {
 
 	}
 
+	@Test
+	public void findAll_deepPageOrderByX() {
+
+		final Map<Long, Widget> widgets = new ConcurrentHashMap<>();
+		for (long id = 1; id <= 500; id++) {
+			widgets.put(id, new Widget(id, (id * 37) % 500, 0L, id, 10f, 10f));
+		}
+		when(this.widgets.getWidgets()).thenReturn(widgets);
+
+		final PageImpl<Widget> page = (PageImpl<Widget>) this.repository
+				.findAll(PageRequest.of(40, 10, Sort.by("x").descending()));
+
+		assertThat(page.getTotalElements()).isEqualTo(500);
+		assertThat(page.getContent()).extracting(Widget::getX).containsExactly(99L, 98L, 97L, 96L, 95L, 94L, 93L,
+				92L, 91L, 90L);
+
+	}
+
+	@Test
+	public void findAll_orderFollowsSavedWidget() {
+
+		final Map<Long, Widget> widgets = WidgetMock.getWidgetsMock();
+		when(this.widgets.getWidgets()).thenReturn(widgets);
+
+		final Pageable page = PageRequest.of(0, 1, Sort.by("width").descending());
+		assertThat(this.repository.findAll(page).getContent().get(0).getWidth()).isEqualTo(100f);
+
+		final Widget widget = widgets.get(1L);
+		widget.setWidth(500f);
+		this.repository.saveAll(Collections.singletonList(widget));
+		assertThat(this.repository.findAll(page).getContent()).containsExactly(widget);
+
+		this.repository.deleteById(1L);
+		assertThat(this.repository.findAll(page).getContent().get(0).getWidth()).isEqualTo(100f);
+
+	}
+
 	@Test
 	public void saveAll_ok() {
 
@@ -155,6 +192,19 @@ public class WidgetInMemoryRepositoryTest {
 
 	}
 
+	@Test
+	public void findByZ_returnsACopy() {
+
+		when(this.widgets.getWidgets()).thenReturn(WidgetMock.getWidgetsMock());
+
+		this.repository.findByZ(1L).get().setZ(100L);
+		this.repository.findAll(PageRequest.of(0, 1, Sort.by("z"))).getContent().get(0).setX(100L);
+
+		assertThat(this.repository.findByZ(1L)).isPresent();
+		assertThat(this.repository.findByZ(1L).get().getX()).isNotEqualTo(100L);
+
+	}
+
 	@Test
 	public void findByZ_notFound() {
 
@@ -165,4 +215,139 @@ public class WidgetInMemoryRepositoryTest {
 
 	}
 
+	@Test
+	public void findByZ_followsSavedPosition() {
+
+		final Map<Long, Widget> widgets = WidgetMock.getWidgetsMock();
+		when(this.widgets.getWidgets()).thenReturn(widgets);
+
+		final Widget widget = widgets.get(1L);
+		final Long previousZ = widget.getZ();
+		widget.setZ(30L);
+		this.repository.saveAll(Collections.singletonList(widget));
+
+		assertThat(this.repository.findByZ(30L)).contains(widget);
+		assertThat(this.repository.findByZ(previousZ)).isEmpty();
+
+	}
+
+	@Test
+	public void findByZ_notFoundAfterDelete() {
+
+		final Map<Long, Widget> widgets = WidgetMock.getWidgetsMock();
+		when(this.widgets.getWidgets()).thenReturn(widgets);
+
+		final Widget widget = widgets.get(1L);
+		this.repository.deleteById(widget.getId());
+
+		assertThat(this.repository.findByZ(widget.getZ())).isEmpty();
+
+	}
+
+	@Test
+	public void shiftZ_movesOnlyTheContiguousRun() {
+
+		final Map<Long, Widget> widgets = WidgetMock.getWidgetsMock();
+		when(this.widgets.getWidgets()).thenReturn(widgets);
+
+		this.repository.shiftZ(6L);
+
+		assertThat(widgets.get(1L).getZ()).isEqualTo(1L);
+		assertThat(widgets.get(2L).getZ()).isEqualTo(7L);
+		assertThat(widgets.get(3L).getZ()).isEqualTo(8L);
+		assertThat(widgets.get(4L).getZ()).isEqualTo(10L);
+		assertThat(this.repository.findByZ(6L)).isEmpty();
+		assertThat(this.repository.findByZ(8L)).contains(widgets.get(3L));
+
+	}
+
+	@Test
+	public void shiftZ_severalPositionsSameAsInsertingOneByOne() {
+
+		final Map<Long, Widget> shiftedOneByOne = WidgetMock.getWidgetsMock();
+		when(this.widgets.getWidgets()).thenReturn(shiftedOneByOne);
+		for (long id = 100; id < 104; id++) {
+			this.repository.shiftZ(6L);
+			this.repository.saveAll(Collections.singletonList(new Widget(id, 0L, 0L, 6L, 10f, 10f)));
+		}
+
+		final Map<Long, Widget> widgets = WidgetMock.getWidgetsMock();
+		when(this.widgets.getWidgets()).thenReturn(widgets);
+		this.repository.shiftZ(6L, 4);
+
+		for (final Widget widget : widgets.values()) {
+			assertThat(widget.getZ()).isEqualTo(shiftedOneByOne.get(widget.getId()).getZ());
+		}
+		assertThat(shiftedOneByOne.get(100L).getZ()).isEqualTo(9L);
+		assertThat(widgets.get(2L).getZ()).isEqualTo(10L);
+		assertThat(widgets.get(7L).getZ()).isEqualTo(15L);
+		assertThat(this.repository.findByZ(6L)).isEmpty();
+		assertThat(this.repository.findByZ(15L)).contains(widgets.get(7L));
+
+	}
+
+	@Test
+	public void shiftZ_freePosition() {
+
+		final Map<Long, Widget> widgets = WidgetMock.getWidgetsMock();
+		when(this.widgets.getWidgets()).thenReturn(widgets);
+
+		this.repository.shiftZ(2L);
+
+		assertThat(widgets.get(1L).getZ()).isEqualTo(1L);
+		assertThat(widgets.get(2L).getZ()).isEqualTo(6L);
+
+	}
+
+	@Test
+	public void findAll_pageSortedByZIsOneVersionWhileShifting() throws InterruptedException {
+
+		final Map<Long, Widget> widgets = new ConcurrentHashMap<>();
+		for (long id = 1; id <= 200; id++) {
+			widgets.put(id, new Widget(id, 0L, 0L, id, 10f, 10f));
+		}
+		when(this.widgets.getWidgets()).thenReturn(widgets);
+
+		final Thread writer = new Thread(() -> {
+			for (int i = 0; i < 200; i++) {
+				this.repository.shiftZ(1L);
+			}
+		});
+		writer.start();
+
+		final Pageable pageable = PageRequest.of(0, 50, Sort.by("z"));
+		while (writer.isAlive()) {
+			final List<Widget> page = this.repository.findAll(pageable).getContent();
+
+			assertThat(page).hasSize(50);
+			for (int i = 1; i < page.size(); i++) {
+				assertThat(page.get(i).getZ()).isGreaterThan(page.get(i - 1).getZ());
+			}
+		}
+		writer.join();
+
+	}
+
+	@Test
+	public void findMaxZ_followsTopWidget() {
+
+		final Map<Long, Widget> widgets = WidgetMock.getWidgetsMock();
+		when(this.widgets.getWidgets()).thenReturn(widgets);
+
+		assertThat(this.repository.findMaxZ()).contains(13L);
+
+		this.repository.deleteById(7L);
+		assertThat(this.repository.findMaxZ()).contains(12L);
+
+		this.repository.shiftZ(10L);
+		assertThat(this.repository.findMaxZ()).contains(13L);
+
+	}
+
+	@Test
+	public void findMaxZ_emptyList() {
+		when(this.widgets.getWidgets()).thenReturn(new ConcurrentHashMap<>());
+		assertThat(this.repository.findMaxZ()).isEmpty();
+	}
+
 }
@@ -0,0 +1,176 @@
+package com.danianepg.widget.repositories;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.danianepg.widget.entities.Widget;
+import com.danianepg.widget.exceptions.NotFoundException;
+import com.danianepg.widget.services.WidgetService;
+import com.danianepg.widget.services.inmemory.WidgetsInMemoryStorageService;
+import com.danianepg.widget.util.WidgetMock;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = WidgetInMemoryWritePipeline.PROPERTY + "=pipeline")
+public class WidgetInMemoryWritePipelineTest {
+
+	@Autowired
+	private WidgetInMemoryWritePipeline pipeline;
+
+	@Autowired
+	private WidgetService service;
+
+	@MockBean
+	private WidgetsInMemoryStorageService widgets;
+
+	@Test
+	public void apply_insertsOnSameZWithOneShift() {
+
+		final Map<Long, Widget> widgets = WidgetMock.getWidgetsMock();
+		when(this.widgets.getWidgets()).thenReturn(widgets);
+
+		// @formatter:off
+		final List<WidgetInMemoryWritePipeline.Write> batch = Arrays.asList(
+				new WidgetInMemoryWritePipeline.Write(new Widget(20L, 0L, 0L, 6L, 10f, 10f), null),
+				new WidgetInMemoryWritePipeline.Write(new Widget(21L, 0L, 0L, 6L, 10f, 10f), null),
+				new WidgetInMemoryWritePipeline.Write(new Widget(22L, 0L, 0L, 6L, 10f, 10f), null),
+				new WidgetInMemoryWritePipeline.Write(null, 1L));
+		// @formatter:on
+
+		this.pipeline.apply(batch);
+
+		assertThat(batch.get(2).getResult().join().getId()).isEqualTo(22L);
+		assertThat(batch.get(0).getResult().join().getZ()).isEqualTo(8L);
+
+		assertThat(widgets).doesNotContainKey(1L);
+		assertThat(widgets.get(22L).getZ()).isEqualTo(6L);
+		assertThat(widgets.get(21L).getZ()).isEqualTo(7L);
+		assertThat(widgets.get(20L).getZ()).isEqualTo(8L);
+		assertThat(widgets.get(2L).getZ()).isEqualTo(9L);
+		assertThat(widgets.get(3L).getZ()).isEqualTo(10L);
+		assertThat(widgets.get(4L).getZ()).isEqualTo(11L);
+		assertThat(widgets.get(7L).getZ()).isEqualTo(14L);
+	}
+
+	@Test
+	public void apply_failsOnlyTheFailedWrite() {
+
+		final Map<Long, Widget> widgets = WidgetMock.getWidgetsMock();
+		when(this.widgets.getWidgets()).thenReturn(widgets);
+
+		// @formatter:off
+		final List<WidgetInMemoryWritePipeline.Write> batch = Arrays.asList(
+				new WidgetInMemoryWritePipeline.Write(null, 30L),
+				new WidgetInMemoryWritePipeline.Write(new Widget(30L, 0L, 0L, 1L, 10f, 10f), null));
+		// @formatter:on
+
+		this.pipeline.apply(batch);
+
+		assertThat(batch.get(0).getResult()).isCompletedExceptionally();
+		assertThat(batch.get(1).getResult().join().getId()).isEqualTo(30L);
+		assertThat(widgets.get(1L).getZ()).isEqualTo(2L);
+	}
+
+	@Test(timeout = 5000)
+	public void save_refusedOnceStopped() {
+
+		final WidgetInMemoryWritePipeline stopped = new WidgetInMemoryWritePipeline(4, 4);
+		stopped.start();
+		stopped.stop();
+
+		assertThatThrownBy(() -> stopped.save(WidgetMock.getWidget())).isInstanceOf(IllegalStateException.class);
+		assertThatThrownBy(() -> stopped.deleteById(1L)).isInstanceOf(IllegalStateException.class);
+	}
+
+	@Test(timeout = 5000)
+	public void stop_appliesTheWritesBufferedBefore() throws Exception {
+
+		final WidgetInMemoryWritePipeline stopping = new WidgetInMemoryWritePipeline(4, 4);
+		stopping.start();
+
+		final CountDownLatch running = new CountDownLatch(1);
+		final AtomicBoolean applied = new AtomicBoolean();
+
+		final Thread caller = new Thread(() -> stopping.execute(() -> {
+			running.countDown();
+			try {
+				Thread.sleep(200);
+				applied.set(true);
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}));
+		caller.start();
+		running.await();
+
+		// waits for the write being applied, without interrupting it
+		stopping.stop();
+
+		assertThat(applied).isTrue();
+		caller.join();
+	}
+
+	@Test(expected = NotFoundException.class)
+	public void deleteById_notFound() {
+		when(this.widgets.getWidgets()).thenReturn(WidgetMock.getWidgetsMock());
+		this.service.deleteById(30L);
+	}
+
+	@Test
+	public void save_concurrentWritesKeepZUnique() throws Exception {
+
+		final Map<Long, Widget> widgets = new ConcurrentHashMap<>();
+		when(this.widgets.getWidgets()).thenReturn(widgets);
+
+		final int threads = 8;
+		final int savesPerThread = 150;
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		final List<Future<?>> results = new ArrayList<>();
+
+		for (int t = 0; t < threads; t++) {
+			final Random random = new Random(t);
+			final long firstId = 1000L * (t + 1);
+			results.add(executor.submit(() -> {
+				for (int i = 0; i < savesPerThread; i++) {
+					final Long z = random.nextInt(4) == 0 ? null : (long) random.nextInt(10);
+					final Widget saved = this.service.save(new Widget(firstId + i, 1L, 2L, z, 10f, 10f));
+
+					if (random.nextInt(5) == 0) {
+						this.service.deleteById(saved.getId());
+						this.service.save(saved);
+					}
+				}
+			}));
+		}
+
+		for (final Future<?> result : results) {
+			result.get(1, TimeUnit.MINUTES);
+		}
+		executor.shutdown();
+
+		final List<Long> zs = widgets.values().stream().map(Widget::getZ).collect(Collectors.toList());
+		assertThat(zs).hasSize(threads * savesPerThread).doesNotHaveDuplicates();
+	}
+
+}
@@ -0,0 +1,161 @@
+package com.danianepg.widget.repositories;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.danianepg.widget.entities.Widget;
+import com.danianepg.widget.services.WidgetCursor;
+
+@ActiveProfiles(profiles = "db")
+@RunWith(SpringRunner.class)
+// own database: contexts sharing one take their ids from the same sequence, reset by each of them
+// @formatter:off
+@SpringBootTest(properties = {
+		"spring.datasource.url=jdbc:h2:mem:repositories",
+		"spring.jpa.properties.hibernate.generate_statistics=true",
+		"widget.db.batch-size=20" })
+// @formatter:on
+public class WidgetRepositoryImplTest {
+
+	@Autowired
+	private WidgetRepositoryImpl repository;
+
+	@Autowired
+	private WidgetDatabaseRepository widgetDatabaseRepository;
+
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+
+	@Test
+	public void saveAll_insertsInBatches() {
+
+		this.widgetDatabaseRepository.deleteAll();
+
+		final Statistics statistics = this.entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+		statistics.clear();
+
+		final List<Widget> widgets = new ArrayList<>();
+		for (long z = 1; z <= 100; z++) {
+			widgets.add(new Widget(z, z, z, 10f, 10f));
+		}
+
+		final Map<Long, Widget> saved = this.repository.saveAll(widgets);
+
+		assertThat(saved).hasSize(100);
+		assertThat(statistics.getEntityInsertCount()).isEqualTo(100);
+
+		// 5 batches of inserts and 2 blocks of ids, instead of a statement per widget
+		assertThat(statistics.getPrepareStatementCount()).isLessThanOrEqualTo(8);
+		assertThat(this.widgetDatabaseRepository.count()).isEqualTo(100);
+	}
+
+	@Test
+	public void findAll_cursorPageNotCounted() {
+
+		this.widgetDatabaseRepository.deleteAll();
+
+		final List<Widget> widgets = new ArrayList<>();
+		for (long z = 1; z <= 30; z++) {
+			widgets.add(new Widget(z, z, z, 10f, 10f));
+		}
+		this.repository.saveAll(widgets);
+
+		final Sort byZ = Sort.by("z");
+		final Widget first = this.repository.findByZ(1L).get();
+
+		final Statistics statistics = this.entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+		statistics.clear();
+
+		final Page<Widget> page = this.repository.findAll(WidgetCursor.after(first, byZ, 30), PageRequest.of(0, 10));
+
+		assertThat(page.getContent()).extracting(Widget::getZ).containsExactly(2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L, 10L,
+				11L);
+		assertThat(page.getTotalElements()).isEqualTo(30);
+		assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+
+		// without a total carried, it is counted
+		assertThat(this.repository.findAll(WidgetCursor.after(first, byZ), PageRequest.of(0, 10)).getTotalElements())
+				.isEqualTo(30);
+	}
+
+	@Test
+	public void findNext_oneStatementPerPage() {
+
+		this.widgetDatabaseRepository.deleteAll();
+
+		final List<Widget> widgets = new ArrayList<>();
+		for (long z = 1; z <= 30; z++) {
+			widgets.add(new Widget(z, z, z, 10f, 10f));
+		}
+		this.repository.saveAll(widgets);
+
+		final Widget first = this.repository.findByZ(1L).get();
+
+		final Statistics statistics = this.entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+		statistics.clear();
+
+		final List<Widget> next = this.repository.findNext(WidgetCursor.after(first, Sort.by("z")), 10);
+
+		assertThat(next).extracting(Widget::getZ).containsExactly(2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L, 10L, 11L);
+		assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+		assertThat(statistics.getEntityLoadCount()).isZero();
+	}
+
+	@Test
+	public void deleteAndSaveAll_rollsBackTheDeletesWhenASaveFails() {
+
+		final Widget stored = this.repository.save(new Widget(1L, 1L, 600L, 10f, 10f));
+
+		// no x: refused on flush, after the delete
+		final Widget invalid = new Widget(null, 1L, 601L, 10f, 10f);
+
+		assertThatThrownBy(() -> this.repository.deleteAndSaveAll(Collections.singletonList(stored.getId()),
+				Collections.singletonList(invalid))).isInstanceOf(RuntimeException.class);
+
+		assertThat(this.repository.findById(stored.getId())).isPresent();
+		assertThat(this.repository.findByZ(601L)).isEmpty();
+	}
+
+	@Test
+	public void shiftZAndSaveAll_rollsBackTheShiftWhenTheSaveFails() {
+
+		final Widget stored = this.repository.save(new Widget(1L, 1L, 700L, 10f, 10f));
+
+		// no x: refused on flush, after the shift
+		final Widget invalid = new Widget(null, 1L, 700L, 10f, 10f);
+
+		assertThatThrownBy(() -> this.repository.shiftZAndSaveAll(700L, Collections.singletonList(invalid)))
+				.isInstanceOf(RuntimeException.class);
+
+		assertThat(this.repository.findById(stored.getId()).get().getZ()).isEqualTo(700L);
+	}
+
+	@Test
+	public void save_idsAfterTheInitialWidgets() {
+
+		final Widget widget = this.repository.save(new Widget(1L, 1L, 500L, 10f, 10f));
+
+		assertThat(widget.getId()).isGreaterThan(7L);
+		assertThat(this.repository.findById(widget.getId())).isPresent();
+	}
+
+}
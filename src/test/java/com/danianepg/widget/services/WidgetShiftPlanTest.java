@@ -0,0 +1,91 @@
+package com.danianepg.widget.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import com.danianepg.widget.entities.Widget;
+import com.danianepg.widget.repositories.WidgetRepository;
+
+public class WidgetShiftPlanTest {
+
+	private Iterator<Widget> queue(final long... zs) {
+		final Widget[] widgets = new Widget[zs.length];
+		for (int i = 0; i < zs.length; i++) {
+			widgets[i] = new Widget(zs[i] * 10, 0L, 0L, zs[i], 1f, 1f);
+		}
+		return Arrays.asList(widgets).iterator();
+	}
+
+	@Test
+	public void shift_pushesTheRunsOnTheWayOnce() {
+
+		final List<Widget> shifted = WidgetShiftPlan.shift(new TreeSet<>(Arrays.asList(2L, 3L, 6L)),
+				Collections.emptySet(), this.queue(2, 3, 4, 6, 9, 10));
+
+		// from the top down
+		assertThat(shifted).extracting(Widget::getId).containsExactly(60L, 40L, 30L, 20L);
+		assertThat(shifted).extracting(Widget::getZ).containsExactly(8L, 7L, 5L, 4L);
+	}
+
+	@Test
+	public void shift_gapsAbsorbThePush() {
+
+		final List<Widget> shifted = WidgetShiftPlan.shift(new TreeSet<>(Arrays.asList(1L)), Collections.emptySet(),
+				this.queue(1, 2, 5, 6));
+
+		assertThat(shifted).extracting(Widget::getZ).containsExactly(3L, 2L);
+	}
+
+	@Test
+	public void shift_ignoresTheWidgetsOfTheBatch() {
+
+		// the widget on 3 is moved by the batch, releasing its position
+		final List<Widget> shifted = WidgetShiftPlan.shift(new TreeSet<>(Arrays.asList(1L)),
+				Collections.singleton(30L), this.queue(1, 2, 3, 4));
+
+		assertThat(shifted).extracting(Widget::getZ).containsExactly(3L, 2L);
+	}
+
+	@Test
+	public void shift_nothingOnTheWay() {
+
+		final Iterator<Widget> queue = this.queue(5, 8, 9);
+		assertThat(WidgetShiftPlan.shift(new TreeSet<>(Arrays.asList(4L, 7L)), Collections.emptySet(), queue))
+				.isEmpty();
+
+		// the walk stops on the first widget above the batch that stays
+		assertThat(queue.next().getZ()).isEqualTo(9L);
+	}
+
+	@Test
+	public void of_stacksAboveTheWidgetsPushedUp() {
+
+		final WidgetRepository repository = mock(WidgetRepository.class);
+		when(repository.findById(any())).thenReturn(Optional.empty());
+		when(repository.findMaxZ()).thenReturn(Optional.of(1L));
+		when(repository.findNext(any(), anyInt())).thenReturn(Collections.singletonList(this.queue(1).next()));
+
+		// the widget on 1 is pushed to 2 by the first one, so the one without z goes
+		// to 3
+		final WidgetShiftPlan plan = WidgetShiftPlan.of(repository, new WidgetBatch(
+				Arrays.asList(new Widget(0L, 0L, 1L, 5f, 5f), new Widget(0L, 0L, null, 5f, 5f)),
+				Collections.emptyList()));
+
+		assertThat(plan.getSaved()).extracting(Widget::getZ).containsExactly(1L, 3L);
+		assertThat(plan.getShifted()).extracting(Widget::getId).containsExactly(10L);
+		assertThat(plan.getShifted()).extracting(Widget::getZ).containsExactly(2L);
+	}
+
+}
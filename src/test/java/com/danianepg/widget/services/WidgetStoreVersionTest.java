@@ -0,0 +1,54 @@
+package com.danianepg.widget.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.LocalDateTime;
+
+import org.junit.Test;
+
+import com.danianepg.widget.entities.Widget;
+
+public class WidgetStoreVersionTest {
+
+	private final WidgetStoreVersion storeVersion = new WidgetStoreVersion();
+
+	@Test
+	public void tagOf_widgetChangesWithAnyAttribute() {
+
+		final LocalDateTime now = LocalDateTime.of(2020, 1, 1, 10, 0, 0, 123_456_789);
+		final Widget widget = new Widget(1L, 10L, 20L, 3L, 10f, 10f, now);
+
+		final Widget sameMillisecond = widget.clone();
+		sameMillisecond.setLastModification(now.plusNanos(1));
+		final Widget wider = widget.clone();
+		wider.setWidth(10.000001f);
+
+		assertThat(this.storeVersion.tagOf(widget)).isEqualTo(this.storeVersion.tagOf(widget.clone()));
+		assertThat(this.storeVersion.tagOf(sameMillisecond)).isNotEqualTo(this.storeVersion.tagOf(widget));
+		assertThat(this.storeVersion.tagOf(wider)).isNotEqualTo(this.storeVersion.tagOf(widget));
+	}
+
+	@Test
+	public void tagOf_requestsWithTheSameHashCode() {
+
+		final WidgetStoreVersion.Version version = this.storeVersion.get();
+
+		assertThat("Aa".hashCode()).isEqualTo("BB".hashCode());
+		assertThat(this.storeVersion.tagOf(version, "/api/widgets?cursor=Aa"))
+				.isNotEqualTo(this.storeVersion.tagOf(version, "/api/widgets?cursor=BB"));
+	}
+
+	@Test
+	public void lastModifiedOf_onlyOnceTheSecondIsOver() {
+
+		final Widget widget = new Widget(1L, 10L, 20L, 3L, 10f, 10f, LocalDateTime.now().minusSeconds(2));
+		assertThat(this.storeVersion.lastModifiedOf(widget)).isPositive();
+
+		widget.setLastModification(LocalDateTime.now().plusMinutes(1));
+		assertThat(this.storeVersion.lastModifiedOf(widget)).isEqualTo(-1);
+
+		widget.setLastModification(null);
+		assertThat(this.storeVersion.lastModifiedOf(widget)).isEqualTo(-1);
+	}
+
+}
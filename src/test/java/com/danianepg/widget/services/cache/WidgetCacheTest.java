@@ -0,0 +1,104 @@
+package com.danianepg.widget.services.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+import com.danianepg.widget.entities.Widget;
+
+public class WidgetCacheTest {
+
+	private Widget widget(final long id, final long z) {
+		return new Widget(id, 0L, 0L, z, 10f, 10f);
+	}
+
+	@Test
+	public void get_copiesOfTheWidgetsCached() {
+
+		final WidgetCache cache = new WidgetCache(10);
+		cache.put(this.widget(1L, 5L), cache.version());
+
+		final Widget cached = cache.get(1L);
+		cached.setZ(99L);
+
+		assertThat(cache.get(1L).getZ()).isEqualTo(5L);
+		assertThat(cache.getByZ(5L).getId()).isEqualTo(1L);
+		assertThat(cache.getByZ(99L)).isNull();
+		assertThat(cache.get(2L)).isNull();
+
+		final WidgetCacheStats stats = cache.stats();
+		assertThat(stats.getHits()).isEqualTo(3);
+		assertThat(stats.getMisses()).isEqualTo(2);
+		assertThat(stats.getHitRate()).isEqualTo(0.6);
+	}
+
+	@Test
+	public void put_rejectedWhenInvalidatedDuringTheLoad() {
+
+		final WidgetCache cache = new WidgetCache(10);
+
+		final long version = cache.version();
+		// a write commits while the widget is loaded
+		cache.invalidate(1L);
+
+		assertThat(cache.put(this.widget(1L, 5L), version)).isFalse();
+		assertThat(cache.get(1L)).isNull();
+		assertThat(cache.put(this.widget(1L, 6L), cache.version())).isTrue();
+	}
+
+	@Test
+	public void put_replacesTheWidgetOnTheSamePosition() {
+
+		final WidgetCache cache = new WidgetCache(10);
+		cache.put(this.widget(1L, 5L), cache.version());
+		cache.put(this.widget(2L, 5L), cache.version());
+
+		assertThat(cache.get(1L)).isNull();
+		assertThat(cache.getByZ(5L).getId()).isEqualTo(2L);
+		assertThat(cache.size()).isEqualTo(1);
+	}
+
+	@Test
+	public void invalidateZ_dropsOnlyTheRange() {
+
+		final WidgetCache cache = new WidgetCache(10);
+		for (long id = 1; id <= 6; id++) {
+			cache.put(this.widget(id, id * 10), cache.version());
+		}
+
+		cache.invalidateZ(20L, 40L);
+
+		assertThat(cache.get(1L)).isNotNull();
+		assertThat(cache.get(2L)).isNull();
+		assertThat(cache.get(4L)).isNull();
+		assertThat(cache.getByZ(30L)).isNull();
+		assertThat(cache.get(5L)).isNotNull();
+
+		cache.invalidate(this.widget(7L, 50L));
+		assertThat(cache.get(5L)).isNull();
+		assertThat(cache.stats().getInvalidations()).isEqualTo(2);
+	}
+
+	@Test
+	public void put_scanDoesNotEvictTheHotWidgets() {
+
+		final WidgetCache cache = new WidgetCache(10);
+
+		for (long id = 1; id <= 5; id++) {
+			cache.put(this.widget(id, id), cache.version());
+			cache.get(id);
+		}
+
+		// widgets read only once
+		for (long id = 100; id < 200; id++) {
+			cache.put(this.widget(id, id), cache.version());
+		}
+
+		for (long id = 1; id <= 5; id++) {
+			assertThat(cache.get(id)).isNotNull();
+		}
+		assertThat(cache.size()).isEqualTo(10);
+		assertThat(cache.stats().getEvictions()).isEqualTo(95);
+	}
+
+}
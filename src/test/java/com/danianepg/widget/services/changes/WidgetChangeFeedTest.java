@@ -0,0 +1,97 @@
+package com.danianepg.widget.services.changes;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+
+import org.junit.Test;
+
+import com.danianepg.widget.entities.Widget;
+import com.danianepg.widget.repositories.WidgetRepository;
+
+public class WidgetChangeFeedTest {
+
+	@Test
+	public void publish_dropsTheSubscriberOnAFullBuffer() {
+
+		// dispatchers that never run, as for a subscriber that does not read
+		final ExecutorService dispatchers = mock(ExecutorService.class);
+		final WidgetChangeFeed feed = new WidgetChangeFeed(2, 0, dispatchers);
+
+		feed.subscribe(null, null, null, null);
+		feed.created(new Widget(1L, 0L, 0L, 1L, 10f, 10f));
+		feed.created(new Widget(2L, 0L, 0L, 2L, 10f, 10f));
+
+		assertThat(feed.hasSubscribers()).isTrue();
+		verify(dispatchers, times(1)).execute(any());
+
+		feed.created(new Widget(3L, 0L, 0L, 3L, 10f, 10f));
+
+		assertThat(feed.hasSubscribers()).isFalse();
+	}
+
+	@Test
+	public void toShift_readsTheRunsOnTheWayOnce() {
+
+		final WidgetChangeFeed feed = new WidgetChangeFeed(2, 0, mock(ExecutorService.class));
+		final WidgetRepository repository = mock(WidgetRepository.class);
+
+		// runs 5-7 and 9-10, with a gap on 8
+		when(repository.findEndOfRun(anyLong())).thenReturn(Optional.empty());
+		when(repository.findEndOfRun(5L)).thenReturn(Optional.of(7L));
+		when(repository.findEndOfRun(9L)).thenReturn(Optional.of(10L));
+		// @formatter:off
+		when(repository.findNext(any(), eq(6))).thenReturn(Arrays.asList(
+				new Widget(1L, 0L, 0L, 5L, 10f, 10f), new Widget(2L, 0L, 0L, 6L, 10f, 10f),
+				new Widget(3L, 0L, 0L, 7L, 10f, 10f), new Widget(4L, 0L, 0L, 9L, 10f, 10f),
+				new Widget(5L, 0L, 0L, 10L, 10f, 10f), new Widget(6L, 0L, 0L, 12L, 10f, 10f)));
+		// @formatter:on
+
+		assertThat(feed.toShift(repository, 5L, 2)).isEmpty();
+
+		feed.subscribe(null, null, null, null);
+
+		// two positions released: 8 and 11 are taken by the widgets moved
+		assertThat(feed.toShift(repository, 5L, 2)).extracting(Widget::getZ).containsExactly(5L, 6L, 7L, 9L, 10L);
+		verify(repository, times(1)).findNext(any(), eq(6));
+
+		assertThat(feed.toShift(repository, 8L, 1)).isEmpty();
+	}
+
+	@Test
+	public void publish_buffersOnlyTheChangesInsideTheArea() {
+
+		final ExecutorService dispatchers = mock(ExecutorService.class);
+		final WidgetChangeFeed feed = new WidgetChangeFeed(1, 0, dispatchers);
+
+		feed.subscribe(0L, 0L, 100L, 100L);
+
+		final Widget outside = new Widget(1L, 200L, 200L, 1L, 10f, 10f);
+		feed.created(outside);
+		feed.deleted(outside);
+
+		verify(dispatchers, times(0)).execute(any());
+
+		// moved out of the area: touches it before the change
+		final Widget inside = new Widget(2L, 50L, 50L, 2L, 10f, 10f);
+		final Widget movedOut = new Widget(2L, 500L, 500L, 2L, 10f, 10f);
+		feed.updated(inside, movedOut);
+
+		verify(dispatchers, times(1)).execute(any());
+		assertThat(feed.hasSubscribers()).isTrue();
+
+		feed.deleted(inside);
+
+		assertThat(feed.hasSubscribers()).isFalse();
+	}
+
+}
@@ -0,0 +1,59 @@
+package com.danianepg.widget.services.columnar;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LongIntHashMapTest {
+
+	@Test
+	public void putGetRemove_sameAsHashMap() {
+
+		final Random random = new Random(5);
+		final Map<Long, Integer> expected = new HashMap<>();
+		final LongIntHashMap map = new LongIntHashMap();
+
+		for (int i = 0; i < 100_000; i++) {
+			// few distinct keys, so keys are often replaced and removed
+			final long key = random.nextBoolean() ? random.nextInt(3000) : random.nextInt(3000) * 1024L;
+
+			if (random.nextInt(3) == 0) {
+				final Integer previous = expected.remove(key);
+				assertThat(map.remove(key)).isEqualTo(previous == null ? LongIntHashMap.MISSING : previous);
+			} else {
+				final Integer previous = expected.put(key, i);
+				assertThat(map.put(key, i)).isEqualTo(previous == null ? LongIntHashMap.MISSING : previous);
+			}
+		}
+
+		assertThat(map.size()).isEqualTo(expected.size());
+		for (long key = 0; key < 3000; key++) {
+			assertThat(map.get(key)).isEqualTo(expected.getOrDefault(key, LongIntHashMap.MISSING));
+			assertThat(map.get(key * 1024)).isEqualTo(expected.getOrDefault(key * 1024, LongIntHashMap.MISSING));
+		}
+	}
+
+	@Test
+	public void clear_removesEveryKey() {
+
+		final LongIntHashMap map = new LongIntHashMap(4);
+		for (int i = 0; i < 100; i++) {
+			map.put(Long.MIN_VALUE + i, i);
+		}
+		assertThat(map.get(Long.MIN_VALUE + 99)).isEqualTo(99);
+
+		map.clear();
+		assertThat(map.size()).isZero();
+		assertThat(map.get(Long.MIN_VALUE)).isEqualTo(LongIntHashMap.MISSING);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void put_negativeValue() {
+		new LongIntHashMap().put(1L, -1);
+	}
+
+}
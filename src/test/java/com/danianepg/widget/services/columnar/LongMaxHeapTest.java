@@ -0,0 +1,42 @@
+package com.danianepg.widget.services.columnar;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Collections;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LongMaxHeapTest {
+
+	@Test
+	public void pushPop_sameAsPriorityQueue() {
+
+		final Random random = new Random(7);
+		final PriorityQueue<Long> expected = new PriorityQueue<>(Collections.reverseOrder());
+		final LongMaxHeap heap = new LongMaxHeap();
+
+		for (int i = 0; i < 100_000; i++) {
+			if (!expected.isEmpty() && random.nextInt(3) == 0) {
+				assertThat(heap.pop()).isEqualTo(expected.poll());
+			} else {
+				// few distinct values, so values are often repeated
+				final long value = random.nextInt(2000) - 1000L;
+				expected.add(value);
+				heap.push(value);
+			}
+
+			assertThat(heap.size()).isEqualTo(expected.size());
+			if (!expected.isEmpty()) {
+				assertThat(heap.peek()).isEqualTo(expected.peek());
+			}
+		}
+
+		while (!expected.isEmpty()) {
+			assertThat(heap.pop()).isEqualTo(expected.poll());
+		}
+		assertThat(heap.isEmpty()).isTrue();
+	}
+
+}
@@ -0,0 +1,138 @@
+package com.danianepg.widget.services.columnar;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.data.domain.Sort;
+
+import com.danianepg.widget.entities.Widget;
+import com.danianepg.widget.services.WidgetSort;
+
+public class WidgetRecordsTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void mapped_restoredAfterReopening() throws Exception {
+
+		final File file = new File(this.folder.getRoot(), "widgets.dat");
+		final LocalDateTime now = LocalDateTime.now();
+
+		try (WidgetRecords records = WidgetRecords.mapped(file.toPath())) {
+			for (long id = 1; id <= 100; id++) {
+				records.put(new Widget(id, id, -id, id * 2, 10f, 20.5f, now));
+			}
+			records.remove(50L);
+		}
+
+		try (WidgetRecords records = WidgetRecords.mapped(file.toPath())) {
+
+			assertThat(records.size()).isEqualTo(99);
+			assertThat(records.findMaxId()).isEqualTo(100L);
+			assertThat(records.findMaxZ()).hasValue(200L);
+			assertThat(records.slotOf(50L)).isEqualTo(LongIntHashMap.MISSING);
+			assertThat(records.get(records.slotOf(7L))).isEqualTo(new Widget(7L, 7L, -7L, 14L, 10f, 20.5f, now));
+			assertThat(records.get(records.slotOfZ(14L)).getId()).isEqualTo(7L);
+
+			// the slot released before closing is used again
+			final int slot = records.put(new Widget(101L, 0L, 0L, 1L, 1f, 1f, now));
+			assertThat(slot).isLessThan(100);
+		}
+
+		assertThat(Files.size(file.toPath())).isGreaterThan(100L * 48);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void mapped_notAFileOfWidgets() throws Exception {
+
+		final File file = this.folder.newFile("other.dat");
+		Files.write(file.toPath(), new byte[128]);
+
+		WidgetRecords.mapped(file.toPath());
+	}
+
+	@Test
+	public void findMaxZ_followsMovesAndDeletes() {
+
+		final Random random = new Random(17);
+		final WidgetSlots slots = new WidgetColumns();
+		final TreeMap<Long, Long> idsByZ = new TreeMap<>();
+		final Map<Long, Long> zById = new HashMap<>();
+
+		for (int i = 0; i < 50_000; i++) {
+			final long id = random.nextInt(500);
+
+			// deletes and moves often take the top widget
+			if (random.nextInt(3) == 0) {
+				final long removed = idsByZ.isEmpty() || random.nextBoolean() ? id : idsByZ.lastEntry().getValue();
+				slots.remove(removed);
+				final Long z = zById.remove(removed);
+				if (z != null) {
+					idsByZ.remove(z);
+				}
+			} else {
+				final long z = random.nextInt(2000);
+				if (idsByZ.containsKey(z)) {
+					continue;
+				}
+				slots.put(new Widget(id, 0L, 0L, z, 10f, 10f));
+				final Long previousZ = zById.put(id, z);
+				if (previousZ != null) {
+					idsByZ.remove(previousZ);
+				}
+				idsByZ.put(z, id);
+			}
+
+			if (idsByZ.isEmpty()) {
+				assertThat(slots.findMaxZ()).isEmpty();
+			} else {
+				assertThat(slots.findMaxZ()).hasValue(idsByZ.lastKey());
+			}
+		}
+	}
+
+	@Test
+	public void direct_sameAsColumns() {
+
+		final Random random = new Random(13);
+		final WidgetSlots records = WidgetRecords.direct();
+		final WidgetSlots columns = new WidgetColumns();
+
+		// more widgets than a segment holds
+		for (int i = 0; i < WidgetRecords.SEGMENT_RECORDS + 5000; i++) {
+			final long id = random.nextInt(WidgetRecords.SEGMENT_RECORDS + 1000);
+
+			if (random.nextInt(5) == 0) {
+				assertThat(records.remove(id)).isEqualTo(columns.remove(id));
+			} else {
+				final Widget widget = new Widget(id, (long) random.nextInt(100), (long) random.nextInt(100), (long) i,
+						(float) random.nextInt(50), random.nextBoolean() ? null : 5f);
+				records.put(widget);
+				columns.put(widget);
+			}
+		}
+
+		assertThat(records.size()).isEqualTo(columns.size());
+
+		final WidgetSort sort = WidgetSort.of(Sort.by(Sort.Order.asc("height"), Sort.Order.desc("x")));
+		final int[] fromRecords = records.select(slot -> records.isInside(slot, 10, 10, 60, 60), sort, null, 20, 50);
+		final int[] fromColumns = columns.select(slot -> columns.isInside(slot, 10, 10, 60, 60), sort, null, 20, 50);
+
+		assertThat(fromRecords).hasSize(50);
+		for (int i = 0; i < fromRecords.length; i++) {
+			assertThat(records.get(fromRecords[i])).isEqualTo(columns.get(fromColumns[i]));
+		}
+	}
+
+}
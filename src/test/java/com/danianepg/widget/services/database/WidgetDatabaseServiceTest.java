@@ -6,11 +6,13 @@ import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.when;
 
 import java.time.LocalDateTime;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -86,9 +88,8 @@ public class WidgetDatabaseServiceTest {
 
 		final Map<Long, Widget> widgets = new ConcurrentHashMap<>();
 
-		when(this.widgetRepository.findAll(ArgumentMatchers.any(Pageable.class))).thenAnswer(invocation -> {
-			final Pageable page = invocation.getArgument(0);
-			return WidgetMock.getWidgetsPaged(widgets, page);
+		when(this.widgetRepository.findMaxZ()).thenAnswer(invocation -> {
+			return widgets.values().stream().map(Widget::getZ).max(Long::compare);
 		});
 
 		when(this.widgetRepository.findByZ(ArgumentMatchers.anyLong())).thenAnswer(invocation -> {
@@ -107,6 +108,42 @@ public class WidgetDatabaseServiceTest {
 
 		});
 
+		when(this.widgetRepository.existsByZ(ArgumentMatchers.anyLong())).thenAnswer(invocation -> {
+			final Long z = invocation.getArgument(0);
+			return this.containsZ(widgets, z);
+		});
+
+		when(this.widgetRepository.findEndOfRun(ArgumentMatchers.anyLong(), ArgumentMatchers.any(Pageable.class)))
+				.thenAnswer(invocation -> {
+
+					Long z = invocation.getArgument(0);
+					while (this.containsZ(widgets, z + 1)) {
+						z++;
+					}
+					return Collections.singletonList(z);
+				});
+
+		when(this.widgetRepository.shiftZ(ArgumentMatchers.anyLong(), ArgumentMatchers.anyLong(),
+				ArgumentMatchers.any(LocalDateTime.class))).thenAnswer(invocation -> {
+
+					final Long fromZ = invocation.getArgument(0);
+					final Long toZ = invocation.getArgument(1);
+
+					// @formatter:off
+					final List<Widget> shifted = widgets.values()
+							.stream()
+							.filter(w -> w.getZ() >= fromZ && w.getZ() <= toZ)
+							.collect(Collectors.toList());
+					// @formatter:on
+
+					shifted.forEach(w -> {
+						final Widget updated = w.clone();
+						updated.setZ(w.getZ() + 1);
+						widgets.put(updated.getId(), updated);
+					});
+					return shifted.size();
+				});
+
 		when(this.widgetRepository.saveAll(ArgumentMatchers.anyCollection())).thenAnswer(invocation -> {
 
 			@SuppressWarnings("unchecked")
@@ -248,8 +285,7 @@ public class WidgetDatabaseServiceTest {
 	public void filterWidget_ok() {
 
 		final Map<Long, Widget> widgets = WidgetMock.getWidgetsMock();
-		when(this.widgetRepository.findAll(ArgumentMatchers.nullable(Pageable.class)))
-				.thenReturn(WidgetMock.getWidgetsPaged(widgets, null));
+		this.mockFindByArea(widgets);
 
 		final Pageable page1 = PageRequest.of(0, 1, Sort.by(ApplicationConstants.SORT_FIELD).descending());
 		final Page<Widget> filteredPage1 = this.service.filterWidget(0L, 0L, 100L, 150L, page1);
@@ -268,10 +304,42 @@ public class WidgetDatabaseServiceTest {
 	@Test
 	public void filterWidget_notFound() {
 		final Map<Long, Widget> widgets = WidgetMock.getWidgetsMock();
-		when(this.widgetRepository.findAll(ArgumentMatchers.nullable(Pageable.class)))
-				.thenReturn(WidgetMock.getWidgetsPaged(widgets, null));
+		this.mockFindByArea(widgets);
 		assertTrue(this.service.filterWidget(100L, 0L, 150L, 50L, null).getTotalElements() == 0);
 
 	}
 
+	/**
+	 * Emulate the filter by area evaluated by the database over the generated
+	 * boundaries.
+	 */
+	private void mockFindByArea(final Map<Long, Widget> widgets) {
+
+		when(this.widgetRepository.findByArea(ArgumentMatchers.anyFloat(), ArgumentMatchers.anyFloat(),
+				ArgumentMatchers.anyFloat(), ArgumentMatchers.anyFloat(), ArgumentMatchers.any(Pageable.class)))
+						.thenAnswer(invocation -> {
+
+							final Float lowerX = invocation.getArgument(0);
+							final Float lowerY = invocation.getArgument(1);
+							final Float upperX = invocation.getArgument(2);
+							final Float upperY = invocation.getArgument(3);
+
+							// @formatter:off
+							final Map<Long, Widget> filtered = widgets.values()
+									.stream()
+									.filter(w -> w.getX() - w.getWidth() / 2 >= lowerX)
+									.filter(w -> w.getY() - w.getHeight() / 2 >= lowerY)
+									.filter(w -> w.getX() + w.getWidth() / 2 <= upperX)
+									.filter(w -> w.getY() + w.getHeight() / 2 <= upperY)
+									.collect(Collectors.toMap(Widget::getId, w -> w));
+							// @formatter:on
+
+							return WidgetMock.getWidgetsPaged(filtered, invocation.getArgument(4));
+						});
+	}
+
+	private boolean containsZ(final Map<Long, Widget> widgets, final Long z) {
+		return widgets.values().stream().anyMatch(w -> w.getZ().equals(z));
+	}
+
 }
@@ -1,13 +1,23 @@
 package com.danianepg.widget.services.inmemory;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.when;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -23,8 +33,11 @@ import org.springframework.test.context.junit4.SpringRunner;
 
 import com.danianepg.widget.entities.Widget;
 import com.danianepg.widget.exceptions.NotFoundException;
+import com.danianepg.widget.repositories.WidgetInMemoryRepository;
 import com.danianepg.widget.exceptions.ValidationException;
+import com.danianepg.widget.services.WidgetBatch;
 import com.danianepg.widget.services.WidgetService;
+import com.danianepg.widget.services.WidgetsByZ;
 import com.danianepg.widget.util.WidgetMock;
 import com.danianepg.widget.utils.ApplicationConstants;
 
@@ -36,6 +49,9 @@ public class WidgetInMemoryServiceTest {
 	@Autowired
 	private WidgetService service;
 
+	@Autowired
+	private WidgetInMemoryRepository repository;
+
 	@MockBean
 	private WidgetsInMemoryStorageService widgets;
 
@@ -120,6 +136,109 @@ public class WidgetInMemoryServiceTest {
 		assertThat(savedWidgets.get(5).getZ()).isEqualTo(11L);
 	}
 
+	@Test
+	public void save_concurrentWritesKeepZUnique() throws Exception {
+
+		final Map<Long, Widget> widgets = new ConcurrentHashMap<>();
+		when(this.widgets.getWidgets()).thenReturn(widgets);
+
+		final int threads = 8;
+		final int savesPerThread = 150;
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		final List<Future<?>> results = new ArrayList<>();
+
+		for (int t = 0; t < threads; t++) {
+			final Random random = new Random(t);
+			final long firstId = 1000L * (t + 1);
+			results.add(executor.submit(() -> {
+				for (int i = 0; i < savesPerThread; i++) {
+					// ids informed, so the ids generated by the repository are kept for other tests
+					final Long z = random.nextInt(4) == 0 ? null : (long) random.nextInt(40);
+					final Widget saved = this.service.save(new Widget(firstId + i, 1L, 2L, z, 10f, 10f));
+
+					// move it around, or only resize it keeping its z
+					final Widget changed = saved.clone();
+					changed.setWidth(20f);
+					if (random.nextBoolean()) {
+						changed.setZ((long) random.nextInt(40));
+					}
+					this.service.update(changed, saved.getId());
+				}
+			}));
+		}
+
+		for (final Future<?> result : results) {
+			result.get(1, TimeUnit.MINUTES);
+		}
+		executor.shutdown();
+
+		final List<Long> zs = widgets.values().stream().map(Widget::getZ).collect(Collectors.toList());
+		assertThat(zs).hasSize(threads * savesPerThread).doesNotHaveDuplicates();
+		assertThat(this.service.findAll(null).getTotalElements()).isEqualTo(threads * savesPerThread);
+	}
+
+	@Test
+	public void saveAll_shiftsTheQueueOnce() {
+
+		final Map<Long, Widget> widgets = WidgetMock.getWidgetsMock();
+		when(this.widgets.getWidgets()).thenReturn(widgets);
+
+		// ids not stored yet, so the widgets are created without taking new ids
+		final Widget created = new Widget(20L, 0L, 0L, 6L, 10f, 10f);
+		final Widget moved = new Widget(1L, 2L, 1L, 7L, 10f, 10f);
+		final Widget stacked = new Widget(21L, 0L, 0L, null, 10f, 10f);
+		final Widget inserted = new Widget(22L, 0L, 0L, 11L, 10f, 10f);
+
+		final List<Widget> saved = this.service.saveAll(
+				new WidgetBatch(Arrays.asList(created, moved, stacked, inserted), Collections.singletonList(7L)));
+
+		assertThat(saved).extracting(Widget::getZ).containsExactly(6L, 7L, 14L, 11L);
+		assertThat(saved).extracting(Widget::getId).containsExactly(20L, 1L, 21L, 22L);
+
+		// the widgets on the way keep their order, pushed up just enough
+		assertThat(widgets.get(2L).getZ()).isEqualTo(8L);
+		assertThat(widgets.get(3L).getZ()).isEqualTo(9L);
+		assertThat(widgets.get(4L).getZ()).isEqualTo(10L);
+		assertThat(widgets.get(5L).getZ()).isEqualTo(12L);
+		assertThat(widgets.get(6L).getZ()).isEqualTo(13L);
+		assertThat(widgets).doesNotContainKey(7L);
+
+		final List<Long> zs = widgets.values().stream().map(Widget::getZ).collect(Collectors.toList());
+		assertThat(zs).doesNotHaveDuplicates().hasSize(9);
+	}
+
+	@Test
+	public void saveAll_writesNothingWhenTheBatchIsInvalid() {
+
+		final Map<Long, Widget> widgets = WidgetMock.getWidgetsMock();
+		when(this.widgets.getWidgets()).thenReturn(widgets);
+
+		final List<Widget> save = Arrays.asList(new Widget(null, 0L, 0L, 6L, 10f, 10f),
+				new Widget(null, 0L, 0L, 6L, 10f, 10f));
+
+		assertThatThrownBy(() -> this.service.saveAll(new WidgetBatch(save, Collections.singletonList(7L))))
+				.isInstanceOf(ValidationException.class);
+		assertThatThrownBy(() -> this.service.saveAll(new WidgetBatch(Collections.singletonList(new Widget()), null)))
+				.isInstanceOf(ValidationException.class);
+
+		assertThat(widgets).hasSize(7);
+		assertThat(widgets.get(2L).getZ()).isEqualTo(6L);
+	}
+
+	@Test
+	public void widgetsByZ_walksAllPages() {
+
+		when(this.widgets.getWidgets()).thenReturn(WidgetMock.getWidgetsMock());
+
+		final List<Long> zs = new ArrayList<>();
+		new WidgetsByZ(this.repository, 2).forEachRemaining(widget -> zs.add(widget.getZ()));
+		assertThat(zs).containsExactly(1L, 6L, 7L, 10L, 11L, 12L, 13L);
+
+		zs.clear();
+		new WidgetsByZ(this.repository, 7L, 3).forEachRemaining(widget -> zs.add(widget.getZ()));
+		assertThat(zs).containsExactly(7L, 10L, 11L, 12L, 13L);
+	}
+
 	@Test(expected = ValidationException.class)
 	public void save_failWhenFieldsAreInvalid() {
 
@@ -0,0 +1,141 @@
+package com.danianepg.widget.services.inmemory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+
+import com.danianepg.widget.entities.Widget;
+import com.danianepg.widget.services.WidgetCursor;
+
+public class WidgetPagingAndSortingServiceTest {
+
+	private final WidgetPagingAndSortingService pagingAndSorting = new WidgetPagingAndSortingService();
+
+	@Test
+	public void getPage_sameResultAsFullSort() {
+
+		final Random random = new Random(42);
+		final List<Widget> widgets = new ArrayList<>();
+		for (long id = 1; id <= 1000; id++) {
+			// few distinct values so ties are frequent
+			widgets.add(new Widget(id, (long) random.nextInt(20), 0L, (long) random.nextInt(5000), 10f, 10f));
+		}
+
+		final List<Widget> sortedByX = widgets.stream().sorted(Comparator.comparing(Widget::getX))
+				.collect(Collectors.toList());
+
+		for (final int pageNumber : new int[] { 0, 1, 7, 99 }) {
+			final Page<Widget> page = this.pagingAndSorting.getPage(widgets,
+					PageRequest.of(pageNumber, 10, Sort.by("x").ascending()));
+
+			assertThat(page.getTotalElements()).isEqualTo(1000);
+			assertThat(page.getContent())
+					.containsExactlyElementsOf(sortedByX.subList(pageNumber * 10, pageNumber * 10 + 10));
+		}
+
+		final List<Widget> sortedByZ = widgets.stream()
+				.sorted(Comparator.comparing(Widget::getZ).thenComparing(Widget::getId).reversed())
+				.collect(Collectors.toList());
+		final Page<Widget> page = this.pagingAndSorting.getPage(widgets,
+				PageRequest.of(0, 10, Sort.by("z").descending()));
+
+		assertThat(page.getContent()).containsExactlyElementsOf(sortedByZ.subList(0, 10));
+	}
+
+	@Test
+	public void getPage_lastAndOutOfRangePages() {
+
+		final List<Widget> widgets = new ArrayList<>();
+		for (long id = 1; id <= 25; id++) {
+			widgets.add(new Widget(id, 0L, 0L, id, 10f, 10f));
+		}
+
+		Page<Widget> page = this.pagingAndSorting.getPage(widgets,
+				PageRequest.of(2, 10, Sort.by("z").descending()));
+		assertThat(page.getContent()).extracting(Widget::getZ).containsExactly(5L, 4L, 3L, 2L, 1L);
+		assertThat(page.getTotalElements()).isEqualTo(25);
+
+		page = this.pagingAndSorting.getPage(widgets, PageRequest.of(3, 10, Sort.by("z").descending()));
+		assertThat(page.getContent()).isEmpty();
+		assertThat(page.getTotalElements()).isEqualTo(25);
+	}
+
+	@Test
+	public void getPage_sortedBySeveralFields() {
+
+		final Random random = new Random(7);
+		final List<Widget> widgets = new ArrayList<>();
+		for (long id = 1; id <= 300; id++) {
+			widgets.add(new Widget(id, (long) random.nextInt(5), (long) random.nextInt(5), id, 10f,
+					(float) random.nextInt(3)));
+		}
+
+		// @formatter:off
+		final List<Widget> expected = widgets.stream()
+				.sorted(Comparator.comparing(Widget::getX).reversed()
+						.thenComparing(Widget::getHeight)
+						.thenComparing(Comparator.comparing(Widget::getId).reversed()))
+				.collect(Collectors.toList());
+		// @formatter:on
+
+		final Sort sort = Sort.by(Sort.Order.desc("x"), Sort.Order.asc("height"), Sort.Order.desc("id"));
+
+		for (final int pageNumber : new int[] { 0, 3, 29 }) {
+			final Page<Widget> page = this.pagingAndSorting.getPage(widgets, PageRequest.of(pageNumber, 10, sort));
+			assertThat(page.getContent())
+					.containsExactlyElementsOf(expected.subList(pageNumber * 10, pageNumber * 10 + 10));
+		}
+	}
+
+	@Test
+	public void getPage_walkWithCursorSortedBySeveralFields() {
+
+		final Random random = new Random(11);
+		final List<Widget> widgets = new ArrayList<>();
+		for (long id = 1; id <= 95; id++) {
+			widgets.add(new Widget(id, (long) random.nextInt(4), (long) random.nextInt(4), id, 10f, 10f));
+		}
+
+		final Sort sort = this.pagingAndSorting
+				.getPageAndSort(PageRequest.of(0, 10, Sort.by(Sort.Order.asc("y"), Sort.Order.desc("x")))).getSort();
+
+		final List<Widget> walked = new ArrayList<>();
+		WidgetCursor cursor = null;
+		do {
+			final List<Widget> content = this.pagingAndSorting.getPage(widgets, PageRequest.of(0, 10, sort), cursor)
+					.getContent();
+			walked.addAll(content);
+			cursor = content.size() < 10 ? null : WidgetCursor.after(content.get(content.size() - 1), sort);
+		} while (cursor != null);
+
+		// @formatter:off
+		final List<Widget> expected = widgets.stream()
+				.sorted(Comparator.comparing(Widget::getY)
+						.thenComparing(Comparator.comparing(Widget::getX).reversed())
+						.thenComparing(Comparator.comparing(Widget::getId).reversed()))
+				.collect(Collectors.toList());
+		// @formatter:on
+
+		assertThat(walked).containsExactlyElementsOf(expected);
+	}
+
+	@Test
+	public void getPageAndSort_keepsEveryFieldTiedById() {
+
+		final Pageable page = this.pagingAndSorting
+				.getPageAndSort(PageRequest.of(1, 10, Sort.by(Sort.Order.desc("z"), Sort.Order.asc("width"))));
+
+		assertThat(page.getSort()).containsExactly(Sort.Order.desc("z"), Sort.Order.asc("width"), Sort.Order.asc("id"));
+	}
+
+}
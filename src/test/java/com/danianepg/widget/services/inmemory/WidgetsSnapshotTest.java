@@ -0,0 +1,103 @@
+package com.danianepg.widget.services.inmemory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.danianepg.widget.entities.Widget;
+
+public class WidgetsSnapshotTest {
+
+	@Test
+	public void with_keepsPreviousVersions() {
+
+		final Widget widget = new Widget(1L, 0L, 0L, 1L, 10f, 10f);
+		final WidgetsSnapshot first = WidgetsSnapshot.EMPTY.with(widget);
+
+		final Widget moved = widget.clone();
+		moved.setZ(5L);
+		final WidgetsSnapshot second = first.with(moved).with(new Widget(2L, 0L, 0L, 2L, 10f, 10f));
+
+		assertThat(first.get(1L).getZ()).isEqualTo(1L);
+		assertThat(first.get(2L)).isNull();
+		assertThat(first.size()).isEqualTo(1);
+
+		assertThat(second.get(1L).getZ()).isEqualTo(5L);
+		assertThat(second.size()).isEqualTo(2);
+		assertThat(second.getVersion()).isEqualTo(first.getVersion() + 2);
+
+		assertThat(WidgetsSnapshot.EMPTY.size()).isZero();
+	}
+
+	@Test
+	public void withAll_publishesOneVersion() {
+
+		final WidgetsSnapshot first = WidgetsSnapshot.EMPTY.with(new Widget(1L, 0L, 0L, 1L, 10f, 10f));
+
+		final List<Widget> run = new ArrayList<>();
+		for (long id = 1; id <= 100; id++) {
+			run.add(new Widget(id, 0L, 0L, id + 1, 10f, 10f));
+		}
+		run.add(new Widget(1L << 40, 0L, 0L, 200L, 10f, 10f));
+
+		final WidgetsSnapshot second = first.withAll(run);
+
+		assertThat(first.get(1L).getZ()).isEqualTo(1L);
+		assertThat(first.size()).isEqualTo(1);
+
+		assertThat(second.getVersion()).isEqualTo(first.getVersion() + 1);
+		assertThat(second.size()).isEqualTo(101);
+		assertThat(second.values()).containsExactlyElementsOf(run);
+		assertThat(second.withAll(Collections.emptyList())).isSameAs(second);
+	}
+
+	@Test
+	public void without_keepsPreviousVersions() {
+
+		final WidgetsSnapshot full = WidgetsSnapshot.EMPTY.with(new Widget(1L, 0L, 0L, 1L, 10f, 10f))
+				.with(new Widget(40L, 0L, 0L, 2L, 10f, 10f));
+		final WidgetsSnapshot removed = full.without(40L);
+
+		assertThat(full.get(40L)).isNotNull();
+		assertThat(removed.get(40L)).isNull();
+		assertThat(removed.values()).extracting(Widget::getId).containsExactly(1L);
+
+		assertThat(removed.without(40L)).isSameAs(removed);
+		assertThat(removed.without(1L).values()).isEmpty();
+	}
+
+	@Test
+	public void values_sameAsMap() {
+
+		final Random random = new Random(3);
+		final Map<Long, Widget> expected = new HashMap<>();
+		WidgetsSnapshot snapshot = WidgetsSnapshot.EMPTY;
+
+		for (int i = 0; i < 5000; i++) {
+			final long id = i % 3 == 0 ? random.nextLong() : random.nextInt(2000);
+
+			if (random.nextInt(4) == 0) {
+				expected.remove(id);
+				snapshot = snapshot.without(id);
+			} else {
+				final Widget widget = new Widget(id, 0L, 0L, (long) i, 10f, 10f);
+				expected.put(id, widget);
+				snapshot = snapshot.with(widget);
+			}
+		}
+
+		assertThat(snapshot.size()).isEqualTo(expected.size());
+		assertThat(snapshot.values()).containsExactlyInAnyOrderElementsOf(expected.values());
+		for (final Widget widget : expected.values()) {
+			assertThat(snapshot.get(widget.getId())).isSameAs(widget);
+		}
+	}
+
+}
@@ -0,0 +1,76 @@
+package com.danianepg.widget.services.inmemory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.danianepg.widget.entities.Widget;
+
+public class WidgetsSnapshotterTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void restore_sameAsWritten() {
+
+		final Path file = this.folder.getRoot().toPath().resolve("widgets.snapshot");
+		final WidgetsSnapshotter snapshotter = new WidgetsSnapshotter(file, 1000);
+		final LocalDateTime now = LocalDateTime.now();
+
+		// more widgets than a mapped region holds
+		WidgetsSnapshot widgets = WidgetsSnapshot.EMPTY;
+		for (long id = 1; id <= 70_000; id++) {
+			widgets = widgets.with(new Widget(id, id, -id, id * 2, 1.5f, id % 2 == 0 ? null : 3f, now));
+		}
+
+		snapshotter.write(WidgetsSnapshot.EMPTY, 0L);
+		snapshotter.write(widgets, 70_010L);
+
+		final Map<Long, Widget> restored = new HashMap<>();
+		final WidgetsSnapshotter.Header header = snapshotter.restore(w -> restored.put(w.getId(), w)).get();
+
+		assertThat(header.getSize()).isEqualTo(70_000);
+		assertThat(header.getLatestId()).isEqualTo(70_010L);
+		assertThat(restored).hasSize(70_000);
+		assertThat(restored.get(65_537L)).isEqualTo(widgets.get(65_537L));
+		assertThat(restored.get(8L).getHeight()).isNull();
+		assertThat(restored.get(8L).getLastModification()).isEqualTo(now);
+	}
+
+	@Test
+	public void restore_noSnapshotYet() {
+
+		final WidgetsSnapshotter snapshotter = new WidgetsSnapshotter(
+				this.folder.getRoot().toPath().resolve("widgets.snapshot"), 1000);
+
+		assertThat(snapshotter.restore(w -> {
+		})).isEmpty();
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void restore_corruptedSnapshot() throws Exception {
+
+		final Path file = this.folder.getRoot().toPath().resolve("widgets.snapshot");
+		final WidgetsSnapshotter snapshotter = new WidgetsSnapshotter(file, 1000);
+		snapshotter.write(WidgetsSnapshot.EMPTY.with(new Widget(1L, 0L, 0L, 1L, 5f, 5f)), 1L);
+
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			channel.write(ByteBuffer.wrap(new byte[] { 42 }), 50);
+		}
+
+		snapshotter.restore(w -> {
+		});
+	}
+
+}
@@ -0,0 +1,182 @@
+package com.danianepg.widget.services.inmemory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.danianepg.widget.entities.Widget;
+import com.danianepg.widget.services.inmemory.WidgetsWriteAheadLog.SyncPolicy;
+
+public class WidgetsWriteAheadLogTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private WidgetsWriteAheadLog open(final Path file, final SyncPolicy syncPolicy) throws Exception {
+		final WidgetsWriteAheadLog log = new WidgetsWriteAheadLog(file, syncPolicy, 16, 10);
+		log.open();
+		return log;
+	}
+
+	private Map<Long, Widget> replay(final WidgetsWriteAheadLog log) {
+		final Map<Long, Widget> widgets = new HashMap<>();
+		log.replay(widget -> widgets.put(widget.getId(), widget), widgets::remove);
+		return widgets;
+	}
+
+	@Test
+	public void replay_restoresTheLatestWrites() throws Exception {
+
+		final Path file = this.folder.getRoot().toPath().resolve("widgets.wal");
+		final LocalDateTime now = LocalDateTime.now();
+
+		try (WidgetsWriteAheadLog log = this.open(file, SyncPolicy.ALWAYS)) {
+			assertThat(this.replay(log)).isEmpty();
+
+			log.append(new Widget(1L, 10L, -10L, 1L, 5f, 7.5f, now));
+			log.append(new Widget(2L, 20L, 20L, 2L, 5f, null, now));
+			log.commit(log.append(new Widget(3L, 30L, 30L, 3L, 5f, 5f, now)));
+
+			log.append(new Widget(1L, 10L, -10L, 4L, 5f, 7.5f, now));
+			log.commit(log.appendDelete(2L));
+		}
+
+		try (WidgetsWriteAheadLog log = this.open(file, SyncPolicy.ALWAYS)) {
+			final Map<Long, Widget> widgets = this.replay(log);
+
+			assertThat(widgets).containsOnlyKeys(1L, 3L);
+			assertThat(widgets.get(1L)).isEqualTo(new Widget(1L, 10L, -10L, 4L, 5f, 7.5f, now));
+			assertThat(widgets.get(1L).getLastModification()).isEqualTo(now);
+		}
+	}
+
+	@Test
+	public void replay_cutsIncompleteRecords() throws Exception {
+
+		final Path file = this.folder.getRoot().toPath().resolve("widgets.wal");
+
+		try (WidgetsWriteAheadLog log = this.open(file, SyncPolicy.BATCH)) {
+			log.append(new Widget(1L, 0L, 0L, 1L, 5f, 5f));
+			log.commit(log.append(new Widget(2L, 0L, 0L, 2L, 5f, 5f)));
+		}
+		final long complete = Files.size(file);
+
+		// a record torn by a crash
+		Files.write(file, new byte[] { 0, 0, 0, 70, 1, 42, 42 }, StandardOpenOption.APPEND);
+
+		try (WidgetsWriteAheadLog log = this.open(file, SyncPolicy.BATCH)) {
+			assertThat(this.replay(log)).containsOnlyKeys(1L, 2L);
+			assertThat(Files.size(file)).isEqualTo(complete);
+
+			log.commit(log.append(new Widget(3L, 0L, 0L, 3L, 5f, 5f)));
+		}
+
+		try (WidgetsWriteAheadLog log = this.open(file, SyncPolicy.BATCH)) {
+			assertThat(this.replay(log)).containsOnlyKeys(1L, 2L, 3L);
+		}
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void replay_refusesAnotherVersion() throws Exception {
+
+		final Path file = this.folder.getRoot().toPath().resolve("widgets.wal");
+
+		try (WidgetsWriteAheadLog log = this.open(file, SyncPolicy.ALWAYS)) {
+			log.commit(log.append(new Widget(1L, 0L, 0L, 1L, 5f, 5f)));
+		}
+
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			channel.write(ByteBuffer.allocate(Integer.BYTES).putInt(0, WidgetsWriteAheadLog.VERSION + 1), Long.BYTES);
+		}
+
+		try (WidgetsWriteAheadLog log = this.open(file, SyncPolicy.ALWAYS)) {
+			this.replay(log);
+		}
+	}
+
+	@Test
+	public void truncate_keepsTheRecordsAfterThePosition() throws Exception {
+
+		final Path file = this.folder.getRoot().toPath().resolve("widgets.wal");
+
+		try (WidgetsWriteAheadLog log = this.open(file, SyncPolicy.ALWAYS)) {
+			log.append(new Widget(1L, 0L, 0L, 1L, 5f, 5f));
+			log.commit(log.append(new Widget(2L, 0L, 0L, 2L, 5f, 5f)));
+			final long snapshotted = log.position();
+
+			log.commit(log.appendDelete(1L));
+			final long pending = log.append(new Widget(3L, 0L, 0L, 3L, 5f, 5f));
+
+			log.truncate(snapshotted);
+			assertThat(log.position()).isEqualTo(pending);
+
+			log.commit(pending);
+			log.commit(log.append(new Widget(4L, 0L, 0L, 4L, 5f, 5f)));
+
+			// a position already truncated changes nothing
+			log.truncate(snapshotted);
+		}
+
+		try (WidgetsWriteAheadLog log = this.open(file, SyncPolicy.ALWAYS)) {
+			final Map<Long, Widget> widgets = new HashMap<>();
+			widgets.put(1L, new Widget(1L, 0L, 0L, 1L, 5f, 5f));
+
+			assertThat(log.replay(widget -> widgets.put(widget.getId(), widget), widgets::remove)).isEqualTo(3);
+			assertThat(widgets).containsOnlyKeys(3L, 4L);
+		}
+	}
+
+	@Test
+	public void commit_concurrentWritersAllLogged() throws Exception {
+
+		for (final SyncPolicy syncPolicy : SyncPolicy.values()) {
+
+			final Path file = this.folder.getRoot().toPath().resolve(syncPolicy + ".wal");
+			final ExecutorService executor = Executors.newFixedThreadPool(8);
+
+			try (WidgetsWriteAheadLog log = this.open(file, syncPolicy)) {
+
+				final List<Future<?>> writers = new ArrayList<>();
+				for (int t = 0; t < 8; t++) {
+					final long firstId = t * 1000L;
+					writers.add(executor.submit(() -> {
+						for (long id = firstId; id < firstId + 300; id++) {
+							log.commit(log.append(new Widget(id, id, id, id, 1f, 1f)));
+						}
+						log.commit(log.appendDelete(firstId));
+					}));
+				}
+
+				for (final Future<?> writer : writers) {
+					writer.get();
+				}
+			} finally {
+				executor.shutdown();
+			}
+
+			try (WidgetsWriteAheadLog log = this.open(file, syncPolicy)) {
+				final Map<Long, Widget> widgets = this.replay(log);
+				assertThat(widgets).hasSize(8 * 299);
+				assertThat(widgets).doesNotContainKeys(0L, 7000L);
+				assertThat(widgets.get(7299L).getZ()).isEqualTo(7299L);
+			}
+		}
+	}
+
+}
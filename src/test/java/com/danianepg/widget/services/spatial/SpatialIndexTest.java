@@ -0,0 +1,155 @@
+package com.danianepg.widget.services.spatial;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Run the same filter by area workload against every {@link SpatialIndex}
+ * implementation, on uniformly scattered and on clustered boards.
+ */
+@RunWith(Parameterized.class)
+public class SpatialIndexTest {
+
+	private final Random random = new Random(42);
+
+	private final Supplier<SpatialIndex> indexSupplier;
+
+	private final boolean clustered;
+
+	public SpatialIndexTest(final String name, final Supplier<SpatialIndex> indexSupplier, final boolean clustered) {
+		this.indexSupplier = indexSupplier;
+		this.clustered = clustered;
+	}
+
+	@Parameters(name = "{0}")
+	public static Collection<Object[]> indexes() {
+
+		final Supplier<SpatialIndex> rtree = RTreeSpatialIndex::new;
+		final Supplier<SpatialIndex> grid = () -> new GridSpatialIndex(100);
+		final Supplier<SpatialIndex> quadtree = LooseQuadtreeSpatialIndex::new;
+
+		// @formatter:off
+		return Arrays.asList(new Object[][] {
+			{ "rtree uniform", rtree, false },
+			{ "rtree clustered", rtree, true },
+			{ "grid uniform", grid, false },
+			{ "grid clustered", grid, true },
+			{ "quadtree uniform", quadtree, false },
+			{ "quadtree clustered", quadtree, true }
+		});
+		// @formatter:on
+	}
+
+	@Test
+	public void findInside_ok() {
+
+		final SpatialIndex index = this.indexSupplier.get();
+		index.put(1L, 0f, 0f, 100f, 100f);
+		index.put(2L, 0f, 50f, 100f, 150f);
+		index.put(3L, 50f, 100f, 150f, 200f);
+
+		assertThat(index.findInside(0f, 0f, 100f, 150f)).containsExactlyInAnyOrder(1L, 2L);
+		assertThat(index.findInside(0f, 0f, 0f, 0f)).isEmpty();
+	}
+
+	@Test
+	public void findInside_afterMovingAndRemoving() {
+
+		final SpatialIndex index = this.indexSupplier.get();
+		index.put(1L, 0f, 0f, 10f, 10f);
+		index.put(2L, 20f, 20f, 30f, 30f);
+
+		index.put(1L, 200f, 200f, 210f, 210f);
+		index.remove(2L);
+
+		assertThat(index.findInside(0f, 0f, 100f, 100f)).isEmpty();
+		assertThat(index.findInside(150f, 150f, 250f, 250f)).containsExactly(1L);
+		assertThat(index.size()).isEqualTo(1);
+
+		index.clear();
+		assertThat(index.findInside(150f, 150f, 250f, 250f)).isEmpty();
+	}
+
+	@Test
+	public void findInside_negativeCoordinates() {
+
+		final SpatialIndex index = this.indexSupplier.get();
+		index.put(1L, -150f, -150f, -50f, -50f);
+		index.put(2L, -10f, -10f, 10f, 10f);
+
+		assertThat(index.findInside(-200f, -200f, 0f, 0f)).containsExactly(1L);
+		assertThat(index.findInside(-200f, -200f, 20f, 20f)).containsExactlyInAnyOrder(1L, 2L);
+	}
+
+	@Test
+	public void findInside_sameResultAsFullScan() {
+
+		final SpatialIndex index = this.indexSupplier.get();
+		final Map<Long, float[]> rectangles = new HashMap<>();
+
+		for (long id = 1; id <= 3000; id++) {
+			this.put(index, rectangles, id);
+		}
+
+		for (int i = 0; i < 1500; i++) {
+			final long id = 1 + this.random.nextInt(3000);
+			if (this.random.nextBoolean()) {
+				index.remove(id);
+				rectangles.remove(id);
+			} else {
+				this.put(index, rectangles, id);
+			}
+		}
+
+		assertThat(index.size()).isEqualTo(rectangles.size());
+
+		for (int i = 0; i < 100; i++) {
+			final float minX = this.random.nextInt(1000);
+			final float minY = this.random.nextInt(1000);
+			final float maxX = minX + this.random.nextInt(400);
+			final float maxY = minY + this.random.nextInt(400);
+
+			final List<Long> expected = new ArrayList<>();
+			rectangles.forEach((id, r) -> {
+				if (r[0] >= minX && r[1] >= minY && r[2] <= maxX && r[3] <= maxY) {
+					expected.add(id);
+				}
+			});
+
+			assertThat(index.findInside(minX, minY, maxX, maxY)).containsExactlyInAnyOrderElementsOf(expected);
+		}
+	}
+
+	private void put(final SpatialIndex index, final Map<Long, float[]> rectangles, final long id) {
+
+		final float minX;
+		final float minY;
+		if (this.clustered) {
+			final int cluster = this.random.nextInt(5) * 200;
+			minX = cluster + (float) Math.abs(this.random.nextGaussian() * 20);
+			minY = cluster + (float) Math.abs(this.random.nextGaussian() * 20);
+		} else {
+			minX = this.random.nextInt(1000);
+			minY = this.random.nextInt(1000);
+		}
+
+		final float[] rectangle = { minX, minY, minX + this.random.nextInt(50), minY + this.random.nextInt(50) };
+
+		index.put(id, rectangle[0], rectangle[1], rectangle[2], rectangle[3]);
+		rectangles.put(id, rectangle);
+	}
+
+}